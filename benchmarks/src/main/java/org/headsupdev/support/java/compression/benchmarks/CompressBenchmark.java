@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression.benchmarks;
+
+import org.headsupdev.support.java.compression.CompressionOptions;
+import org.headsupdev.support.java.compression.UncompressedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archiving each corpus as a zip and as a tar.
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class CompressBenchmark
+{
+    @Param( { "HUGE", "INCOMPRESSIBLE", "SMALL_FILES", "DEEP_TREE" } )
+    public Corpus corpus;
+
+    @Param( { "1", "4" } )
+    public int parallelism;
+
+    @Param( { "65536" } )
+    public int bufferSize;
+
+    private File dir;
+
+    private UncompressedFile input;
+
+    private CompressionOptions options;
+
+    private File output;
+
+    @Setup( Level.Trial )
+    public void createCorpus() throws IOException
+    {
+        dir = Files.createTempDirectory( "compress-benchmark" ).toFile();
+        input = corpus.create( dir );
+
+        options = new CompressionOptions();
+        options.setParallelism( parallelism );
+        options.setBufferSize( bufferSize );
+    }
+
+    @TearDown( Level.Invocation )
+    public void deleteOutput()
+    {
+        if ( output != null )
+        {
+            output.delete();
+            output = null;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteCorpus()
+    {
+        Corpus.delete( dir );
+    }
+
+    @Benchmark
+    public File zipCompress() throws IOException
+    {
+        output = input.zipCompress( false, options );
+        return output;
+    }
+
+    @Benchmark
+    public File tarCompress() throws IOException
+    {
+        output = input.tarCompress( false, options );
+        return output;
+    }
+}
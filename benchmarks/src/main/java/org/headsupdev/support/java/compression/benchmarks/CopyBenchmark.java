@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression.benchmarks;
+
+import org.headsupdev.support.java.compression.UncompressedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying each corpus, with copyTo for the single files and copyDirTo for the directories.
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class CopyBenchmark
+{
+    @Param( { "HUGE", "INCOMPRESSIBLE", "SMALL_FILES", "DEEP_TREE" } )
+    public Corpus corpus;
+
+    @Param( { "1", "4" } )
+    public int parallelism;
+
+    private File dir;
+
+    private UncompressedFile input;
+
+    private UncompressedFile output;
+
+    @Setup( Level.Trial )
+    public void createCorpus() throws IOException
+    {
+        dir = Files.createTempDirectory( "copy-benchmark" ).toFile();
+        input = corpus.create( dir );
+        output = new UncompressedFile( dir, "copy" );
+    }
+
+    @TearDown( Level.Invocation )
+    public void deleteOutput()
+    {
+        Corpus.delete( output );
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteCorpus()
+    {
+        Corpus.delete( dir );
+    }
+
+    @Benchmark
+    public Object copy() throws IOException
+    {
+        if ( corpus.isSingleFile() )
+        {
+            return input.copyTo( output );
+        }
+        if ( parallelism == 1 )
+        {
+            return input.copyDirTo( output );
+        }
+
+        return input.copyDirTo( output, parallelism );
+    }
+}
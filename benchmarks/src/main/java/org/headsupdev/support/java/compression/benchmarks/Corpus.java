@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression.benchmarks;
+
+import org.headsupdev.support.java.compression.UncompressedFile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * The generated data the benchmarks run over. Everything comes from a fixed seed so that runs on
+ * different versions compress and expand exactly the same bytes.
+ */
+public enum Corpus
+{
+    /**
+     * A single large file of log like text, which compresses well.
+     */
+    HUGE
+            {
+                UncompressedFile create( File dir, Random random ) throws IOException
+                {
+                    UncompressedFile file = new UncompressedFile( dir, "huge.log" );
+                    writeText( file, 256L * 1024 * 1024, random );
+                    return file;
+                }
+            },
+
+    /**
+     * A single file of random bytes, which deflate cannot shrink.
+     */
+    INCOMPRESSIBLE
+            {
+                UncompressedFile create( File dir, Random random ) throws IOException
+                {
+                    UncompressedFile file = new UncompressedFile( dir, "random.bin" );
+                    writeRandom( file, 64L * 1024 * 1024, random );
+                    return file;
+                }
+            },
+
+    /**
+     * A flat directory of many small text files, where the per file overhead dominates.
+     */
+    SMALL_FILES
+            {
+                UncompressedFile create( File dir, Random random ) throws IOException
+                {
+                    UncompressedFile root = new UncompressedFile( dir, "small" );
+                    root.mkdirs();
+                    for ( int i = 0; i < 5000; i++ )
+                    {
+                        writeText( new File( root, "file" + i + ".txt" ), 512 + random.nextInt( 8 * 1024 ), random );
+                    }
+                    return root;
+                }
+            },
+
+    /**
+     * A deep, branching tree of directories with a few files in each.
+     */
+    DEEP_TREE
+            {
+                UncompressedFile create( File dir, Random random ) throws IOException
+                {
+                    UncompressedFile root = new UncompressedFile( dir, "tree" );
+                    createTree( root, 10, random );
+                    return root;
+                }
+            };
+
+    private static final String[] WORDS = { "request", "response", "GET", "POST", "/index.html", "/api/items",
+            "200", "304", "404", "500", "user", "session", "cache", "miss", "hit", "compress", "expand" };
+
+    /**
+     * Generate this corpus.
+     *
+     * @param dir Where to create it, which must exist
+     * @return The file or directory to benchmark with
+     * @throws IOException If the data cannot be written
+     */
+    public UncompressedFile create( File dir ) throws IOException
+    {
+        return create( dir, new Random( 42 ) );
+    }
+
+    abstract UncompressedFile create( File dir, Random random ) throws IOException;
+
+    /**
+     * @return True if this corpus is a single file rather than a directory
+     */
+    public boolean isSingleFile()
+    {
+        return this == HUGE || this == INCOMPRESSIBLE;
+    }
+
+    private static void createTree( File dir, int depth, Random random ) throws IOException
+    {
+        dir.mkdirs();
+        for ( int i = 0; i < 4; i++ )
+        {
+            writeText( new File( dir, "file" + i + ".txt" ), 256 + random.nextInt( 4 * 1024 ), random );
+        }
+
+        if ( depth > 0 )
+        {
+            createTree( new File( dir, "left" ), depth - 1, random );
+            createTree( new File( dir, "right" ), depth - 1, random );
+        }
+    }
+
+    private static void writeText( File file, long size, Random random ) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 );
+        try
+        {
+            long written = 0;
+            long line = 0;
+            StringBuilder text = new StringBuilder();
+            while ( written < size )
+            {
+                text.setLength( 0 );
+                text.append( line++ ).append( ' ' );
+                for ( int i = 0; i < 8; i++ )
+                {
+                    text.append( WORDS[random.nextInt( WORDS.length )] ).append( ' ' );
+                }
+                text.append( random.nextInt( 100000 ) ).append( '\n' );
+
+                byte[] bytes = text.toString().getBytes( StandardCharsets.US_ASCII );
+                int length = (int) Math.min( bytes.length, size - written );
+                out.write( bytes, 0, length );
+                written += length;
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static void writeRandom( File file, long size, Random random ) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 );
+        try
+        {
+            byte[] data = new byte[64 * 1024];
+            for ( long written = 0; written < size; written += data.length )
+            {
+                random.nextBytes( data );
+                out.write( data, 0, (int) Math.min( data.length, size - written ) );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete a file, or a directory and everything in it.
+     */
+    static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression.benchmarks;
+
+import org.headsupdev.support.java.compression.CompressionOptions;
+import org.headsupdev.support.java.compression.TarFile;
+import org.headsupdev.support.java.compression.UncompressedFile;
+import org.headsupdev.support.java.compression.ZipFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expanding zip and tar archives of each corpus.
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ExpandBenchmark
+{
+    @Param( { "HUGE", "INCOMPRESSIBLE", "SMALL_FILES", "DEEP_TREE" } )
+    public Corpus corpus;
+
+    @Param( { "1", "4" } )
+    public int parallelism;
+
+    @Param( { "65536" } )
+    public int bufferSize;
+
+    private File dir;
+
+    private ZipFile zip;
+
+    private TarFile tar;
+
+    private CompressionOptions options;
+
+    private File output;
+
+    @Setup( Level.Trial )
+    public void createArchives() throws IOException
+    {
+        dir = Files.createTempDirectory( "expand-benchmark" ).toFile();
+        File source = new File( dir, "source" );
+        source.mkdir();
+        UncompressedFile input = corpus.create( source );
+
+        options = new CompressionOptions();
+        options.setParallelism( parallelism );
+        options.setBufferSize( bufferSize );
+
+        // the archives expand next to themselves, so move them away from the corpus
+        zip = new ZipFile( dir, "archive.zip" );
+        move( input.zipCompress( false, options ), zip );
+        tar = new TarFile( dir, "archive.tar" );
+        move( input.tarCompress( false, options ), tar );
+        Corpus.delete( source );
+    }
+
+    @TearDown( Level.Invocation )
+    public void deleteOutput()
+    {
+        if ( output != null )
+        {
+            Corpus.delete( output );
+            output = null;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteArchives()
+    {
+        Corpus.delete( dir );
+    }
+
+    @Benchmark
+    public File zipExpand() throws IOException
+    {
+        output = zip.expand( options );
+        return output;
+    }
+
+    @Benchmark
+    public File tarExpand() throws IOException
+    {
+        output = tar.expand( options );
+        return output;
+    }
+
+    private static void move( File from, File to ) throws IOException
+    {
+        if ( !from.renameTo( to ) )
+        {
+            throw new IOException( "Unable to move " + from + " to " + to );
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression.benchmarks;
+
+import org.headsupdev.support.java.compression.CompressionOptions;
+import org.headsupdev.support.java.compression.GZipFile;
+import org.headsupdev.support.java.compression.UncompressedFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gzipping and expanding the single file corpora, as gzip only holds one file.
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class GZipBenchmark
+{
+    @Param( { "HUGE", "INCOMPRESSIBLE" } )
+    public Corpus corpus;
+
+    @Param( { "1", "4" } )
+    public int parallelism;
+
+    @Param( { "65536" } )
+    public int bufferSize;
+
+    @Param( { "false", "true" } )
+    public boolean memoryMapped;
+
+    private File dir;
+
+    private UncompressedFile input;
+
+    private GZipFile compressed;
+
+    private CompressionOptions options;
+
+    private File output;
+
+    @Setup( Level.Trial )
+    public void createCorpus() throws IOException
+    {
+        dir = Files.createTempDirectory( "gzip-benchmark" ).toFile();
+        input = corpus.create( dir );
+
+        options = new CompressionOptions();
+        options.setParallelism( parallelism );
+        options.setBufferSize( bufferSize );
+        options.setMemoryMapped( memoryMapped );
+
+        // kept apart from the output of gzipCompress, which would overwrite it
+        GZipFile gzip = input.gzipCompress( false, options );
+        compressed = new GZipFile( dir, "expand.gz" );
+        if ( !gzip.renameTo( compressed ) )
+        {
+            throw new IOException( "Unable to move " + gzip + " to " + compressed );
+        }
+    }
+
+    @TearDown( Level.Invocation )
+    public void deleteOutput()
+    {
+        if ( output != null )
+        {
+            output.delete();
+            output = null;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteCorpus()
+    {
+        Corpus.delete( dir );
+    }
+
+    @Benchmark
+    public File gzipCompress() throws IOException
+    {
+        output = input.gzipCompress( false, options );
+        return output;
+    }
+
+    @Benchmark
+    public File expandTo() throws IOException
+    {
+        output = compressed.expandTo( new File( dir, "expanded" ).getPath(), false, options );
+        return output;
+    }
+}
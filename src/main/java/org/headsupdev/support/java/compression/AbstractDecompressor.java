@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A base for decompressors that work on streams, adapting channels to streams.
+ */
+public abstract class AbstractDecompressor
+        implements Decompressor
+{
+    public void decompress( ReadableByteChannel in, WritableByteChannel out ) throws IOException
+    {
+        OutputStream stream = new BufferedOutputStream( Channels.newOutputStream( out ), Streams.CHANNEL_BUFFER );
+        decompress( Channels.newInputStream( in ), stream );
+        stream.flush();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs one asynchronous operation per file over a batch of files. The largest files are started first,
+ * so that a big file started last does not leave every other thread idle while it finishes. The number
+ * of operations running at once is bounded by the files they may hold open, and a file that fails is
+ * recorded rather than stopping the rest.
+ */
+class BatchRunner
+{
+    /**
+     * Starts the operation on a single file.
+     */
+    interface Operation<T>
+    {
+        CompletableFuture<T> start( java.io.File file );
+    }
+
+    private final int maxOpenFiles;
+
+    /**
+     * @param maxOpenFiles The most files to hold open at once, two for each operation running
+     */
+    BatchRunner( int maxOpenFiles )
+    {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    <T> BatchSummary<T> run( Collection<? extends java.io.File> files, Operation<T> operation ) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        final java.io.File[] order = files.toArray( new java.io.File[files.size()] );
+        final long[] sizes = new long[order.length];
+        Integer[] bySize = new Integer[order.length];
+        for ( int i = 0; i < order.length; i++ )
+        {
+            sizes[i] = order[i].length();
+            bySize[i] = i;
+        }
+        Arrays.sort( bySize, new Comparator<Integer>()
+        {
+            public int compare( Integer a, Integer b )
+            {
+                return sizes[a] > sizes[b] ? -1 : sizes[a] < sizes[b] ? 1 : 0;
+            }
+        } );
+
+        final Semaphore open = new Semaphore( Math.max( 1, maxOpenFiles / 2 ) );
+        BiConsumer<Object, Throwable> release = new BiConsumer<Object, Throwable>()
+        {
+            public void accept( Object result, Throwable failure )
+            {
+                open.release();
+            }
+        };
+
+        List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>( order.length );
+        for ( int i = 0; i < order.length; i++ )
+        {
+            futures.add( null );
+        }
+        try
+        {
+            for ( Integer i : bySize )
+            {
+                open.acquire();
+                CompletableFuture<T> future;
+                try
+                {
+                    future = operation.start( order[i] );
+                }
+                catch ( RuntimeException e )
+                {
+                    open.release();
+                    throw e;
+                }
+                future.whenComplete( release );
+                futures.set( i, future );
+            }
+
+            BatchSummary<T> summary = new BatchSummary<T>();
+            for ( int i = 0; i < order.length; i++ )
+            {
+                try
+                {
+                    summary.addResult( order[i], futures.get( i ).get() );
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+                    summary.addFailure( order[i], cause instanceof IOException ? (IOException) cause :
+                            new IOException( cause.getMessage(), cause ) );
+                }
+                catch ( CancellationException e )
+                {
+                    summary.addFailure( order[i], new InterruptedIOException( "Cancelled" ) );
+                }
+            }
+
+            summary.setTime( System.currentTimeMillis() - start );
+            return summary;
+        }
+        catch ( InterruptedException e )
+        {
+            // stop whatever is still running, which cleans up the files it was writing
+            for ( CompletableFuture<T> future : futures )
+            {
+                if ( future != null )
+                {
+                    future.cancel( true );
+                }
+            }
+            throw new InterruptedIOException( e.getMessage() );
+        }
+    }
+}
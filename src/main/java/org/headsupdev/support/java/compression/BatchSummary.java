@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of compressing or expanding a batch of files: what each file became, and why any that
+ * failed did so. Both are in the order the files were passed in.
+ *
+ * @param <T> The type of file each one produces
+ */
+public class BatchSummary<T>
+{
+    private final Map<java.io.File, T> results = new LinkedHashMap<java.io.File, T>();
+
+    private final Map<java.io.File, IOException> failures = new LinkedHashMap<java.io.File, IOException>();
+
+    private long time;
+
+    void addResult( java.io.File file, T result )
+    {
+        results.put( file, result );
+    }
+
+    void addFailure( java.io.File file, IOException failure )
+    {
+        failures.put( file, failure );
+    }
+
+    void setTime( long time )
+    {
+        this.time = time;
+    }
+
+    /**
+     * @return The files that succeeded, each mapped to what it was compressed or expanded to
+     */
+    public Map<java.io.File, T> getResults()
+    {
+        return Collections.unmodifiableMap( results );
+    }
+
+    /**
+     * @return The files that failed, each mapped to the reason
+     */
+    public Map<java.io.File, IOException> getFailures()
+    {
+        return Collections.unmodifiableMap( failures );
+    }
+
+    /**
+     * @return True if every file succeeded
+     */
+    public boolean isSuccessful()
+    {
+        return failures.isEmpty();
+    }
+
+    /**
+     * @return How long the batch took, in milliseconds
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    public String toString()
+    {
+        return results.size() + " files succeeded and " + failures.size() + " failed in " + time + "ms";
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+/**
+ * Inflates a raw deflate stream, RFC 1951, read from a BitInput. Unlike java.util.zip.Inflater this
+ * stops at every block boundary and can be started at any block given the bit position of its header
+ * and the 32KB of output that came before it, which is what a random access index needs.
+ */
+class BitInflater
+{
+    static final int WINDOW_SIZE = 32 * 1024;
+
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115,
+            131, 163, 195, 227, 258 };
+
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537,
+            2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final int HEADER = 0;
+
+    private static final int STORED = 1;
+
+    private static final int HUFFMAN = 2;
+
+    private static final int DONE = 3;
+
+    private static final Huffman FIXED_LITERALS;
+
+    private static final Huffman FIXED_DISTANCES;
+
+    static
+    {
+        int[] lengths = new int[288];
+        for ( int i = 0; i < 288; i++ )
+        {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        int[] distances = new int[30];
+        for ( int i = 0; i < 30; i++ )
+        {
+            distances[i] = 5;
+        }
+
+        try
+        {
+            FIXED_LITERALS = new Huffman( lengths, 0, 288 );
+            FIXED_DISTANCES = new Huffman( distances, 0, 30 );
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private final BitInput in;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+
+    private int windowPos;
+
+    private long totalOut;
+
+    private int state = HEADER;
+
+    private boolean lastBlock;
+
+    private int storedRemaining;
+
+    private Huffman literals;
+
+    private Huffman distances;
+
+    private int copyLength;
+
+    private int copyDistance;
+
+    public BitInflater( BitInput in )
+    {
+        this.in = in;
+    }
+
+    /**
+     * Prime the window with the output that came before the block this inflater starts at.
+     */
+    public void setWindow( byte[] data, int off, int len )
+    {
+        for ( int i = 0; i < len; i++ )
+        {
+            window[windowPos] = data[off + i];
+            windowPos = ( windowPos + 1 ) & WINDOW_MASK;
+        }
+        totalOut = len;
+    }
+
+    /**
+     * @return Up to the last 32KB of output, oldest first
+     */
+    public byte[] getWindow()
+    {
+        int length = (int) Math.min( totalOut, WINDOW_SIZE );
+        byte[] ret = new byte[length];
+        int start = ( windowPos - length ) & WINDOW_MASK;
+        int first = Math.min( length, WINDOW_SIZE - start );
+        System.arraycopy( window, start, ret, 0, first );
+        System.arraycopy( window, 0, ret, first, length - first );
+        return ret;
+    }
+
+    /**
+     * @return The number of bytes output, including any window that was set
+     */
+    public long getTotalOut()
+    {
+        return totalOut;
+    }
+
+    /**
+     * @return True when the next bit of input is the header of a new block
+     */
+    public boolean isAtBlockStart()
+    {
+        return state == HEADER && copyLength == 0;
+    }
+
+    public boolean isFinished()
+    {
+        return state == DONE;
+    }
+
+    /**
+     * Inflate some data. A read never continues past the end of a block, so after each call the
+     * caller can check isAtBlockStart() to find the places the stream could be restarted from.
+     *
+     * @return The number of bytes inflated, or -1 once the final block has been read
+     * @throws IOException If the input ends early or is not valid deflate data
+     */
+    public int read( byte[] data, int off, int len ) throws IOException
+    {
+        int count = 0;
+        try
+        {
+            while ( count < len )
+            {
+                if ( copyLength > 0 )
+                {
+                    int length = Math.min( copyLength, len - count );
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        byte value = window[( windowPos - copyDistance ) & WINDOW_MASK];
+                        window[windowPos] = value;
+                        windowPos = ( windowPos + 1 ) & WINDOW_MASK;
+                        data[off + count++] = value;
+                    }
+                    copyLength -= length;
+                    totalOut += length;
+                    continue;
+                }
+
+                if ( state == DONE )
+                {
+                    break;
+                }
+                if ( state == HEADER )
+                {
+                    if ( count > 0 )
+                    {
+                        break;
+                    }
+                    readBlockHeader();
+                }
+                else if ( state == STORED )
+                {
+                    int length = Math.min( storedRemaining, len - count );
+                    in.readBytes( data, off + count, length );
+                    for ( int i = 0; i < length; i++ )
+                    {
+                        window[windowPos] = data[off + count + i];
+                        windowPos = ( windowPos + 1 ) & WINDOW_MASK;
+                    }
+                    count += length;
+                    totalOut += length;
+                    storedRemaining -= length;
+                    if ( storedRemaining == 0 )
+                    {
+                        endBlock();
+                    }
+                }
+                else
+                {
+                    int symbol = decode( literals );
+                    if ( symbol < 256 )
+                    {
+                        window[windowPos] = (byte) symbol;
+                        windowPos = ( windowPos + 1 ) & WINDOW_MASK;
+                        data[off + count++] = (byte) symbol;
+                        totalOut++;
+                    }
+                    else if ( symbol == 256 )
+                    {
+                        endBlock();
+                    }
+                    else
+                    {
+                        readCopy( symbol - 257 );
+                    }
+                }
+            }
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IOException( "Invalid deflate data: " + e.getMessage(), e );
+        }
+
+        if ( count == 0 && state == DONE && len > 0 )
+        {
+            return -1;
+        }
+        return count;
+    }
+
+    private void endBlock()
+    {
+        state = lastBlock ? DONE : HEADER;
+    }
+
+    private void readBlockHeader() throws IOException, DataFormatException
+    {
+        lastBlock = in.bits( 1 ) == 1;
+        int type = in.bits( 2 );
+        if ( type == 0 )
+        {
+            in.alignToByte();
+            int length = in.bits( 16 );
+            if ( in.bits( 16 ) != ( ~length & 0xffff ) )
+            {
+                throw new DataFormatException( "stored block length mismatch" );
+            }
+
+            storedRemaining = length;
+            state = STORED;
+            if ( length == 0 )
+            {
+                endBlock();
+            }
+        }
+        else if ( type == 1 )
+        {
+            literals = FIXED_LITERALS;
+            distances = FIXED_DISTANCES;
+            state = HUFFMAN;
+        }
+        else if ( type == 2 )
+        {
+            readDynamicTables();
+            state = HUFFMAN;
+        }
+        else
+        {
+            throw new DataFormatException( "invalid block type" );
+        }
+    }
+
+    private void readDynamicTables() throws IOException, DataFormatException
+    {
+        int literalCount = in.bits( 5 ) + 257;
+        int distanceCount = in.bits( 5 ) + 1;
+        int codeCount = in.bits( 4 ) + 4;
+        if ( literalCount > 286 || distanceCount > 30 )
+        {
+            throw new DataFormatException( "too many length or distance codes" );
+        }
+
+        int[] lengths = new int[19];
+        for ( int i = 0; i < codeCount; i++ )
+        {
+            lengths[CODE_LENGTH_ORDER[i]] = in.bits( 3 );
+        }
+        Huffman codeLengths = new Huffman( lengths, 0, 19 );
+
+        lengths = new int[literalCount + distanceCount];
+        int index = 0;
+        while ( index < lengths.length )
+        {
+            int symbol = decode( codeLengths );
+            if ( symbol < 16 )
+            {
+                lengths[index++] = symbol;
+                continue;
+            }
+
+            int value = 0;
+            int repeat;
+            if ( symbol == 16 )
+            {
+                if ( index == 0 )
+                {
+                    throw new DataFormatException( "repeat with no previous length" );
+                }
+                value = lengths[index - 1];
+                repeat = 3 + in.bits( 2 );
+            }
+            else if ( symbol == 17 )
+            {
+                repeat = 3 + in.bits( 3 );
+            }
+            else
+            {
+                repeat = 11 + in.bits( 7 );
+            }
+            if ( index + repeat > lengths.length )
+            {
+                throw new DataFormatException( "too many code lengths" );
+            }
+            while ( repeat-- > 0 )
+            {
+                lengths[index++] = value;
+            }
+        }
+        if ( lengths[256] == 0 )
+        {
+            throw new DataFormatException( "no end of block code" );
+        }
+
+        literals = new Huffman( lengths, 0, literalCount );
+        distances = new Huffman( lengths, literalCount, distanceCount );
+    }
+
+    private void readCopy( int lengthSymbol ) throws IOException, DataFormatException
+    {
+        if ( lengthSymbol >= LENGTH_BASE.length )
+        {
+            throw new DataFormatException( "invalid length code" );
+        }
+        int length = LENGTH_BASE[lengthSymbol] + in.bits( LENGTH_EXTRA[lengthSymbol] );
+
+        int distanceSymbol = decode( distances );
+        if ( distanceSymbol >= DISTANCE_BASE.length )
+        {
+            throw new DataFormatException( "invalid distance code" );
+        }
+        int distance = DISTANCE_BASE[distanceSymbol] + in.bits( DISTANCE_EXTRA[distanceSymbol] );
+        if ( distance > totalOut )
+        {
+            throw new DataFormatException( "distance too far back" );
+        }
+
+        copyLength = length;
+        copyDistance = distance;
+    }
+
+    private int decode( Huffman code ) throws IOException, DataFormatException
+    {
+        int entry = code.table[in.peek( Huffman.TABLE_BITS )];
+        if ( entry != 0 )
+        {
+            in.drop( entry & 0xf );
+            return entry >> 4;
+        }
+
+        // codes longer than the table are decoded a bit at a time, canonically
+        int value = 0;
+        int first = 0;
+        int index = 0;
+        for ( int length = 1; length <= Huffman.MAX_BITS; length++ )
+        {
+            value |= in.bits( 1 );
+            int count = code.counts[length];
+            if ( value - count < first )
+            {
+                return code.symbols[index + ( value - first )];
+            }
+            index += count;
+            first = ( first + count ) << 1;
+            value <<= 1;
+        }
+
+        throw new DataFormatException( "invalid Huffman code" );
+    }
+
+    /**
+     * A canonical Huffman code with a lookup table for the short codes that make up most of the data.
+     */
+    private static class Huffman
+    {
+        static final int MAX_BITS = 15;
+
+        static final int TABLE_BITS = 9;
+
+        final int[] counts = new int[MAX_BITS + 1];
+
+        final int[] symbols;
+
+        // the symbol shifted left 4 ored with the code length, indexed by the next TABLE_BITS input bits
+        final int[] table = new int[1 << TABLE_BITS];
+
+        Huffman( int[] lengths, int off, int count ) throws DataFormatException
+        {
+            symbols = new int[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                counts[lengths[off + i]]++;
+            }
+            counts[0] = 0;
+
+            int left = 1;
+            for ( int length = 1; length <= MAX_BITS; length++ )
+            {
+                left = ( left << 1 ) - counts[length];
+                if ( left < 0 )
+                {
+                    throw new DataFormatException( "over-subscribed Huffman code" );
+                }
+            }
+
+            int[] offsets = new int[MAX_BITS + 2];
+            int[] next = new int[MAX_BITS + 2];
+            int code = 0;
+            for ( int length = 1; length <= MAX_BITS; length++ )
+            {
+                offsets[length + 1] = offsets[length] + counts[length];
+                code = ( code + counts[length - 1] ) << 1;
+                next[length] = code;
+            }
+
+            for ( int symbol = 0; symbol < count; symbol++ )
+            {
+                int length = lengths[off + symbol];
+                if ( length == 0 )
+                {
+                    continue;
+                }
+
+                symbols[offsets[length]++] = symbol;
+                int value = next[length]++;
+                if ( length <= TABLE_BITS )
+                {
+                    // input bits arrive least significant first, so the table is indexed by the reversed code
+                    int reversed = Integer.reverse( value ) >>> ( 32 - length );
+                    for ( int i = reversed; i < table.length; i += 1 << length )
+                    {
+                        table[i] = symbol << 4 | length;
+                    }
+                }
+            }
+        }
+    }
+}
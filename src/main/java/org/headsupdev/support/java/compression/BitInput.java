@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream a few bits at a time, least significant bit first as deflate packs them,
+ * keeping track of the absolute bit position so that a reader can later be restarted there.
+ */
+class BitInput
+{
+    private final InputStream in;
+
+    private final byte[] buffer;
+
+    private int pos;
+
+    private int limit;
+
+    // the offset in the underlying file of the next byte to go into bitBuffer
+    private long bytePosition;
+
+    private long bitBuffer;
+
+    private int bitCount;
+
+    /**
+     * @param in         The data to read
+     * @param offset     The position of the first byte of the stream, for getBitPosition()
+     * @param bufferSize The size of buffer to read the stream with
+     */
+    public BitInput( InputStream in, long offset, int bufferSize )
+    {
+        this.in = in;
+        this.bytePosition = offset;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * @return The number of bits that have been consumed, counting from the start of the file
+     */
+    public long getBitPosition()
+    {
+        return bytePosition * 8 - bitCount;
+    }
+
+    /**
+     * Look at the next count bits without consuming them. Past the end of the stream the missing
+     * bits read as zero, so a decoder can always look ahead by its table size.
+     */
+    public int peek( int count ) throws IOException
+    {
+        while ( bitCount < count && load() )
+        {
+        }
+
+        return (int) ( bitBuffer & ( ( 1L << count ) - 1 ) );
+    }
+
+    public void drop( int count ) throws IOException
+    {
+        if ( count > bitCount )
+        {
+            throw new EOFException( "Unexpected end of compressed data" );
+        }
+
+        bitBuffer >>>= count;
+        bitCount -= count;
+    }
+
+    /**
+     * Read up to 32 bits.
+     */
+    public int bits( int count ) throws IOException
+    {
+        int ret = peek( count );
+        drop( count );
+        return ret;
+    }
+
+    public void alignToByte() throws IOException
+    {
+        drop( bitCount & 7 );
+    }
+
+    /**
+     * Read a byte once aligned to a byte boundary.
+     *
+     * @return The next byte, or -1 at the end of the stream
+     */
+    public int readByte() throws IOException
+    {
+        if ( bitCount == 0 && !load() )
+        {
+            return -1;
+        }
+
+        return bits( 8 );
+    }
+
+    /**
+     * Read bytes once aligned to a byte boundary.
+     */
+    public void readBytes( byte[] data, int off, int len ) throws IOException
+    {
+        while ( len > 0 && bitCount > 0 )
+        {
+            data[off++] = (byte) bits( 8 );
+            len--;
+        }
+
+        while ( len > 0 )
+        {
+            if ( pos == limit && !fill() )
+            {
+                throw new EOFException( "Unexpected end of compressed data" );
+            }
+
+            int count = Math.min( len, limit - pos );
+            System.arraycopy( buffer, pos, data, off, count );
+            pos += count;
+            off += count;
+            len -= count;
+            bytePosition += count;
+        }
+    }
+
+    private boolean load() throws IOException
+    {
+        if ( pos == limit && !fill() )
+        {
+            return false;
+        }
+
+        bitBuffer |= (long) ( buffer[pos++] & 0xff ) << bitCount;
+        bitCount += 8;
+        bytePosition++;
+        return true;
+    }
+
+    private boolean fill() throws IOException
+    {
+        int count;
+        do
+        {
+            count = in.read( buffer, 0, buffer.length );
+        }
+        while ( count == 0 );
+
+        pos = 0;
+        limit = Math.max( count, 0 );
+        return count > 0;
+    }
+}
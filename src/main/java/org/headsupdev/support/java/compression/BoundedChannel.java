@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read only view of a region of a file channel, positioned from the start of the region.
+ * Reads are positional so several views can share one channel.
+ */
+class BoundedChannel
+        implements SeekableByteChannel
+{
+    private final FileChannel channel;
+
+    private final long start;
+
+    private final long size;
+
+    private final boolean closeChannel;
+
+    private long position;
+
+    private boolean open = true;
+
+    public BoundedChannel( FileChannel channel, long start, long size, boolean closeChannel )
+    {
+        this.channel = channel;
+        this.start = start;
+        this.size = size;
+        this.closeChannel = closeChannel;
+    }
+
+    public int read( ByteBuffer dst ) throws IOException
+    {
+        ensureOpen();
+        long remaining = size - position;
+        if ( remaining <= 0 )
+        {
+            return -1;
+        }
+
+        int limit = dst.limit();
+        if ( dst.remaining() > remaining )
+        {
+            dst.limit( dst.position() + (int) remaining );
+        }
+        try
+        {
+            int count = channel.read( dst, start + position );
+            if ( count > 0 )
+            {
+                position += count;
+            }
+            return count;
+        }
+        finally
+        {
+            dst.limit( limit );
+        }
+    }
+
+    public int write( ByteBuffer src ) throws IOException
+    {
+        throw new NonWritableChannelException();
+    }
+
+    public long position() throws IOException
+    {
+        ensureOpen();
+        return position;
+    }
+
+    public SeekableByteChannel position( long newPosition ) throws IOException
+    {
+        ensureOpen();
+        if ( newPosition < 0 )
+        {
+            throw new IllegalArgumentException( "Negative position" );
+        }
+
+        position = newPosition;
+        return this;
+    }
+
+    public long size() throws IOException
+    {
+        ensureOpen();
+        return size;
+    }
+
+    public SeekableByteChannel truncate( long size ) throws IOException
+    {
+        throw new NonWritableChannelException();
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    public void close() throws IOException
+    {
+        open = false;
+        if ( closeChannel )
+        {
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if ( !open )
+        {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pipe between one writing thread and one reading thread, made of a bounded queue of pooled buffers.
+ * Unlike java.io.PipedInputStream it hands over whole buffers, so each side only synchronises once per
+ * buffer, and a failure on the writing side is reported to the reader rather than leaving it waiting.
+ */
+class BufferPipe
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_DEPTH = 4;
+
+    private static final ByteBuffer END = ByteBuffer.allocate( 0 );
+
+    private final BlockingQueue<ByteBuffer> queue;
+
+    private final int bufferSize;
+
+    private final Output output = new Output();
+
+    private final Input input = new Input();
+
+    private volatile Throwable failure;
+
+    private volatile boolean readerClosed;
+
+    public BufferPipe()
+    {
+        this( DEFAULT_BUFFER_SIZE, DEFAULT_DEPTH );
+    }
+
+    /**
+     * @param bufferSize The size of each buffer passed from the writer to the reader
+     * @param depth      The most full buffers that can be waiting for the reader
+     */
+    public BufferPipe( int bufferSize, int depth )
+    {
+        this.bufferSize = bufferSize;
+        this.queue = new ArrayBlockingQueue<ByteBuffer>( depth + 1 );
+    }
+
+    /**
+     * @return The stream for the writing thread, which must be closed, or the pipe aborted, when done
+     */
+    public OutputStream getOutputStream()
+    {
+        return output;
+    }
+
+    /**
+     * @return The stream for the reading thread. Closing it early makes any further writes be discarded.
+     */
+    public InputStream getInputStream()
+    {
+        return input;
+    }
+
+    /**
+     * Stop the pipe from the writing side. The reader will see an IOException once it reaches this point.
+     *
+     * @param cause Why the writer failed
+     */
+    public void abort( Throwable cause )
+    {
+        failure = cause;
+
+        // we are the only writer so once the queue is cleared there is room for the end marker
+        queue.clear();
+        queue.offer( END );
+    }
+
+    private class Output
+            extends OutputStream
+    {
+        private ByteBuffer buffer;
+
+        private boolean closed;
+
+        public void write( int b ) throws IOException
+        {
+            write( new byte[]{ (byte) b }, 0, 1 );
+        }
+
+        public void write( byte[] data, int off, int len ) throws IOException
+        {
+            if ( closed )
+            {
+                throw new IOException( "Pipe closed" );
+            }
+
+            while ( len > 0 )
+            {
+                if ( buffer == null )
+                {
+                    buffer = ByteBuffer.wrap( BufferPool.getDefault().borrow( bufferSize ) );
+                }
+
+                int count = Math.min( len, buffer.remaining() );
+                buffer.put( data, off, count );
+                off += count;
+                len -= count;
+
+                if ( !buffer.hasRemaining() )
+                {
+                    send();
+                }
+            }
+        }
+
+        public void close() throws IOException
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            if ( buffer != null && buffer.position() > 0 )
+            {
+                send();
+            }
+            put( END );
+            closed = true;
+        }
+
+        private void send() throws IOException
+        {
+            buffer.flip();
+            put( buffer );
+            buffer = null;
+        }
+
+        private void put( ByteBuffer next ) throws IOException
+        {
+            try
+            {
+                while ( !readerClosed )
+                {
+                    if ( queue.offer( next, 100, TimeUnit.MILLISECONDS ) )
+                    {
+                        return;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                throw new InterruptedIOException( e.getMessage() );
+            }
+        }
+    }
+
+    private class Input
+            extends InputStream
+    {
+        private ByteBuffer buffer;
+
+        private boolean finished;
+
+        public int read() throws IOException
+        {
+            byte[] data = new byte[1];
+            if ( read( data, 0, 1 ) == -1 )
+            {
+                return -1;
+            }
+
+            return data[0] & 0xff;
+        }
+
+        public int read( byte[] data, int off, int len ) throws IOException
+        {
+            if ( len == 0 )
+            {
+                return 0;
+            }
+
+            while ( buffer == null || !buffer.hasRemaining() )
+            {
+                if ( finished || readerClosed )
+                {
+                    return -1;
+                }
+                take();
+            }
+
+            int count = Math.min( len, buffer.remaining() );
+            buffer.get( data, off, count );
+            return count;
+        }
+
+        public int available() throws IOException
+        {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        public void close() throws IOException
+        {
+            readerClosed = true;
+            release();
+
+            ByteBuffer next;
+            while ( ( next = queue.poll() ) != null )
+            {
+                if ( next != END )
+                {
+                    BufferPool.getDefault().release( next.array() );
+                }
+            }
+        }
+
+        private void take() throws IOException
+        {
+            release();
+            try
+            {
+                buffer = queue.take();
+            }
+            catch ( InterruptedException e )
+            {
+                throw new InterruptedIOException( e.getMessage() );
+            }
+
+            if ( failure != null )
+            {
+                finished = true;
+                throw new IOException( "Pipe writer failed: " + failure.getMessage(), failure );
+            }
+            if ( buffer == END )
+            {
+                finished = true;
+            }
+        }
+
+        private void release()
+        {
+            if ( buffer != null && buffer != END )
+            {
+                BufferPool.getDefault().release( buffer.array() );
+            }
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A thread-safe pool of byte arrays and direct byte buffers, keyed by size, so that copy buffers
+ * can be reused between calls rather than allocated for each one. Direct buffers are slow to
+ * allocate and their memory is only freed when they are garbage collected, so they gain the most.
+ * Only sizes that are a power of two from MIN_SIZE to MAX_SIZE are kept, which covers every
+ * default buffer size. Buffers of any other size are allocated for each caller, so that options
+ * with unusual sizes do not leave buffers in the pool that are never asked for again.
+ */
+public class BufferPool
+{
+    public static final int MIN_SIZE = 512;
+
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool( Runtime.getRuntime().availableProcessors() * 4 );
+
+    private final List<BlockingQueue<byte[]>> idle = new ArrayList<BlockingQueue<byte[]>>();
+
+    private final List<BlockingQueue<ByteBuffer>> idleDirect = new ArrayList<BlockingQueue<ByteBuffer>>();
+
+    /**
+     * @param maxIdle The most buffers of each size to keep
+     */
+    public BufferPool( int maxIdle )
+    {
+        for ( int size = MIN_SIZE; size <= MAX_SIZE; size <<= 1 )
+        {
+            idle.add( new ArrayBlockingQueue<byte[]>( Math.max( 1, maxIdle ) ) );
+            idleDirect.add( new ArrayBlockingQueue<ByteBuffer>( Math.max( 1, maxIdle ) ) );
+        }
+    }
+
+    /**
+     * @return The pool shared by all the compression classes
+     */
+    public static BufferPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Get a buffer of exactly the size requested. Its content is undefined.
+     *
+     * @param size The size of buffer needed
+     * @return A buffer that should be given back with release() when it is no longer used
+     */
+    public byte[] borrow( int size )
+    {
+        BlockingQueue<byte[]> queue = getQueue( idle, size );
+        byte[] buffer = queue == null ? null : queue.poll();
+        if ( buffer == null )
+        {
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool. If the pool already holds enough buffers of this size, or does not
+     * keep buffers of this size, it is dropped.
+     *
+     * @param buffer The buffer to return, which must not be used again by the caller
+     */
+    public void release( byte[] buffer )
+    {
+        if ( buffer == null )
+        {
+            return;
+        }
+
+        BlockingQueue<byte[]> queue = getQueue( idle, buffer.length );
+        if ( queue != null )
+        {
+            queue.offer( buffer );
+        }
+    }
+
+    /**
+     * Get a direct buffer with exactly the capacity requested, cleared but with undefined content.
+     *
+     * @param size The capacity needed
+     * @return A buffer that should be given back with releaseDirect() when it is no longer used
+     */
+    public ByteBuffer borrowDirect( int size )
+    {
+        BlockingQueue<ByteBuffer> queue = getQueue( idleDirect, size );
+        ByteBuffer buffer = queue == null ? null : queue.poll();
+        if ( buffer == null )
+        {
+            return ByteBuffer.allocateDirect( size );
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a direct buffer back to the pool. If the pool already holds enough buffers of this capacity, or does
+     * not keep buffers of this capacity, it is dropped.
+     *
+     * @param buffer The buffer to return, which must not be used again by the caller
+     */
+    public void releaseDirect( ByteBuffer buffer )
+    {
+        if ( buffer == null || !buffer.isDirect() )
+        {
+            return;
+        }
+
+        BlockingQueue<ByteBuffer> queue = getQueue( idleDirect, buffer.capacity() );
+        if ( queue != null )
+        {
+            queue.offer( buffer );
+        }
+    }
+
+    /**
+     * @return The buffers kept of the size passed in, or null if that size is not kept
+     */
+    private static <T> BlockingQueue<T> getQueue( List<BlockingQueue<T>> queues, int size )
+    {
+        if ( size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount( size ) != 1 )
+        {
+            return null;
+        }
+
+        return queues.get( Integer.numberOfTrailingZeros( size / MIN_SIZE ) );
+    }
+}
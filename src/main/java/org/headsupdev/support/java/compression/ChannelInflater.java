@@ -0,0 +1,562 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates from one file channel to another through direct buffers, borrowed from the default buffer
+ * pool, so the data never passes through a heap array. The input can be memory mapped rather than read,
+ * and a zip entry, whose size is known up front, can be inflated straight into a mapped output file.
+ */
+final class ChannelInflater
+{
+    private ChannelInflater()
+    {
+    }
+
+    /**
+     * Expand gzip data, reading each member in turn and checking its CRC and length against its trailer.
+     * Like GZIPInputStream anything after the last member that is not gzip data is ignored.
+     *
+     * @param in         The gzip file, read from its start
+     * @param out        Where to write the expanded data, from its current position
+     * @param mapped     True to memory map the input rather than reading it into a buffer
+     * @param bufferSize The size of the direct buffers to read and inflate into, raised to 64K if smaller
+     * @param timer      The timer to charge the time taken to, which has been started, or null
+     * @return The number of bytes written
+     * @throws IOException If there is a problem reading or writing, or the data is not valid gzip
+     */
+    static long expandGZip( FileChannel in, FileChannel out, boolean mapped, int bufferSize, EntryTimer timer )
+            throws IOException
+    {
+        Input input = new Input( in, 0, in.size(), mapped, capacity( bufferSize, -1 ), timer );
+        Output output = null;
+        Inflater inflater = InflaterPool.getDefault().borrow( true );
+        try
+        {
+            output = new Output( out, -1, false, capacity( bufferSize, -1 ), timer );
+            boolean first = true;
+            while ( readHeader( input, first ) )
+            {
+                first = false;
+                long start = output.getWritten();
+                inflate( inflater, input, output, "gzip member", timer );
+                output.flush();
+
+                long crc = readInt( input );
+                long length = readInt( input );
+                if ( crc != output.getCrc() || length != ( ( output.getWritten() - start ) & 0xffffffffL ) )
+                {
+                    throw new ZipException( "Corrupt gzip trailer" );
+                }
+
+                inflater.reset();
+                output.resetCrc();
+            }
+
+            return output.getWritten();
+        }
+        finally
+        {
+            InflaterPool.getDefault().release( inflater );
+            input.release();
+            if ( output != null )
+            {
+                output.release();
+            }
+        }
+    }
+
+    /**
+     * Extract a zip entry, checking its CRC and size against the central directory.
+     *
+     * @param in         The archive
+     * @param dataOffset Where the data of the entry starts, after its local header
+     * @param entry      The entry to extract
+     * @param out        An empty file to write the content to
+     * @param mapped     True to memory map the archive and the output rather than using buffers
+     * @param bufferSize The size of the direct buffers to read and inflate into when not mapped, raised
+     *                   to 64K if smaller but no larger than the entry
+     * @param timer      The timer to charge the time taken to, which has been started, or null
+     * @throws IOException If there is a problem reading or writing, or the entry data is invalid
+     */
+    static void extractEntry( FileChannel in, long dataOffset, ZipIndexEntry entry, FileChannel out,
+                              boolean mapped, int bufferSize, EntryTimer timer ) throws IOException
+    {
+        Input input = new Input( in, dataOffset, dataOffset + entry.getCompressedSize(), mapped,
+                capacity( bufferSize, entry.getCompressedSize() ), timer );
+        Output output = null;
+        try
+        {
+            if ( entry.getMethod() == ZipEntry.STORED )
+            {
+                output = new Output( out, entry.getSize(), false, 0, timer );
+                ByteBuffer data;
+                while ( ( data = input.fill() ) != null )
+                {
+                    output.write( data );
+                }
+            }
+            else if ( entry.getMethod() == ZipEntry.DEFLATED )
+            {
+                output = new Output( out, entry.getSize(), mapped, capacity( bufferSize, entry.getSize() ), timer );
+                Inflater inflater = InflaterPool.getDefault().borrow( true );
+                try
+                {
+                    inflate( inflater, input, output, entry.getName(), timer );
+                }
+                finally
+                {
+                    InflaterPool.getDefault().release( inflater );
+                }
+            }
+            else
+            {
+                throw new ZipException( "Unsupported compression method " + entry.getMethod() + " for " +
+                        entry.getName() );
+            }
+
+            output.flush();
+            if ( output.getWritten() != entry.getSize() || output.getCrc() != entry.getCrc() )
+            {
+                throw new ZipException( "Invalid data for entry " + entry.getName() );
+            }
+        }
+        finally
+        {
+            input.release();
+            if ( output != null )
+            {
+                output.release();
+            }
+        }
+    }
+
+    /**
+     * Small entries get small buffers, but never smaller than the pool keeps, and always rounded up to
+     * a size the pool keeps so that they can be reused. Only a buffer size larger than the pool keeps is
+     * left as it is.
+     */
+    private static int capacity( int bufferSize, long size )
+    {
+        long capacity = Math.max( bufferSize, Streams.CHANNEL_BUFFER );
+        if ( size >= 0 )
+        {
+            capacity = Math.min( capacity, size );
+        }
+        if ( capacity > BufferPool.MAX_SIZE )
+        {
+            return (int) capacity;
+        }
+
+        int pooled = BufferPool.MIN_SIZE;
+        while ( pooled < capacity )
+        {
+            pooled <<= 1;
+        }
+        return pooled;
+    }
+
+    private static void inflate( Inflater inflater, Input input, Output output, String name, EntryTimer timer )
+            throws IOException
+    {
+        ByteBuffer data = input.fill();
+        if ( data == null )
+        {
+            throw new EOFException( "Unexpected end of data for " + name );
+        }
+        inflater.setInput( data );
+
+        try
+        {
+            while ( !inflater.finished() )
+            {
+                ByteBuffer space = output.space();
+                int count;
+                if ( space == null )
+                {
+                    // a mapped output is full, so any more data means the size was wrong
+                    count = inflater.inflate( new byte[1] );
+                    if ( count > 0 )
+                    {
+                        throw new ZipException( "Invalid data for " + name );
+                    }
+                }
+                else
+                {
+                    count = inflater.inflate( space );
+                }
+                if ( timer != null )
+                {
+                    timer.coded();
+                }
+
+                if ( count == 0 && !inflater.finished() )
+                {
+                    if ( inflater.needsDictionary() )
+                    {
+                        throw new ZipException( "Invalid data for " + name );
+                    }
+                    if ( inflater.needsInput() )
+                    {
+                        data = input.fill();
+                        if ( data == null )
+                        {
+                            throw new EOFException( "Unexpected end of data for " + name );
+                        }
+                        inflater.setInput( data );
+                    }
+                }
+            }
+        }
+        catch ( DataFormatException e )
+        {
+            throw new ZipException( "Invalid data for " + name + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * @return True if a member header was read, or false at the end of the gzip data
+     */
+    private static boolean readHeader( Input input, boolean first ) throws IOException
+    {
+        int id1 = input.read();
+        int id2 = id1 == -1 ? -1 : input.read();
+        if ( id1 != GZipFormat.ID1 || id2 != GZipFormat.ID2 )
+        {
+            if ( first )
+            {
+                if ( id1 == -1 )
+                {
+                    throw new EOFException( "Empty gzip stream" );
+                }
+                throw new ZipException( "Not in gzip format" );
+            }
+            return false;
+        }
+        if ( readRequired( input ) != Deflater.DEFLATED )
+        {
+            throw new ZipException( "Unsupported gzip compression method" );
+        }
+
+        int flags = readRequired( input );
+        // modification time, extra flags and operating system
+        skip( input, 6 );
+
+        if ( ( flags & GZipFormat.FEXTRA ) != 0 )
+        {
+            skip( input, readRequired( input ) | readRequired( input ) << 8 );
+        }
+        if ( ( flags & GZipFormat.FNAME ) != 0 )
+        {
+            while ( readRequired( input ) != 0 )
+            {
+                // skip the name
+            }
+        }
+        if ( ( flags & GZipFormat.FCOMMENT ) != 0 )
+        {
+            while ( readRequired( input ) != 0 )
+            {
+                // skip the comment
+            }
+        }
+        if ( ( flags & GZipFormat.FHCRC ) != 0 )
+        {
+            skip( input, 2 );
+        }
+
+        return true;
+    }
+
+    private static long readInt( Input input ) throws IOException
+    {
+        return ( readRequired( input ) | readRequired( input ) << 8 | readRequired( input ) << 16 |
+                (long) readRequired( input ) << 24 ) & 0xffffffffL;
+    }
+
+    private static int readRequired( Input input ) throws IOException
+    {
+        int value = input.read();
+        if ( value == -1 )
+        {
+            throw new EOFException( "Unexpected end of gzip stream" );
+        }
+        return value;
+    }
+
+    private static void skip( Input input, int count ) throws IOException
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            readRequired( input );
+        }
+    }
+
+    /**
+     * A range of a file, handed out a buffer at a time. The inflater moves the position of each buffer
+     * on as it uses the data, so whatever it leaves is still there for the gzip trailer and next header.
+     */
+    private static class Input
+    {
+        private final FileChannel channel;
+
+        private final long end;
+
+        private final boolean mapped;
+
+        private final EntryTimer timer;
+
+        private ByteBuffer buffer;
+
+        // the position in the file just after the current buffer
+        private long next;
+
+        Input( FileChannel channel, long start, long end, boolean mapped, int bufferSize, EntryTimer timer )
+        {
+            this.channel = channel;
+            this.next = start;
+            this.end = end;
+            this.mapped = mapped;
+            this.timer = timer;
+            if ( !mapped )
+            {
+                buffer = BufferPool.getDefault().borrowDirect( bufferSize );
+                buffer.limit( 0 );
+            }
+        }
+
+        /**
+         * Give the buffer back to the pool, after which this input cannot be used.
+         */
+        void release()
+        {
+            if ( !mapped )
+            {
+                BufferPool.getDefault().releaseDirect( buffer );
+            }
+            buffer = null;
+        }
+
+        /**
+         * @return The current buffer, refilled if it has all been used, or null at the end of the range
+         */
+        ByteBuffer fill() throws IOException
+        {
+            if ( buffer != null && buffer.hasRemaining() )
+            {
+                return buffer;
+            }
+            if ( next >= end )
+            {
+                return null;
+            }
+            Streams.checkInterrupted();
+
+            if ( mapped )
+            {
+                long length = Math.min( Streams.MAP_WINDOW, end - next );
+                buffer = channel.map( FileChannel.MapMode.READ_ONLY, next, length );
+                next += length;
+                if ( timer != null )
+                {
+                    timer.read( length );
+                }
+                return buffer;
+            }
+
+            buffer.clear();
+            buffer.limit( (int) Math.min( buffer.capacity(), end - next ) );
+            while ( buffer.hasRemaining() )
+            {
+                int count = channel.read( buffer, next );
+                if ( count == -1 )
+                {
+                    throw new EOFException( "Unexpected end of file" );
+                }
+                next += count;
+            }
+            buffer.flip();
+            if ( timer != null )
+            {
+                timer.read( buffer.remaining() );
+            }
+            return buffer;
+        }
+
+        int read() throws IOException
+        {
+            ByteBuffer data = fill();
+            if ( data == null )
+            {
+                return -1;
+            }
+
+            return data.get() & 0xff;
+        }
+    }
+
+    /**
+     * Where inflated data goes, checksummed as it is written. Mapped output is a window of the file at a
+     * time, up to the size the file is expected to be. Otherwise a direct buffer is written as it fills.
+     */
+    private static class Output
+    {
+        private final FileChannel channel;
+
+        private final long size;
+
+        private final boolean mapped;
+
+        private final CRC32 crc = new CRC32();
+
+        private final EntryTimer timer;
+
+        private ByteBuffer buffer;
+
+        private long written;
+
+        /**
+         * @param size       The expected size of the output, or -1 if it is not known
+         * @param bufferSize The size of direct buffer to inflate into, or 0 if only write will be called
+         */
+        Output( FileChannel channel, long size, boolean mapped, int bufferSize, EntryTimer timer )
+        {
+            this.channel = channel;
+            this.size = size;
+            this.timer = timer;
+            this.mapped = mapped && size >= 0;
+            if ( !this.mapped && bufferSize > 0 )
+            {
+                buffer = BufferPool.getDefault().borrowDirect( bufferSize );
+            }
+        }
+
+        /**
+         * Give the buffer back to the pool, after which this output cannot be used.
+         */
+        void release()
+        {
+            if ( !mapped )
+            {
+                BufferPool.getDefault().releaseDirect( buffer );
+            }
+            buffer = null;
+        }
+
+        /**
+         * @return A buffer with room to inflate into, or null if a mapped output has been filled
+         */
+        ByteBuffer space() throws IOException
+        {
+            if ( buffer != null && buffer.hasRemaining() )
+            {
+                return buffer;
+            }
+
+            flush();
+            if ( !mapped )
+            {
+                return buffer;
+            }
+            if ( written >= size )
+            {
+                return null;
+            }
+
+            buffer = channel.map( FileChannel.MapMode.READ_WRITE, written, Math.min( Streams.MAP_WINDOW,
+                    size - written ) );
+            return buffer;
+        }
+
+        /**
+         * Copy data to the output, leaving the buffer passed in used up.
+         */
+        void write( ByteBuffer data ) throws IOException
+        {
+            flush();
+            crc.update( data.duplicate() );
+            int count = data.remaining();
+            written += count;
+            while ( data.hasRemaining() )
+            {
+                channel.write( data );
+            }
+            if ( timer != null )
+            {
+                timer.wrote( count );
+            }
+        }
+
+        /**
+         * Checksum anything inflated since the last flush and, if it is not mapped, write it out.
+         */
+        void flush() throws IOException
+        {
+            if ( buffer == null || buffer.position() == 0 )
+            {
+                return;
+            }
+
+            buffer.flip();
+            crc.update( buffer.duplicate() );
+            int count = buffer.remaining();
+            written += count;
+            if ( mapped )
+            {
+                buffer = null;
+            }
+            else
+            {
+                while ( buffer.hasRemaining() )
+                {
+                    channel.write( buffer );
+                }
+                buffer.clear();
+            }
+            if ( timer != null )
+            {
+                timer.wrote( count );
+            }
+        }
+
+        long getWritten()
+        {
+            return written;
+        }
+
+        long getCrc()
+        {
+            return crc.getValue();
+        }
+
+        void resetCrc()
+        {
+            crc.reset();
+        }
+    }
+}
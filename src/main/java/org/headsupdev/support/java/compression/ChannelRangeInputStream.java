@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream over a region of a file channel. Reads are positional so several of these
+ * streams can share one channel from different threads.
+ */
+class ChannelRangeInputStream
+        extends InputStream
+{
+    private final FileChannel channel;
+
+    private final boolean closeChannel;
+
+    private long position;
+
+    private final long end;
+
+    public ChannelRangeInputStream( FileChannel channel, long position, long length, boolean closeChannel )
+    {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+        this.closeChannel = closeChannel;
+    }
+
+    public int read() throws IOException
+    {
+        byte[] data = new byte[1];
+        if ( read( data, 0, 1 ) == -1 )
+        {
+            return -1;
+        }
+
+        return data[0] & 0xff;
+    }
+
+    public int read( byte[] data, int off, int len ) throws IOException
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+
+        long remaining = end - position;
+        if ( remaining <= 0 )
+        {
+            return -1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap( data, off, (int) Math.min( len, remaining ) );
+        int count = channel.read( buffer, position );
+        if ( count == -1 )
+        {
+            return -1;
+        }
+
+        position += count;
+        return count;
+    }
+
+    public long skip( long n ) throws IOException
+    {
+        long skipped = Math.max( 0, Math.min( n, end - position ) );
+        position += skipped;
+        return skipped;
+    }
+
+    public int available() throws IOException
+    {
+        return (int) Math.min( Integer.MAX_VALUE, end - position );
+    }
+
+    public void close() throws IOException
+    {
+        if ( closeChannel )
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * An on disk cache of deflated file content, so that archiving a file that has not changed since an
+ * earlier run copies its compressed data rather than deflating it again. Entries are keyed by the path,
+ * length and modification time of the file along with the level and strategy it was deflated with. Once
+ * the cache grows past its maximum size the least recently used entries are removed. A cache directory
+ * can be shared by several archives and processes, and a problem writing to it never fails an archive.
+ */
+public class CompressionCache
+{
+    private static final String SUFFIX = ".deflate";
+
+    private static final int MAGIC = 0x43434348; // "CCCH"
+
+    // the CRC, the uncompressed length and the magic number follow the deflated data
+    private static final int TRAILER_SIZE = 8 + 8 + 4;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final java.io.File directory;
+
+    private final long maxSize;
+
+    // the total size of the cache files, or -1 until the directory has been scanned
+    private long size = -1;
+
+    /**
+     * @param directory Where to keep the cached data, which is created when first needed
+     * @param maxSize   The most bytes of cached data to keep
+     */
+    public CompressionCache( java.io.File directory, long maxSize )
+    {
+        if ( maxSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Cache size must be positive" );
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public java.io.File getDirectory()
+    {
+        return directory;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Look up the deflated content of a file. The caller must close what is returned.
+     *
+     * @param file    The file to be archived
+     * @param options The level and strategy it is to be deflated with
+     * @return The cached data, or null if the file is not cached as it is now
+     * @throws IOException If the cache cannot be read
+     */
+    CachedData get( java.io.File file, CompressionOptions options ) throws IOException
+    {
+        java.io.File cached = getCacheFile( file, options );
+        RandomAccessFile data;
+        try
+        {
+            data = new RandomAccessFile( cached, "r" );
+        }
+        catch ( FileNotFoundException e )
+        {
+            return null;
+        }
+
+        boolean found = false;
+        try
+        {
+            long length = data.length();
+            if ( length < TRAILER_SIZE )
+            {
+                return null;
+            }
+
+            data.seek( length - TRAILER_SIZE );
+            long crc = data.readLong();
+            long size = data.readLong();
+            if ( data.readInt() != MAGIC || size != file.length() )
+            {
+                return null;
+            }
+
+            // least recently used goes by modification time, which also works across processes
+            cached.setLastModified( System.currentTimeMillis() );
+            found = true;
+            return new CachedData( data.getChannel(), crc, size, length - TRAILER_SIZE );
+        }
+        finally
+        {
+            if ( !found )
+            {
+                data.close();
+            }
+        }
+    }
+
+    /**
+     * Start caching the deflated content of a file as it is written to an archive.
+     *
+     * @param file    The file being archived
+     * @param options The level and strategy it is being deflated with
+     * @param out     Where the deflated data is going
+     * @return A stream that writes to out and to the cache, which must be committed or aborted
+     * @throws IOException If the cache key cannot be made
+     */
+    Writer put( java.io.File file, CompressionOptions options, OutputStream out ) throws IOException
+    {
+        return new Writer( file, getCacheFile( file, options ), out );
+    }
+
+    private synchronized void added( long length )
+    {
+        if ( size < 0 )
+        {
+            size = 0;
+            for ( java.io.File file : listCacheFiles() )
+            {
+                size += file.length();
+            }
+        }
+        else
+        {
+            size += length;
+        }
+
+        if ( size > maxSize )
+        {
+            evict();
+        }
+    }
+
+    private void evict()
+    {
+        java.io.File[] files = listCacheFiles();
+        final long[] times = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for ( int i = 0; i < files.length; i++ )
+        {
+            times[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        Arrays.sort( order, new java.util.Comparator<Integer>()
+        {
+            public int compare( Integer a, Integer b )
+            {
+                return times[a] < times[b] ? -1 : times[a] > times[b] ? 1 : 0;
+            }
+        } );
+
+        for ( int i = 0; i < order.length && total > maxSize; i++ )
+        {
+            java.io.File file = files[order[i]];
+            long length = file.length();
+            if ( file.delete() )
+            {
+                total -= length;
+            }
+        }
+        size = total;
+    }
+
+    private java.io.File[] listCacheFiles()
+    {
+        java.io.File[] files = directory.listFiles( new FileFilter()
+        {
+            public boolean accept( java.io.File file )
+            {
+                return file.getName().endsWith( SUFFIX );
+            }
+        } );
+
+        return files == null ? new java.io.File[0] : files;
+    }
+
+    private java.io.File getCacheFile( java.io.File file, CompressionOptions options ) throws IOException
+    {
+        String key = file.getAbsolutePath() + '\0' + file.length() + '\0' + file.lastModified() + '\0' +
+                options.getLevel() + '\0' + options.getStrategy();
+        try
+        {
+            byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key.getBytes( "UTF-8" ) );
+            char[] name = new char[digest.length * 2];
+            for ( int i = 0; i < digest.length; i++ )
+            {
+                name[i * 2] = HEX[( digest[i] >> 4 ) & 0xf];
+                name[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+
+            return new java.io.File( directory, new String( name ) + SUFFIX );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Unable to create cache key", e );
+        }
+    }
+
+    /**
+     * Deflated data from the cache, open so that it can still be read if another process evicts it.
+     */
+    static class CachedData
+    {
+        private final FileChannel channel;
+
+        private final long crc;
+
+        private final long size;
+
+        private final long compressedSize;
+
+        CachedData( FileChannel channel, long crc, long size, long compressedSize )
+        {
+            this.channel = channel;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+        }
+
+        public long getCrc()
+        {
+            return crc;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getCompressedSize()
+        {
+            return compressedSize;
+        }
+
+        public void writeTo( OutputStream out ) throws IOException
+        {
+            byte[] data = BufferPool.getDefault().borrow( 64 * 1024 );
+            try
+            {
+                long position = 0;
+                while ( position < compressedSize )
+                {
+                    ByteBuffer buffer = ByteBuffer.wrap( data, 0, (int) Math.min( data.length,
+                            compressedSize - position ) );
+                    int count = channel.read( buffer, position );
+                    if ( count == -1 )
+                    {
+                        throw new IOException( "Unexpected end of cached data" );
+                    }
+
+                    out.write( data, 0, count );
+                    position += count;
+                }
+            }
+            finally
+            {
+                BufferPool.getDefault().release( data );
+            }
+        }
+
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Passes deflated data on to an archive, keeping a copy for the cache.
+     */
+    class Writer
+            extends FilterOutputStream
+    {
+        private final java.io.File source;
+
+        private final long sourceLength;
+
+        private final long sourceModified;
+
+        private final java.io.File target;
+
+        private java.io.File temp;
+
+        private OutputStream copy;
+
+        Writer( java.io.File source, java.io.File target, OutputStream out )
+        {
+            super( out );
+            this.source = source;
+            this.sourceLength = source.length();
+            this.sourceModified = source.lastModified();
+            this.target = target;
+
+            try
+            {
+                directory.mkdirs();
+                temp = java.io.File.createTempFile( "entry", ".tmp", directory );
+                copy = new BufferedOutputStream( new FileOutputStream( temp ), 64 * 1024 );
+            }
+            catch ( IOException e )
+            {
+                abort();
+            }
+        }
+
+        public void write( int b ) throws IOException
+        {
+            write( new byte[]{ (byte) b }, 0, 1 );
+        }
+
+        public void write( byte[] data, int off, int len ) throws IOException
+        {
+            out.write( data, off, len );
+            if ( copy != null )
+            {
+                try
+                {
+                    copy.write( data, off, len );
+                }
+                catch ( IOException e )
+                {
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * Finish the copy and add it to the cache, unless the file changed while it was being read.
+         */
+        public void commit( long crc, long size )
+        {
+            if ( copy == null )
+            {
+                return;
+            }
+            if ( size != sourceLength || source.length() != sourceLength || source.lastModified() != sourceModified )
+            {
+                abort();
+                return;
+            }
+
+            try
+            {
+                DataOutputStream trailer = new DataOutputStream( copy );
+                trailer.writeLong( crc );
+                trailer.writeLong( size );
+                trailer.writeInt( MAGIC );
+                copy.close();
+                copy = null;
+
+                Files.move( temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+                temp = null;
+                added( target.length() );
+            }
+            catch ( IOException e )
+            {
+                abort();
+            }
+        }
+
+        /**
+         * Throw the copy away.
+         */
+        public void abort()
+        {
+            if ( copy != null )
+            {
+                try
+                {
+                    copy.close();
+                }
+                catch ( IOException e )
+                {
+                    // deleting it anyway
+                }
+                copy = null;
+            }
+            if ( temp != null )
+            {
+                temp.delete();
+                temp = null;
+            }
+        }
+
+        /**
+         * Leaves the archive stream open.
+         */
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+/**
+ * Told about the progress of compress, expand and archive operations, set with
+ * CompressionOptions.setListener. Entries are the files going into or coming out of an archive, or the
+ * whole stream for gzip. When compressing, the bytes in are the uncompressed data read and the bytes out
+ * what is written to the archive; when expanding it is the other way round. Callbacks can come from
+ * several threads at once, and should return quickly without throwing.
+ */
+public interface CompressionListener
+{
+    /**
+     * @param name The name of the entry, or null for a gzip stream which has none
+     */
+    void entryStarted( String name );
+
+    /**
+     * Called as data passes through, with the bytes read and written since the last call.
+     */
+    void bytesProcessed( long bytesIn, long bytesOut );
+
+    /**
+     * @param name        The name of the entry, or null for a gzip stream which has none
+     * @param bytesIn     The bytes read for the entry
+     * @param bytesOut    The bytes written for the entry
+     * @param readNanos   Time spent reading the input
+     * @param codecNanos  Time spent deflating or inflating, or for the parallel compressors waiting for the
+     *                    threads doing that
+     * @param writeNanos  Time spent writing the output
+     */
+    void entryFinished( String name, long bytesIn, long bytesOut, long readNanos, long codecNanos,
+                        long writeNanos );
+}
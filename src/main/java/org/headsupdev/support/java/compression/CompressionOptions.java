@@ -0,0 +1,363 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Settings for the compress and expand methods. A new instance has the defaults that the methods
+ * without options use: the JDK default level and strategy, 2K buffers, a single thread and every
+ * zip entry deflated.
+ */
+public class CompressionOptions
+{
+    public static final int DEFAULT_BUFFER_SIZE = 2048;
+
+    /**
+     * File types that are already compressed, so deflating them again wastes time for no gain.
+     */
+    public static final Set<String> DEFAULT_INCOMPRESSIBLE_EXTENSIONS = Collections.unmodifiableSet(
+            new HashSet<String>( Arrays.asList( "7z", "apk", "avi", "bz2", "docx", "ear", "flac", "gif", "gz",
+                    "jar", "jpeg", "jpg", "lz", "lzma", "mkv", "mov", "mp3", "mp4", "odp", "ods", "odt", "ogg",
+                    "png", "pptx", "rar", "tbz2", "tgz", "txz", "war", "webm", "webp", "woff", "woff2", "xlsx",
+                    "xz", "z", "zip", "zst" ) ) );
+
+    public static final double DEFAULT_MINIMUM_SAVING = 0.05;
+
+    /**
+     * The traditional tar blocking factor of 20 records.
+     */
+    public static final int DEFAULT_TAR_BLOCK_SIZE = 20 * 512;
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 128;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private int strategy = Deflater.DEFAULT_STRATEGY;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private int parallelism = 1;
+
+    private long storeThreshold = 0;
+
+    private boolean adaptive = false;
+
+    private Set<String> incompressibleExtensions = DEFAULT_INCOMPRESSIBLE_EXTENSIONS;
+
+    private double minimumSaving = DEFAULT_MINIMUM_SAVING;
+
+    private int tarBlockSize = DEFAULT_TAR_BLOCK_SIZE;
+
+    private CompressionCache cache;
+
+    private boolean memoryMapped = false;
+
+    private CompressionListener listener;
+
+    private CompressionScheduler scheduler;
+
+    private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+
+    public CompressionOptions()
+    {
+    }
+
+    public CompressionOptions( CompressionOptions options )
+    {
+        this.level = options.level;
+        this.strategy = options.strategy;
+        this.bufferSize = options.bufferSize;
+        this.parallelism = options.parallelism;
+        this.storeThreshold = options.storeThreshold;
+        this.adaptive = options.adaptive;
+        this.incompressibleExtensions = options.incompressibleExtensions;
+        this.minimumSaving = options.minimumSaving;
+        this.tarBlockSize = options.tarBlockSize;
+        this.cache = options.cache;
+        this.memoryMapped = options.memoryMapped;
+        this.listener = options.listener;
+        this.scheduler = options.scheduler;
+        this.maxOpenFiles = options.maxOpenFiles;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @param level The deflate level, from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION,
+     *              Deflater.NO_COMPRESSION or Deflater.DEFAULT_COMPRESSION
+     */
+    public void setLevel( int level )
+    {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION )
+        {
+            throw new IllegalArgumentException( "Invalid compression level " + level );
+        }
+
+        this.level = level;
+    }
+
+    public int getStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     * @param strategy The deflate strategy, Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+     */
+    public void setStrategy( int strategy )
+    {
+        if ( strategy < Deflater.DEFAULT_STRATEGY || strategy > Deflater.HUFFMAN_ONLY )
+        {
+            throw new IllegalArgumentException( "Invalid compression strategy " + strategy );
+        }
+
+        this.strategy = strategy;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize The size of the buffers used to read and write files and to feed the
+     *                   deflater and inflater. The parallel compressors never use less than 64K.
+     */
+    public void setBufferSize( int bufferSize )
+    {
+        if ( bufferSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Buffer size must be positive" );
+        }
+
+        this.bufferSize = bufferSize;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism The number of threads to compress or expand with. With more than one
+     *                    the parallel gzip and zip writers and the parallel zip expansion are used.
+     */
+    public void setParallelism( int parallelism )
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "Parallelism must be at least 1" );
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    public long getStoreThreshold()
+    {
+        return storeThreshold;
+    }
+
+    /**
+     * @param storeThreshold Zip entries smaller than this many bytes are stored rather than deflated,
+     *                       as the headers of a deflate stream can outweigh any saving on tiny files.
+     *                       0, the default, deflates every entry.
+     */
+    public void setStoreThreshold( long storeThreshold )
+    {
+        if ( storeThreshold < 0 )
+        {
+            throw new IllegalArgumentException( "Store threshold cannot be negative" );
+        }
+
+        this.storeThreshold = storeThreshold;
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    /**
+     * @param adaptive True to store zip entries that will not compress rather than deflating them.
+     *                 An entry is stored if its extension is one of the incompressible extensions or if
+     *                 a quick deflate of its first block saves less than the minimum saving.
+     */
+    public void setAdaptive( boolean adaptive )
+    {
+        this.adaptive = adaptive;
+    }
+
+    public Set<String> getIncompressibleExtensions()
+    {
+        return incompressibleExtensions;
+    }
+
+    /**
+     * @param extensions The file extensions, without the dot, that adaptive mode always stores.
+     *                   They are matched ignoring case.
+     */
+    public void setIncompressibleExtensions( Collection<String> extensions )
+    {
+        Set<String> lower = new HashSet<String>();
+        for ( String extension : extensions )
+        {
+            lower.add( extension.toLowerCase( Locale.ENGLISH ) );
+        }
+
+        this.incompressibleExtensions = Collections.unmodifiableSet( lower );
+    }
+
+    public double getMinimumSaving()
+    {
+        return minimumSaving;
+    }
+
+    /**
+     * @param minimumSaving The fraction, from 0 to 1, that a sample deflate must shrink an entry by
+     *                      for adaptive mode to go on and deflate it. The default is 0.05, 5%.
+     */
+    public void setMinimumSaving( double minimumSaving )
+    {
+        if ( minimumSaving < 0 || minimumSaving > 1 )
+        {
+            throw new IllegalArgumentException( "Minimum saving must be between 0 and 1" );
+        }
+
+        this.minimumSaving = minimumSaving;
+    }
+
+    public int getTarBlockSize()
+    {
+        return tarBlockSize;
+    }
+
+    /**
+     * @param tarBlockSize The size of the blocks a tar archive is written in, a multiple of the 512 byte
+     *                     tar record. Archives are padded to a whole block so a larger block suits
+     *                     larger archives.
+     */
+    public void setTarBlockSize( int tarBlockSize )
+    {
+        if ( tarBlockSize <= 0 || tarBlockSize % 512 != 0 )
+        {
+            throw new IllegalArgumentException( "Tar block size must be a positive multiple of 512" );
+        }
+
+        this.tarBlockSize = tarBlockSize;
+    }
+
+    public CompressionCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * @param cache Where to keep the deflated content of zip entries so that files which have not changed
+     *              are not deflated again next time, or null, the default, for no cache
+     */
+    public void setCache( CompressionCache cache )
+    {
+        this.cache = cache;
+    }
+
+    public boolean isMemoryMapped()
+    {
+        return memoryMapped;
+    }
+
+    /**
+     * @param memoryMapped True to map files into memory and deflate them from there, rather than
+     *                     reading them into buffers. This saves a copy of every byte, which is worth most
+     *                     on very large files. Only gzip on a single thread and zip entries are mapped.
+     */
+    public void setMemoryMapped( boolean memoryMapped )
+    {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public CompressionListener getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * @param listener Told as each entry is started and finished and as data passes through, or null, the
+     *                 default, for none. A CompressionStatistics keeps totals of everything it is told.
+     */
+    public void setListener( CompressionListener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The scheduler that asynchronous operations run on, which is the shared default unless
+     *         another has been set
+     */
+    public CompressionScheduler getScheduler()
+    {
+        if ( scheduler == null )
+        {
+            return CompressionScheduler.getDefault();
+        }
+
+        return scheduler;
+    }
+
+    /**
+     * @param scheduler The scheduler to run asynchronous operations on, or null for the shared default
+     */
+    public void setScheduler( CompressionScheduler scheduler )
+    {
+        this.scheduler = scheduler;
+    }
+
+    public int getMaxOpenFiles()
+    {
+        return maxOpenFiles;
+    }
+
+    /**
+     * @param maxOpenFiles The most files a batch operation keeps open at once. Each file being compressed or
+     *                     expanded holds two, its source and its output, so this must be at least two.
+     */
+    public void setMaxOpenFiles( int maxOpenFiles )
+    {
+        if ( maxOpenFiles < 2 )
+        {
+            throw new IllegalArgumentException( "Max open files must be at least 2" );
+        }
+
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    public String toString()
+    {
+        return "level " + level + ", strategy " + strategy + ", buffer " + bufferSize + ", parallelism " +
+                parallelism + ", store below " + storeThreshold + ( adaptive ? ", adaptive" : "" ) +
+                ( memoryMapped ? ", memory mapped" : "" );
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the asynchronous operations of the compression classes on two pools of threads. Work that is
+ * mostly deflating, and the workers of parallel operations, run on the CPU pool, which is sized to the
+ * processors so that however many operations are started the machine is not oversubscribed. Work that
+ * mostly waits on files, along with the threads that coordinate parallel operations, runs on the IO pool.
+ * Nothing on the CPU pool ever waits for other work on it, so the pools cannot deadlock.
+ * <p>
+ * Cancelling a future with cancel( true ) interrupts the operation, which stops at the next buffer it
+ * reads, and anything it had written is deleted. The same goes for an operation that fails. A directory
+ * that existed before an expand started is left in place, but a file that was being written is deleted.
+ * Output that was finished before the cancel is kept, so a file is never deleted once its source has
+ * been.
+ * <p>
+ * The pools use daemon threads, so a scheduler does not stop the JVM from exiting.
+ */
+public class CompressionScheduler
+{
+    private static CompressionScheduler defaultScheduler;
+
+    private final ExecutorService cpu;
+
+    private final ExecutorService io;
+
+    /**
+     * Create a scheduler with a CPU thread per processor and twice as many IO threads.
+     */
+    public CompressionScheduler()
+    {
+        this( Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() * 2 );
+    }
+
+    /**
+     * @param cpuThreads The number of threads to deflate and inflate on
+     * @param ioThreads  The number of operations that can wait on files or coordinate workers at once
+     */
+    public CompressionScheduler( int cpuThreads, int ioThreads )
+    {
+        if ( cpuThreads < 1 || ioThreads < 1 )
+        {
+            throw new IllegalArgumentException( "A scheduler needs at least one thread of each kind" );
+        }
+
+        cpu = Executors.newFixedThreadPool( cpuThreads, new NamedThreadFactory( "compression-cpu-" ) );
+        io = Executors.newFixedThreadPool( ioThreads, new NamedThreadFactory( "compression-io-" ) );
+    }
+
+    /**
+     * @return The scheduler shared by all asynchronous operations that have not been given another
+     */
+    public static synchronized CompressionScheduler getDefault()
+    {
+        if ( defaultScheduler == null )
+        {
+            defaultScheduler = new CompressionScheduler();
+        }
+
+        return defaultScheduler;
+    }
+
+    /**
+     * @return The pool for work that keeps a processor busy, and which never waits on other work
+     */
+    public Executor getCpuExecutor()
+    {
+        return cpu;
+    }
+
+    /**
+     * @return The pool for work that waits, on files or on other work
+     */
+    public Executor getIoExecutor()
+    {
+        return io;
+    }
+
+    /**
+     * Stop accepting operations. Those already started or queued still run.
+     */
+    public void shutdown()
+    {
+        cpu.shutdown();
+        io.shutdown();
+    }
+
+    /**
+     * Run an operation on one of the pools.
+     *
+     * @param work     The operation
+     * @param cpuBound True to run it on the CPU pool, which must not be done if it waits on other work
+     * @param output   The file or directory it writes, which is removed if it fails or is cancelled, or null
+     * @return A future for the result of the work
+     */
+    <T> CompletableFuture<T> submit( Callable<T> work, boolean cpuBound, java.io.File output )
+    {
+        Operation<T> operation = new Operation<T>( work, output );
+        ( cpuBound ? cpu : io ).execute( operation );
+        return operation;
+    }
+
+    private static void delete( java.io.File file )
+    {
+        java.io.File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( java.io.File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * A future that runs its work, and can interrupt it when cancelled.
+     */
+    private static class Operation<T>
+            extends CompletableFuture<T>
+            implements Runnable
+    {
+        private final Callable<T> work;
+
+        private final java.io.File output;
+
+        // only interrupted while holding the lock, so a pool thread is never interrupted once it has moved on
+        private Thread runner;
+
+        Operation( Callable<T> work, java.io.File output )
+        {
+            this.work = work;
+            this.output = output;
+        }
+
+        public void run()
+        {
+            synchronized ( this )
+            {
+                if ( isDone() )
+                {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            boolean existed = output != null && output.exists();
+            long modified = existed ? output.lastModified() : 0;
+            long length = existed ? output.length() : 0;
+
+            T result = null;
+            Throwable failure = null;
+            try
+            {
+                result = work.call();
+            }
+            catch ( Throwable e )
+            {
+                failure = e;
+                // a directory that was already there may hold more than this operation wrote, and a file
+                // only needs removing if the operation got as far as writing it
+                if ( output != null && ( !existed || ( !output.isDirectory() &&
+                        ( output.lastModified() != modified || output.length() != length ) ) ) )
+                {
+                    delete( output );
+                }
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    runner = null;
+                }
+                Thread.interrupted();
+            }
+
+            // after clearing any interrupt, as stages that depend on this one may run here
+            if ( failure == null )
+            {
+                complete( result );
+            }
+            else
+            {
+                completeExceptionally( failure );
+            }
+        }
+
+        public boolean cancel( boolean mayInterruptIfRunning )
+        {
+            boolean cancelled = super.cancel( mayInterruptIfRunning );
+            if ( cancelled && mayInterruptIfRunning )
+            {
+                synchronized ( this )
+                {
+                    if ( runner != null )
+                    {
+                        runner.interrupt();
+                    }
+                }
+            }
+
+            return cancelled;
+        }
+
+        public <U> CompletableFuture<U> newIncompleteFuture()
+        {
+            // stages that depend on this one have no work of their own to run or interrupt
+            return new CompletableFuture<U>();
+        }
+    }
+
+    private static class NamedThreadFactory
+            implements ThreadFactory
+    {
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory( String prefix )
+        {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, prefix + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
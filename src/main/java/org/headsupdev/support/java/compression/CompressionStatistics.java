@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of every operation it listens to. One instance can be shared by any number of
+ * operations and threads, registered with JMX as a standard MBean, or read by a metrics library such as
+ * Micrometer through function counters and gauges on its getters.
+ */
+public class CompressionStatistics
+        implements CompressionListener, CompressionStatisticsMBean
+{
+    private final AtomicLong entries = new AtomicLong();
+
+    private final AtomicLong inProgress = new AtomicLong();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private final AtomicLong readNanos = new AtomicLong();
+
+    private final AtomicLong codecNanos = new AtomicLong();
+
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public void entryStarted( String name )
+    {
+        inProgress.incrementAndGet();
+    }
+
+    public void bytesProcessed( long bytesIn, long bytesOut )
+    {
+        this.bytesIn.addAndGet( bytesIn );
+        this.bytesOut.addAndGet( bytesOut );
+    }
+
+    public void entryFinished( String name, long bytesIn, long bytesOut, long readNanos, long codecNanos,
+                               long writeNanos )
+    {
+        // the bytes have already been counted as they were processed
+        inProgress.decrementAndGet();
+        entries.incrementAndGet();
+        this.readNanos.addAndGet( readNanos );
+        this.codecNanos.addAndGet( codecNanos );
+        this.writeNanos.addAndGet( writeNanos );
+    }
+
+    /**
+     * @return The number of entries finished
+     */
+    public long getEntries()
+    {
+        return entries.get();
+    }
+
+    /**
+     * @return The number of entries started but not yet finished, including any whose operation failed
+     */
+    public long getEntriesInProgress()
+    {
+        return inProgress.get();
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut.get();
+    }
+
+    /**
+     * @return The bytes out over the bytes in, so below one when compressing data that shrinks, or zero
+     *         if nothing has been read
+     */
+    public double getRatio()
+    {
+        long in = bytesIn.get();
+        if ( in == 0 )
+        {
+            return 0;
+        }
+
+        return (double) bytesOut.get() / in;
+    }
+
+    public long getReadMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( readNanos.get() );
+    }
+
+    public long getCodecMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( codecNanos.get() );
+    }
+
+    public long getWriteMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( writeNanos.get() );
+    }
+
+    /**
+     * Start counting again from zero. Entries in progress are still tracked.
+     */
+    public void reset()
+    {
+        entries.set( 0 );
+        bytesIn.set( 0 );
+        bytesOut.set( 0 );
+        readNanos.set( 0 );
+        codecNanos.set( 0 );
+        writeNanos.set( 0 );
+    }
+
+    public String toString()
+    {
+        return entries.get() + " entries, " + bytesIn.get() + " bytes in, " + bytesOut.get() + " bytes out, " +
+                "read " + getReadMillis() + "ms, codec " + getCodecMillis() + "ms, write " + getWriteMillis() + "ms";
+    }
+}
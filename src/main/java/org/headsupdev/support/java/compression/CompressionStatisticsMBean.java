@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+/**
+ * The management interface of CompressionStatistics, so it can be registered as a standard MBean.
+ */
+public interface CompressionStatisticsMBean
+{
+    long getEntries();
+
+    long getEntriesInProgress();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getRatio();
+
+    long getReadMillis();
+
+    long getCodecMillis();
+
+    long getWriteMillis();
+
+    void reset();
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The totals from copying a directory tree.
+ */
+public class CopySummary
+{
+    private final AtomicLong files = new AtomicLong();
+
+    private final AtomicLong directories = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private long time;
+
+    void addFile( long length )
+    {
+        files.incrementAndGet();
+        bytes.addAndGet( length );
+    }
+
+    void addDirectory()
+    {
+        directories.incrementAndGet();
+    }
+
+    void setTime( long time )
+    {
+        this.time = time;
+    }
+
+    /**
+     * @return The number of files copied
+     */
+    public long getFiles()
+    {
+        return files.get();
+    }
+
+    /**
+     * @return The number of directories created, including the top level one
+     */
+    public long getDirectories()
+    {
+        return directories.get();
+    }
+
+    /**
+     * @return The total size of all the files copied
+     */
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * @return How long the copy took, in milliseconds
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    public String toString()
+    {
+        return "Copied " + getFiles() + " files (" + getBytes() + " bytes) in " + getDirectories() +
+                " directories in " + getTime() + "ms";
+    }
+}
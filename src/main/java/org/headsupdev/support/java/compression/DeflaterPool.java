@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * A thread-safe pool of Deflater instances, keyed by level, strategy and whether they write
+ * raw deflate data. Returned deflaters are reset and kept for the next caller, up to a fixed
+ * number per key, so the native zlib state is not allocated and freed for every stream.
+ */
+public class DeflaterPool
+{
+    private static final DeflaterPool DEFAULT = new DeflaterPool( Runtime.getRuntime().availableProcessors() * 2 );
+
+    private final BlockingQueue<Deflater>[] idle;
+
+    /**
+     * @param maxIdle The most deflaters to keep for each combination of settings
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    public DeflaterPool( int maxIdle )
+    {
+        idle = new BlockingQueue[11 * 3 * 2];
+        for ( int i = 0; i < idle.length; i++ )
+        {
+            idle[i] = new ArrayBlockingQueue<Deflater>( Math.max( 1, maxIdle ) );
+        }
+    }
+
+    /**
+     * @return The pool shared by all the compression classes
+     */
+    public static DeflaterPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public Deflater borrow( int level, boolean nowrap )
+    {
+        return borrow( level, Deflater.DEFAULT_STRATEGY, nowrap );
+    }
+
+    /**
+     * Get a deflater from the pool, creating one if none are free. It must be given back with
+     * release() rather than ended.
+     *
+     * @param level    The compression level, -1 for the default or 0 to 9
+     * @param strategy The compression strategy, one of the Deflater strategy constants
+     * @param nowrap   True for raw deflate data, as used by gzip and zip, false for the zlib format
+     * @return A deflater ready for new input
+     */
+    public Deflater borrow( int level, int strategy, boolean nowrap )
+    {
+        int key = key( level, strategy, nowrap );
+
+        Deflater deflater = idle[key].poll();
+        if ( deflater == null )
+        {
+            deflater = new PooledDeflater( level, strategy, nowrap, key );
+        }
+        return deflater;
+    }
+
+    /**
+     * Give a deflater back to the pool. If the pool is full, or the deflater did not come from a
+     * pool, it is ended instead.
+     *
+     * @param deflater The deflater to return, which must not be used again by the caller
+     */
+    public void release( Deflater deflater )
+    {
+        if ( deflater == null )
+        {
+            return;
+        }
+        if ( !( deflater instanceof PooledDeflater ) )
+        {
+            deflater.end();
+            return;
+        }
+
+        PooledDeflater pooled = (PooledDeflater) deflater;
+        pooled.reset();
+        pooled.setLevel( pooled.level );
+        pooled.setStrategy( pooled.strategy );
+        if ( !idle[pooled.key].offer( pooled ) )
+        {
+            pooled.end();
+        }
+    }
+
+    private static int key( int level, int strategy, boolean nowrap )
+    {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION )
+        {
+            throw new IllegalArgumentException( "Invalid compression level " + level );
+        }
+        if ( strategy < Deflater.DEFAULT_STRATEGY || strategy > Deflater.HUFFMAN_ONLY )
+        {
+            throw new IllegalArgumentException( "Invalid compression strategy " + strategy );
+        }
+
+        return ( ( level + 1 ) * 3 + strategy ) * 2 + ( nowrap ? 1 : 0 );
+    }
+
+    private static class PooledDeflater
+            extends Deflater
+    {
+        private final int level;
+
+        private final int strategy;
+
+        private final int key;
+
+        PooledDeflater( int level, int strategy, boolean nowrap, int key )
+        {
+            super( level, nowrap );
+            setStrategy( strategy );
+
+            this.level = level;
+            this.strategy = strategy;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+/**
+ * Splits the time spent on each entry between reading, the codec and writing, and passes that and the
+ * bytes processed on to a listener. Each call charges the time since the last one to its stage, so callers
+ * mark the end of each stage. A timer belongs to one thread and is reused for each entry that thread
+ * handles, so reporting allocates nothing. Without a listener there is no timer, and callers skip it all.
+ */
+final class EntryTimer
+{
+    private final CompressionListener listener;
+
+    private String name;
+
+    // between start and finish, so that archive headers and padding written between entries are left out
+    private boolean active;
+
+    private long mark;
+
+    private long bytesIn;
+
+    private long bytesOut;
+
+    // what has already been passed to bytesProcessed
+    private long reportedIn;
+
+    private long reportedOut;
+
+    private long readNanos;
+
+    private long codecNanos;
+
+    private long writeNanos;
+
+    private EntryTimer( CompressionListener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return A timer for the listener in the options, or null if there is no listener
+     */
+    static EntryTimer create( CompressionOptions options )
+    {
+        if ( options == null || options.getListener() == null )
+        {
+            return null;
+        }
+
+        return new EntryTimer( options.getListener() );
+    }
+
+    void start( String name )
+    {
+        this.name = name;
+        active = true;
+        bytesIn = 0;
+        bytesOut = 0;
+        reportedIn = 0;
+        reportedOut = 0;
+        readNanos = 0;
+        codecNanos = 0;
+        writeNanos = 0;
+
+        listener.entryStarted( name );
+        mark = System.nanoTime();
+    }
+
+    void read( long bytes )
+    {
+        if ( !active )
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        readNanos += now - mark;
+        mark = now;
+        bytesIn += bytes;
+    }
+
+    void coded()
+    {
+        if ( !active )
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        codecNanos += now - mark;
+        mark = now;
+    }
+
+    void wrote( long bytes )
+    {
+        if ( !active )
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        writeNanos += now - mark;
+        mark = now;
+        bytesOut += bytes;
+        report();
+    }
+
+    void finish()
+    {
+        if ( !active )
+        {
+            return;
+        }
+        active = false;
+        report();
+        listener.entryFinished( name, bytesIn, bytesOut, readNanos, codecNanos, writeNanos );
+    }
+
+    private void report()
+    {
+        if ( bytesIn != reportedIn || bytesOut != reportedOut )
+        {
+            listener.bytesProcessed( bytesIn - reportedIn, bytesOut - reportedOut );
+            reportedIn = bytesIn;
+            reportedOut = bytesOut;
+        }
+    }
+}
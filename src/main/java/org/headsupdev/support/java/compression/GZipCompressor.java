@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a stream into gzip format on the calling thread.
+ * See ParallelGZipCompressor for a version that uses several threads.
+ */
+public class GZipCompressor
+        extends AbstractCompressor
+{
+    private final CompressionOptions options;
+
+    public GZipCompressor()
+    {
+        this( new CompressionOptions() );
+    }
+
+    /**
+     * @param options The level, strategy and buffer size to compress with
+     */
+    public GZipCompressor( CompressionOptions options )
+    {
+        this.options = options;
+    }
+
+    public void compress( InputStream in, OutputStream out ) throws IOException
+    {
+        EntryTimer timer = EntryTimer.create( options );
+        Deflater deflater = DeflaterPool.getDefault().borrow( options.getLevel(), options.getStrategy(), true );
+        byte[] input = BufferPool.getDefault().borrow( options.getBufferSize() );
+        byte[] output = BufferPool.getDefault().borrow( options.getBufferSize() );
+        try
+        {
+            out.write( GZipFormat.HEADER );
+            if ( timer != null )
+            {
+                timer.start( null );
+            }
+
+            CRC32 crc = new CRC32();
+            long length = Streams.deflate( in, out, deflater, input, output, crc, timer );
+
+            GZipFormat.writeTrailer( out, crc.getValue(), length );
+            if ( timer != null )
+            {
+                timer.finish();
+            }
+        }
+        finally
+        {
+            DeflaterPool.getDefault().release( deflater );
+            BufferPool.getDefault().release( input );
+            BufferPool.getDefault().release( output );
+        }
+    }
+
+    /**
+     * Compress the rest of a file, mapping it into memory rather than reading it through a buffer.
+     *
+     * @param in  The file to compress from its current position, which is left open
+     * @param out Where the gzip data should be written
+     * @throws IOException If there is a problem reading the file or writing the compressed data
+     */
+    public void compressMapped( FileChannel in, OutputStream out ) throws IOException
+    {
+        EntryTimer timer = EntryTimer.create( options );
+        Deflater deflater = DeflaterPool.getDefault().borrow( options.getLevel(), options.getStrategy(), true );
+        byte[] output = BufferPool.getDefault().borrow( options.getBufferSize() );
+        try
+        {
+            out.write( GZipFormat.HEADER );
+            if ( timer != null )
+            {
+                timer.start( null );
+            }
+
+            CRC32 crc = new CRC32();
+            long length = Streams.deflate( in, out, deflater, output, crc, timer );
+
+            GZipFormat.writeTrailer( out, crc.getValue(), length );
+            if ( timer != null )
+            {
+                timer.finish();
+            }
+        }
+        finally
+        {
+            DeflaterPool.getDefault().release( deflater );
+            BufferPool.getDefault().release( output );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Decompresses a gzip stream. Streams made of several concatenated gzip members are
+ * decompressed as one.
+ */
+public class GZipDecompressor
+        extends AbstractDecompressor
+{
+    private final CompressionOptions options;
+
+    public GZipDecompressor()
+    {
+        this( new CompressionOptions() );
+    }
+
+    /**
+     * @param options The buffer size to decompress with
+     */
+    public GZipDecompressor( CompressionOptions options )
+    {
+        this.options = options;
+    }
+
+    public void decompress( InputStream in, OutputStream out ) throws IOException
+    {
+        InputStream zin = new PooledGZipInputStream( Streams.nonClosing( in ), options.getBufferSize() );
+        byte[] data = BufferPool.getDefault().borrow( options.getBufferSize() );
+        try
+        {
+            Streams.copy( zin, out, data );
+        }
+        finally
+        {
+            zin.close();
+            BufferPool.getDefault().release( data );
+        }
+    }
+}
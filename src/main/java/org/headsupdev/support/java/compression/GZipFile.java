@@ -17,13 +17,22 @@
 package org.headsupdev.support.java.compression;
 
 import java.io.*;
-import java.util.zip.GZIPInputStream;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GZipFile
         extends UncompressedFile
 {
+    private GZipIndex index;
 
-    final int BUFFER = 2048;
+    private long indexedLength = -1;
+
+    private long indexedModified;
 
     public GZipFile( String name )
     {
@@ -51,11 +60,60 @@ public class GZipFile
     }
 
     public UncompressedFile expand( boolean delete ) throws IOException
+    {
+        return expand( delete, new CompressionOptions() );
+    }
+
+    /**
+     * Expand this file alongside itself, dropping the .gz extension.
+     *
+     * @param delete  True if this file should be deleted once it has been expanded
+     * @param options The buffer size to expand with
+     * @return The expanded file
+     * @throws IOException If there is a problem reading this file or writing the expanded file
+     */
+    public UncompressedFile expand( boolean delete, CompressionOptions options ) throws IOException
     {
         String dest = this.getPath();
         dest = dest.substring( 0, dest.length() - 3 );
 
-        return this.expandTo( dest, delete );
+        return this.expandTo( dest, delete, options );
+    }
+
+    public static BatchSummary<UncompressedFile> expandAll( Collection<? extends java.io.File> files,
+                                                            boolean delete ) throws IOException
+    {
+        return expandAll( files, delete, new CompressionOptions() );
+    }
+
+    /**
+     * Expand each of a batch of gzip files alongside itself, dropping the .gz extension. The files are
+     * expanded concurrently on the scheduler from the options, each on a single thread, and the largest are
+     * started first. No more than the maximum open files from the options are held open at once. A file
+     * that cannot be expanded does not stop the others; its partly written output is removed and the
+     * reason recorded.
+     *
+     * @param files   The gzip files to expand
+     * @param delete  True if each file should be deleted once it has been expanded
+     * @param options The buffer size, memory mapping, maximum open files and scheduler to use
+     * @return What each file was expanded to, and why any that failed did so
+     * @throws IOException If the batch is interrupted, which cancels the files still being expanded
+     */
+    public static BatchSummary<UncompressedFile> expandAll( Collection<? extends java.io.File> files,
+                                                            final boolean delete, CompressionOptions options )
+            throws IOException
+    {
+        final CompressionOptions single = new CompressionOptions( options );
+        single.setParallelism( 1 );
+
+        return new BatchRunner( options.getMaxOpenFiles() ).run( files,
+                new BatchRunner.Operation<UncompressedFile>()
+                {
+                    public CompletableFuture<UncompressedFile> start( java.io.File file )
+                    {
+                        return new GZipFile( file ).expandAsync( delete, single );
+                    }
+                } );
     }
 
     public UncompressedFile expandTo( String dest ) throws IOException
@@ -65,26 +123,147 @@ public class GZipFile
 
     public UncompressedFile expandTo( String dest, boolean delete ) throws IOException
     {
+        return expandTo( dest, delete, new CompressionOptions() );
+    }
+
+    /**
+     * Expand this file to the path given. If the options ask for more than one thread and this file is
+     * made of several gzip members, as bgzip and concatenated gzip files are, the members are inflated
+     * concurrently. Otherwise the file is inflated in order, through direct buffers, and from a memory
+     * mapping of this file if the options ask for that.
+     *
+     * @param dest    Where the expanded file should be written
+     * @param delete  True if this file should be deleted once it has been expanded
+     * @param options The buffer size, parallelism, memory mapping and listener to expand with
+     * @return The expanded file
+     * @throws IOException If there is a problem reading this file or writing the expanded file
+     */
+    public UncompressedFile expandTo( String dest, boolean delete, CompressionOptions options ) throws IOException
+    {
+        return expandTo( dest, delete, options, null );
+    }
+
+    public CompletableFuture<UncompressedFile> expandAsync( boolean delete )
+    {
+        return expandAsync( delete, new CompressionOptions() );
+    }
+
+    /**
+     * Expand this file alongside itself, dropping the .gz extension, without blocking.
+     *
+     * @param delete  True if this file should be deleted once it has been expanded
+     * @param options The buffer size, parallelism, memory mapping, listener and scheduler to expand with
+     * @return A future for the expanded file
+     */
+    public CompletableFuture<UncompressedFile> expandAsync( boolean delete, CompressionOptions options )
+    {
+        String dest = this.getPath();
+        dest = dest.substring( 0, dest.length() - 3 );
+
+        return expandToAsync( dest, delete, options );
+    }
+
+    /**
+     * Expand this file to the path given without blocking. It runs on the IO pool of the scheduler from
+     * the options, with any members inflated concurrently on its CPU pool. A cancelled or failed expansion
+     * removes the partly written file.
+     *
+     * @param dest    Where the expanded file should be written
+     * @param delete  True if this file should be deleted once it has been expanded
+     * @param options The buffer size, parallelism, memory mapping, listener and scheduler to expand with
+     * @return A future for the expanded file
+     */
+    public CompletableFuture<UncompressedFile> expandToAsync( final String dest, final boolean delete,
+                                                              final CompressionOptions options )
+    {
+        final CompressionScheduler scheduler = options.getScheduler();
 
-        InputStream zis = null;
+        return scheduler.submit( new Callable<UncompressedFile>()
+        {
+            public UncompressedFile call() throws Exception
+            {
+                return expandTo( dest, delete, options, scheduler.getCpuExecutor() );
+            }
+        }, false, new java.io.File( dest ) );
+    }
+
+    /**
+     * @param executor Where to inflate members concurrently, or null for a pool of the size in the options
+     */
+    private UncompressedFile expandTo( String dest, boolean delete, CompressionOptions options, Executor executor )
+            throws IOException
+    {
+        EntryTimer timer = EntryTimer.create( options );
+        if ( timer != null )
+        {
+            timer.start( null );
+        }
+
+        if ( options.getParallelism() > 1 && expandMembers( dest, options, executor ) )
+        {
+            if ( timer != null )
+            {
+                // the members were read, inflated and written all at once
+                timer.coded();
+                timer.read( length() );
+                timer.wrote( new java.io.File( dest ).length() );
+            }
+        }
+        else
+        {
+            expandSequentially( dest, options, timer );
+        }
+
+        if ( timer != null )
+        {
+            timer.finish();
+        }
+
+        if ( delete )
+        {
+            this.delete();
+        }
+
+        return new UncompressedFile( dest );
+    }
+
+    private boolean expandMembers( String dest, CompressionOptions options, Executor executor ) throws IOException
+    {
+        ExecutorService pool = null;
+        if ( executor == null )
+        {
+            pool = Executors.newFixedThreadPool( options.getParallelism() );
+            executor = pool;
+        }
+
+        FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
         try
         {
-            FileInputStream fileIn = new FileInputStream( this );
-            zis = new GZIPInputStream( new BufferedInputStream( fileIn ) );
+            return new ParallelGZipExpander( executor, options.getBufferSize() ).expand( channel,
+                    new java.io.File( dest ) );
+        }
+        finally
+        {
+            channel.close();
+            if ( pool != null )
+            {
+                pool.shutdown();
+            }
+        }
+    }
 
-            int count;
-            byte data[] = new byte[BUFFER];
+    private void expandSequentially( String dest, CompressionOptions options, EntryTimer timer ) throws IOException
+    {
+        FileChannel in = null;
+        try
+        {
+            in = new RandomAccessFile( this, "r" ).getChannel();
 
-            BufferedOutputStream out = null;
+            FileChannel out = null;
             try
             {
-                out = new BufferedOutputStream( new FileOutputStream( dest ), BUFFER );
-                while ( (count = zis.read( data, 0, BUFFER )) != -1 )
-                {
-                    out.write( data, 0, count );
-                }
-
-                out.flush();
+                out = new FileOutputStream( dest ).getChannel();
+                ChannelInflater.expandGZip( in, out, options.isMemoryMapped(), options.getBufferSize(), timer );
             }
             finally
             {
@@ -100,18 +279,108 @@ public class GZipFile
         }
         finally
         {
-            if ( zis != null )
+            if ( in != null )
             {
-                zis.close();
+                in.close();
             }
         }
+    }
 
-        if ( delete )
+    /**
+     * Open a stream of the uncompressed data starting part way through. The first call builds an index
+     * of access points, or loads the one written by saveIndex(), after which reading from any offset only
+     * inflates the data from the access point before it. The caller must close the stream.
+     *
+     * @param uncompressedOffset The position in the uncompressed data to start reading from
+     * @return A stream of the uncompressed data from that position to the end
+     * @throws IOException If this file cannot be read or is not valid gzip data
+     */
+    public InputStream openAt( long uncompressedOffset ) throws IOException
+    {
+        GZipIndex current = getIndex();
+        FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+        try
         {
-            this.delete();
+            return current.openAt( channel, uncompressedOffset, true );
+        }
+        catch ( IOException e )
+        {
+            channel.close();
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            channel.close();
+            throw e;
         }
+    }
 
-        return new UncompressedFile( dest );
+    /**
+     * @return The length of this file once expanded
+     * @throws IOException If this file cannot be read or is not valid gzip data
+     */
+    public long getUncompressedSize() throws IOException
+    {
+        return getIndex().getUncompressedSize();
+    }
+
+    /**
+     * Save the access point index of this file alongside it, so that reading from the middle of it later,
+     * even in another process, does not need to inflate the whole file first.
+     *
+     * @return The index file that was written
+     * @throws IOException If this file cannot be read or the index cannot be written
+     */
+    public UncompressedFile saveIndex() throws IOException
+    {
+        UncompressedFile file = getIndexFile();
+        GZipIndex current;
+        long length;
+        long modified;
+        synchronized ( this )
+        {
+            current = getIndex();
+            length = indexedLength;
+            modified = indexedModified;
+        }
+
+        current.write( file, length, modified );
+        return file;
+    }
+
+    /**
+     * @return Where saveIndex() writes the index - this file's name with ".index" added
+     */
+    public UncompressedFile getIndexFile()
+    {
+        return new UncompressedFile( getPath() + ".index" );
     }
 
+    synchronized GZipIndex getIndex() throws IOException
+    {
+        if ( index == null || indexedLength != length() || indexedModified != lastModified() )
+        {
+            long length = length();
+            long modified = lastModified();
+            index = GZipIndex.load( getIndexFile(), length, modified );
+
+            if ( index == null )
+            {
+                FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+                try
+                {
+                    index = GZipIndex.build( channel );
+                }
+                finally
+                {
+                    channel.close();
+                }
+            }
+
+            indexedLength = length;
+            indexedModified = modified;
+        }
+
+        return index;
+    }
 }
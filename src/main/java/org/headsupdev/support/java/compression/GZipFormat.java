@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Constants and helpers for the gzip file format, RFC 1952.
+ */
+final class GZipFormat
+{
+    static final int ID1 = 0x1f;
+
+    static final int ID2 = 0x8b;
+
+    static final int FHCRC = 2;
+
+    static final int FEXTRA = 4;
+
+    static final int FNAME = 8;
+
+    static final int FCOMMENT = 16;
+
+    /**
+     * A minimal header - no name, no timestamp and an unknown operating system.
+     */
+    static final byte[] HEADER = {
+            (byte) ID1, (byte) ID2, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    static final int TRAILER_SIZE = 8;
+
+    private GZipFormat()
+    {
+    }
+
+    static void writeTrailer( OutputStream out, long crc, long length ) throws IOException
+    {
+        writeInt( out, crc );
+        writeInt( out, length );
+    }
+
+    static void writeInt( OutputStream out, long value ) throws IOException
+    {
+        out.write( (int) ( value & 0xff ) );
+        out.write( (int) ( ( value >> 8 ) & 0xff ) );
+        out.write( (int) ( ( value >> 16 ) & 0xff ) );
+        out.write( (int) ( ( value >> 24 ) & 0xff ) );
+    }
+}
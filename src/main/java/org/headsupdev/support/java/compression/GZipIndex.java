@@ -0,0 +1,575 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Access points into a gzip file, so that reading from the middle of it only needs to inflate from the
+ * nearest point before rather than from the start. Each point is either the start of a gzip member or
+ * the start of a deflate block, which is kept with the 32KB of output before it that the block may
+ * refer back to. The windows are kept deflated, and the index can be saved alongside the file so that
+ * it is only built once.
+ */
+public class GZipIndex
+{
+    /**
+     * The default distance, in uncompressed bytes, between access points.
+     */
+    public static final long DEFAULT_SPAN = 1024 * 1024;
+
+    private static final int SIDECAR_MAGIC = 0x47494458; // "GIDX"
+
+    private static final int SIDECAR_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<AccessPoint> points;
+
+    private final long uncompressedSize;
+
+    private GZipIndex( List<AccessPoint> points, long uncompressedSize )
+    {
+        this.points = Collections.unmodifiableList( points );
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    /**
+     * @return The total length of the data in the file, over all of its members
+     */
+    public long getUncompressedSize()
+    {
+        return uncompressedSize;
+    }
+
+    public int getAccessPointCount()
+    {
+        return points.size();
+    }
+
+    public static GZipIndex build( FileChannel channel ) throws IOException
+    {
+        return build( channel, DEFAULT_SPAN );
+    }
+
+    /**
+     * Inflate the whole of the gzip file open on the channel passed in, noting an access point roughly
+     * every span bytes of output.
+     *
+     * @param channel The gzip file to index
+     * @param span    The number of uncompressed bytes to aim for between access points
+     * @return The index of the file
+     * @throws IOException If the file cannot be read or is not valid gzip data
+     */
+    public static GZipIndex build( FileChannel channel, long span ) throws IOException
+    {
+        if ( span <= 0 )
+        {
+            throw new IllegalArgumentException( "Span must be positive" );
+        }
+
+        List<AccessPoint> points = new ArrayList<AccessPoint>();
+        points.add( new AccessPoint( 0, 0, null ) );
+
+        Reader reader = new Reader( channel, points.get( 0 ), false );
+        byte[] buffer = BufferPool.getDefault().borrow( BUFFER_SIZE );
+        try
+        {
+            long last = 0;
+            while ( reader.read( buffer, 0, buffer.length ) != -1 )
+            {
+                if ( reader.position - last < span )
+                {
+                    continue;
+                }
+
+                if ( reader.isAtMemberStart() )
+                {
+                    points.add( new AccessPoint( reader.position, reader.bits.getBitPosition(), null ) );
+                    last = reader.position;
+                }
+                else if ( reader.inflater.isAtBlockStart() )
+                {
+                    points.add( new AccessPoint( reader.position, reader.bits.getBitPosition(),
+                            deflateWindow( reader.inflater.getWindow() ) ) );
+                    last = reader.position;
+                }
+            }
+        }
+        finally
+        {
+            BufferPool.getDefault().release( buffer );
+        }
+
+        return new GZipIndex( points, reader.position );
+    }
+
+    /**
+     * Open a stream of the uncompressed data starting at the offset given. Only the data from the
+     * access point before the offset is inflated.
+     *
+     * @param channel      The gzip file this index was built from
+     * @param offset       The position in the uncompressed data to start reading from
+     * @param closeChannel True if closing the stream should close the channel
+     * @return A stream of the uncompressed data from offset to the end
+     * @throws IOException If the file cannot be read or is not valid gzip data
+     */
+    public InputStream openAt( FileChannel channel, long offset, boolean closeChannel ) throws IOException
+    {
+        if ( offset < 0 )
+        {
+            throw new IllegalArgumentException( "Negative offset" );
+        }
+
+        int low = 0;
+        int high = points.size() - 1;
+        while ( low < high )
+        {
+            int mid = ( low + high + 1 ) >>> 1;
+            if ( points.get( mid ).position <= offset )
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        AccessPoint point = points.get( low );
+
+        Reader reader = new Reader( channel, point, closeChannel );
+        byte[] buffer = BufferPool.getDefault().borrow( BUFFER_SIZE );
+        try
+        {
+            long skip = offset - point.position;
+            while ( skip > 0 )
+            {
+                int count = reader.read( buffer, 0, (int) Math.min( skip, buffer.length ) );
+                if ( count == -1 )
+                {
+                    break;
+                }
+                skip -= count;
+            }
+        }
+        catch ( IOException e )
+        {
+            reader.close();
+            throw e;
+        }
+        finally
+        {
+            BufferPool.getDefault().release( buffer );
+        }
+
+        return reader;
+    }
+
+    /**
+     * Save this index to a file. The length and modification time of the gzip file are saved with it
+     * so that a stale index is not loaded after the file changes.
+     *
+     * @param file     The file to save to
+     * @param length   The length of the gzip file that was indexed
+     * @param modified The modification time of the gzip file that was indexed
+     * @throws IOException If the file cannot be written
+     */
+    public void write( java.io.File file, long length, long modified ) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+        try
+        {
+            out.writeInt( SIDECAR_MAGIC );
+            out.writeInt( SIDECAR_VERSION );
+            out.writeLong( length );
+            out.writeLong( modified );
+            out.writeLong( uncompressedSize );
+            out.writeInt( points.size() );
+            for ( AccessPoint point : points )
+            {
+                out.writeLong( point.position );
+                out.writeLong( point.bitPosition );
+                if ( point.window == null )
+                {
+                    out.writeInt( -1 );
+                }
+                else
+                {
+                    out.writeInt( point.window.length );
+                    out.write( point.window );
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Load an index saved by write().
+     *
+     * @param file     The saved index
+     * @param length   The current length of the gzip file
+     * @param modified The current modification time of the gzip file
+     * @return The index, or null if there is no saved index or it is for a different version of the file
+     * @throws IOException If the file cannot be read
+     */
+    public static GZipIndex load( java.io.File file, long length, long modified ) throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != SIDECAR_MAGIC || in.readInt() != SIDECAR_VERSION ||
+                    in.readLong() != length || in.readLong() != modified )
+            {
+                return null;
+            }
+
+            long uncompressedSize = in.readLong();
+            int count = in.readInt();
+            List<AccessPoint> points = new ArrayList<AccessPoint>( Math.max( 0, Math.min( count, 1024 ) ) );
+            long previous = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                long position = in.readLong();
+                long bitPosition = in.readLong();
+                int windowLength = in.readInt();
+                if ( position < previous || position > uncompressedSize || bitPosition < 0 ||
+                        bitPosition > length * 8 || windowLength < -1 || windowLength > BUFFER_SIZE )
+                {
+                    return null;
+                }
+
+                byte[] window = null;
+                if ( windowLength >= 0 )
+                {
+                    window = new byte[windowLength];
+                    in.readFully( window );
+                }
+                points.add( new AccessPoint( position, bitPosition, window ) );
+                previous = position;
+            }
+            if ( points.isEmpty() || points.get( 0 ).position != 0 )
+            {
+                return null;
+            }
+
+            return new GZipIndex( points, uncompressedSize );
+        }
+        catch ( EOFException e )
+        {
+            // a truncated index is no use, the file will just be indexed again
+            return null;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static byte[] deflateWindow( byte[] window )
+    {
+        byte[] output = BufferPool.getDefault().borrow( BUFFER_SIZE );
+        Deflater deflater = DeflaterPool.getDefault().borrow( Deflater.DEFAULT_COMPRESSION, true );
+        try
+        {
+            // a 32KB window always deflates into 64KB, so one call is enough
+            deflater.setInput( window );
+            deflater.finish();
+            int length = deflater.deflate( output, 0, output.length );
+
+            byte[] ret = new byte[length];
+            System.arraycopy( output, 0, ret, 0, length );
+            return ret;
+        }
+        finally
+        {
+            DeflaterPool.getDefault().release( deflater );
+            BufferPool.getDefault().release( output );
+        }
+    }
+
+    private static byte[] inflateWindow( byte[] window ) throws IOException
+    {
+        byte[] output = new byte[BitInflater.WINDOW_SIZE];
+        Inflater inflater = InflaterPool.getDefault().borrow( true );
+        try
+        {
+            inflater.setInput( window );
+            int length = 0;
+            while ( !inflater.finished() && length < output.length )
+            {
+                int count = inflater.inflate( output, length, output.length - length );
+                if ( count == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+                {
+                    throw new IOException( "Invalid window in gzip index" );
+                }
+                length += count;
+            }
+
+            byte[] ret = new byte[length];
+            System.arraycopy( output, 0, ret, 0, length );
+            return ret;
+        }
+        catch ( DataFormatException e )
+        {
+            throw new IOException( "Invalid window in gzip index", e );
+        }
+        finally
+        {
+            InflaterPool.getDefault().release( inflater );
+        }
+    }
+
+    private static class AccessPoint
+    {
+        // the offset in the uncompressed data
+        final long position;
+
+        // the offset in the gzip file of a member header, or of a block header if window is set
+        final long bitPosition;
+
+        // the deflated 32KB of output before a block, or null at the start of a member
+        final byte[] window;
+
+        AccessPoint( long position, long bitPosition, byte[] window )
+        {
+            this.position = position;
+            this.bitPosition = bitPosition;
+            this.window = window;
+        }
+    }
+
+    /**
+     * Reads the members of a gzip file one after another from an access point. The CRC of each
+     * member is checked, except for the one a block access point starts part way through.
+     */
+    private static class Reader
+            extends InputStream
+    {
+        private final InputStream in;
+
+        private final BitInput bits;
+
+        private final CRC32 crc = new CRC32();
+
+        private BitInflater inflater;
+
+        private boolean check;
+
+        private boolean firstMember;
+
+        private boolean finished;
+
+        private long memberSize;
+
+        private long position;
+
+        Reader( FileChannel channel, AccessPoint point, boolean closeChannel ) throws IOException
+        {
+            long start = point.bitPosition >>> 3;
+            in = new ChannelRangeInputStream( channel, start, channel.size() - start, closeChannel );
+            bits = new BitInput( in, start, BUFFER_SIZE );
+            bits.bits( (int) ( point.bitPosition & 7 ) );
+            position = point.position;
+            firstMember = point.position == 0;
+
+            if ( point.window != null )
+            {
+                byte[] window = inflateWindow( point.window );
+                inflater = new BitInflater( bits );
+                inflater.setWindow( window, 0, window.length );
+            }
+        }
+
+        boolean isAtMemberStart()
+        {
+            return inflater == null && !finished;
+        }
+
+        public int read() throws IOException
+        {
+            byte[] data = new byte[1];
+            if ( read( data, 0, 1 ) == -1 )
+            {
+                return -1;
+            }
+
+            return data[0] & 0xff;
+        }
+
+        public int read( byte[] data, int off, int len ) throws IOException
+        {
+            if ( len == 0 )
+            {
+                return 0;
+            }
+
+            while ( !finished )
+            {
+                if ( inflater == null && !readHeader() )
+                {
+                    finished = true;
+                    break;
+                }
+
+                int count = inflater.read( data, off, len );
+                if ( count > 0 )
+                {
+                    if ( check )
+                    {
+                        crc.update( data, off, count );
+                    }
+                    memberSize += count;
+                    position += count;
+                    if ( inflater.isFinished() )
+                    {
+                        // read the trailer now so that the index can see the start of the next member
+                        readTrailer();
+                    }
+                    return count;
+                }
+
+                readTrailer();
+            }
+
+            return -1;
+        }
+
+        public void close() throws IOException
+        {
+            in.close();
+        }
+
+        private boolean readHeader() throws IOException
+        {
+            int id1 = bits.readByte();
+            if ( id1 == -1 && !firstMember )
+            {
+                return false;
+            }
+            if ( id1 != GZipFormat.ID1 || bits.readByte() != GZipFormat.ID2 )
+            {
+                if ( firstMember )
+                {
+                    throw new IOException( "Not in GZIP format" );
+                }
+
+                // like gunzip, ignore padding or other trailing data after the last member
+                return false;
+            }
+            if ( bits.readByte() != Deflater.DEFLATED )
+            {
+                throw new IOException( "Unsupported compression method" );
+            }
+
+            int flags = bits.readByte();
+            for ( int i = 0; i < 6; i++ )
+            {
+                bits.readByte();
+            }
+            if ( ( flags & GZipFormat.FEXTRA ) != 0 )
+            {
+                int length = bits.readByte() | bits.readByte() << 8;
+                for ( int i = 0; i < length; i++ )
+                {
+                    bits.readByte();
+                }
+            }
+            if ( ( flags & GZipFormat.FNAME ) != 0 )
+            {
+                skipString();
+            }
+            if ( ( flags & GZipFormat.FCOMMENT ) != 0 )
+            {
+                skipString();
+            }
+            if ( ( flags & GZipFormat.FHCRC ) != 0 )
+            {
+                bits.readByte();
+                bits.readByte();
+            }
+
+            firstMember = false;
+            check = true;
+            crc.reset();
+            memberSize = 0;
+            inflater = new BitInflater( bits );
+            return true;
+        }
+
+        private void skipString() throws IOException
+        {
+            int value;
+            while ( ( value = bits.readByte() ) != 0 )
+            {
+                if ( value == -1 )
+                {
+                    throw new EOFException( "Unexpected end of gzip header" );
+                }
+            }
+        }
+
+        private void readTrailer() throws IOException
+        {
+            bits.alignToByte();
+            byte[] trailer = new byte[GZipFormat.TRAILER_SIZE];
+            bits.readBytes( trailer, 0, trailer.length );
+
+            if ( check )
+            {
+                if ( readInt( trailer, 0 ) != crc.getValue() )
+                {
+                    throw new IOException( "Corrupt GZIP trailer" );
+                }
+                if ( readInt( trailer, 4 ) != ( memberSize & 0xffffffffL ) )
+                {
+                    throw new IOException( "Corrupt GZIP trailer" );
+                }
+            }
+            inflater = null;
+        }
+
+        private static long readInt( byte[] data, int off )
+        {
+            return ( data[off] & 0xffL ) | ( data[off + 1] & 0xffL ) << 8 | ( data[off + 2] & 0xffL ) << 16 |
+                    ( data[off + 3] & 0xffL ) << 24;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * A thread-safe pool of Inflater instances. Returned inflaters are reset and kept for the next
+ * caller, up to a fixed number of each kind, so the native zlib state is not allocated and freed
+ * for every stream.
+ */
+public class InflaterPool
+{
+    private static final InflaterPool DEFAULT = new InflaterPool( Runtime.getRuntime().availableProcessors() * 2 );
+
+    private final BlockingQueue<Inflater> raw;
+
+    private final BlockingQueue<Inflater> wrapped;
+
+    /**
+     * @param maxIdle The most inflaters of each kind to keep
+     */
+    public InflaterPool( int maxIdle )
+    {
+        raw = new ArrayBlockingQueue<Inflater>( Math.max( 1, maxIdle ) );
+        wrapped = new ArrayBlockingQueue<Inflater>( Math.max( 1, maxIdle ) );
+    }
+
+    /**
+     * @return The pool shared by all the compression classes
+     */
+    public static InflaterPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Get an inflater from the pool, creating one if none are free. It must be given back with
+     * release() rather than ended.
+     *
+     * @param nowrap True for raw deflate data, as used by gzip and zip, false for the zlib format
+     * @return An inflater ready for new input
+     */
+    public Inflater borrow( boolean nowrap )
+    {
+        Inflater inflater = ( nowrap ? raw : wrapped ).poll();
+        if ( inflater == null )
+        {
+            inflater = new PooledInflater( nowrap );
+        }
+        return inflater;
+    }
+
+    /**
+     * Give an inflater back to the pool. If the pool is full, or the inflater did not come from a
+     * pool, it is ended instead.
+     *
+     * @param inflater The inflater to return, which must not be used again by the caller
+     */
+    public void release( Inflater inflater )
+    {
+        if ( inflater == null )
+        {
+            return;
+        }
+        if ( !( inflater instanceof PooledInflater ) )
+        {
+            inflater.end();
+            return;
+        }
+
+        inflater.reset();
+        if ( !( ( (PooledInflater) inflater ).nowrap ? raw : wrapped ).offer( inflater ) )
+        {
+            inflater.end();
+        }
+    }
+
+    private static class PooledInflater
+            extends Inflater
+    {
+        private final boolean nowrap;
+
+        PooledInflater( boolean nowrap )
+        {
+            super( nowrap );
+            this.nowrap = nowrap;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Copies a directory tree on a fork/join pool. Each subdirectory is walked as a forked task and
+ * each file copied as another, so idle workers steal whatever part of the tree is left.
+ */
+class ParallelDirectoryCopy
+{
+    private final int parallelism;
+
+    public ParallelDirectoryCopy( int parallelism )
+    {
+        this.parallelism = Math.max( 1, parallelism );
+    }
+
+    public CopySummary copy( UncompressedFile source, UncompressedFile dest ) throws IOException
+    {
+        CopySummary summary = new CopySummary();
+        long start = System.currentTimeMillis();
+
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        try
+        {
+            pool.invoke( new DirectoryCopy( source, dest, summary ) );
+        }
+        catch ( CopyException e )
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        summary.setTime( System.currentTimeMillis() - start );
+        return summary;
+    }
+
+    private static class DirectoryCopy
+            extends RecursiveAction
+    {
+        private final UncompressedFile source;
+
+        private final UncompressedFile dest;
+
+        private final CopySummary summary;
+
+        DirectoryCopy( UncompressedFile source, UncompressedFile dest, CopySummary summary )
+        {
+            this.source = source;
+            this.dest = dest;
+            this.summary = summary;
+        }
+
+        protected void compute()
+        {
+            dest.mkdir();
+            summary.addDirectory();
+
+            java.io.File[] list = source.listFiles();
+            if ( list == null )
+            {
+                throw new CopyException( new IOException( "Unable to list directory " + source.getPath() ) );
+            }
+
+            List<RecursiveAction> tasks = new ArrayList<RecursiveAction>( list.length );
+            for ( int i = 0; i < list.length; i++ )
+            {
+                UncompressedFile next = new UncompressedFile( list[i] );
+                if ( next.getName().equals( "." ) || next.getName().equals( ".." ) )
+                {
+                    continue;
+                }
+
+                UncompressedFile subDest = new UncompressedFile( dest, next.getName() );
+                if ( next.isDirectory() )
+                {
+                    tasks.add( new DirectoryCopy( next, subDest, summary ) );
+                }
+                else
+                {
+                    tasks.add( new FileCopy( next, subDest, summary ) );
+                }
+            }
+
+            invokeAll( tasks );
+        }
+    }
+
+    private static class FileCopy
+            extends RecursiveAction
+    {
+        private final UncompressedFile source;
+
+        private final UncompressedFile dest;
+
+        private final CopySummary summary;
+
+        FileCopy( UncompressedFile source, UncompressedFile dest, CopySummary summary )
+        {
+            this.source = source;
+            this.dest = dest;
+            this.summary = summary;
+        }
+
+        protected void compute()
+        {
+            try
+            {
+                source.copyTo( dest );
+                summary.addFile( dest.length() );
+            }
+            catch ( IOException e )
+            {
+                throw new CopyException( e );
+            }
+        }
+    }
+
+    /**
+     * Carries an IOException out of a fork/join task, which cannot throw checked exceptions.
+     */
+    private static class CopyException
+            extends RuntimeException
+    {
+        CopyException( IOException cause )
+        {
+            super( cause );
+        }
+
+        public IOException getCause()
+        {
+            return (IOException) super.getCause();
+        }
+    }
+}
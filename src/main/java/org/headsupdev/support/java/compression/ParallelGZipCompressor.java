@@ -0,0 +1,372 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip writer that splits the input into blocks and deflates them concurrently, in the style of pigz.
+ * Each block is primed with the last 32K of the block before it so the compression ratio stays close to
+ * that of a serial gzip, and the blocks are written back in order as a single gzip member.
+ */
+public class ParallelGZipCompressor
+        extends AbstractCompressor
+{
+    static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int BUFFER = 64 * 1024;
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final int blockSize;
+
+    private final int level;
+
+    private final int strategy;
+
+    // only for the listener, and null when not made from options
+    private final CompressionOptions options;
+
+    public ParallelGZipCompressor( Executor executor, int parallelism )
+    {
+        this( executor, parallelism, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    public ParallelGZipCompressor( Executor executor, int parallelism, int blockSize, int level )
+    {
+        this( executor, parallelism, blockSize, level, Deflater.DEFAULT_STRATEGY, null );
+    }
+
+    /**
+     * @param executor Where to run the workers
+     * @param options  The parallelism, level, strategy and listener to compress with
+     */
+    public ParallelGZipCompressor( Executor executor, CompressionOptions options )
+    {
+        this( executor, options.getParallelism(), DEFAULT_BLOCK_SIZE, options.getLevel(), options.getStrategy(),
+                options );
+    }
+
+    private ParallelGZipCompressor( Executor executor, int parallelism, int blockSize, int level, int strategy,
+                                    CompressionOptions options )
+    {
+        if ( blockSize < DICTIONARY_SIZE )
+        {
+            throw new IllegalArgumentException( "Block size must be at least " + DICTIONARY_SIZE + " bytes" );
+        }
+
+        this.executor = executor;
+        this.parallelism = Math.max( 1, parallelism );
+        this.blockSize = blockSize;
+        this.level = level;
+        this.strategy = strategy;
+        this.options = options;
+    }
+
+    public void compress( InputStream in, OutputStream out ) throws IOException
+    {
+        // allow a couple of blocks per worker so the workers are not left waiting on the writer
+        int maxInFlight = parallelism * 2;
+        LinkedList<FutureTask<Block>> pending = new LinkedList<FutureTask<Block>>();
+
+        long crc = 0;
+        long length = 0;
+        byte[] current = null;
+        byte[] next = null;
+        byte[] dictionary = null;
+        EntryTimer timer = EntryTimer.create( options );
+        try
+        {
+            out.write( GZipFormat.HEADER );
+            if ( timer != null )
+            {
+                timer.start( null );
+            }
+
+            current = BufferPool.getDefault().borrow( blockSize );
+            int currentLength = readBlock( in, current );
+            if ( timer != null )
+            {
+                timer.read( currentLength );
+            }
+            boolean last = false;
+            while ( !last )
+            {
+                Streams.checkInterrupted();
+                int nextLength = 0;
+                if ( currentLength == blockSize )
+                {
+                    next = BufferPool.getDefault().borrow( blockSize );
+                    nextLength = readBlock( in, next );
+                    if ( timer != null )
+                    {
+                        timer.read( nextLength );
+                    }
+                }
+                last = nextLength == 0;
+
+                // take the next dictionary now, as the worker gives this block back to the pool when it is done
+                byte[] nextDictionary = null;
+                if ( !last )
+                {
+                    nextDictionary = BufferPool.getDefault().borrow( DICTIONARY_SIZE );
+                    System.arraycopy( current, currentLength - DICTIONARY_SIZE, nextDictionary, 0,
+                            DICTIONARY_SIZE );
+                }
+
+                FutureTask<Block> task = new FutureTask<Block>( new BlockDeflater( current, currentLength,
+                        dictionary, last ) );
+                executor.execute( task );
+                pending.addLast( task );
+
+                dictionary = nextDictionary;
+                current = next;
+                currentLength = nextLength;
+                next = null;
+
+                while ( pending.size() >= maxInFlight || ( last && !pending.isEmpty() ) )
+                {
+                    Block block = pending.removeFirst().get();
+                    if ( timer != null )
+                    {
+                        timer.coded();
+                    }
+                    out.write( block.data );
+                    if ( timer != null )
+                    {
+                        timer.wrote( block.data.length );
+                    }
+
+                    crc = combineCrc( crc, block.crc, block.length );
+                    length += block.length;
+                }
+            }
+
+            GZipFormat.writeTrailer( out, crc, length );
+            if ( timer != null )
+            {
+                timer.finish();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            throw new InterruptedIOException( e.getMessage() );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause().getMessage() );
+        }
+        finally
+        {
+            for ( FutureTask<Block> task : pending )
+            {
+                task.cancel( true );
+            }
+            BufferPool.getDefault().release( current );
+            BufferPool.getDefault().release( next );
+            BufferPool.getDefault().release( dictionary );
+        }
+    }
+
+    private int readBlock( InputStream in, byte[] block ) throws IOException
+    {
+        int read = 0;
+        int count;
+        while ( read < blockSize && ( count = in.read( block, read, blockSize - read ) ) != -1 )
+        {
+            read += count;
+        }
+
+        return read;
+    }
+
+    /**
+     * Combine two CRC32 values as if the data they were calculated from had been concatenated.
+     * This is the GF(2) matrix method used by zlib's crc32_combine.
+     *
+     * @param crc1   The CRC of the first run of data
+     * @param crc2   The CRC of the second run of data
+     * @param length The length of the second run of data
+     * @return The CRC of both runs of data together
+     */
+    static long combineCrc( long crc1, long crc2, long length )
+    {
+        if ( length <= 0 )
+        {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // the operator for a single zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for ( int n = 1; n < 32; n++ )
+        {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // then for two and four zero bits
+        gf2MatrixSquare( even, odd );
+        gf2MatrixSquare( odd, even );
+
+        // apply the operator for each set bit of the length, in bytes
+        do
+        {
+            gf2MatrixSquare( even, odd );
+            if ( ( length & 1 ) != 0 )
+            {
+                crc1 = gf2MatrixTimes( even, crc1 );
+            }
+            length >>= 1;
+
+            if ( length == 0 )
+            {
+                break;
+            }
+
+            gf2MatrixSquare( odd, even );
+            if ( ( length & 1 ) != 0 )
+            {
+                crc1 = gf2MatrixTimes( odd, crc1 );
+            }
+            length >>= 1;
+        }
+        while ( length != 0 );
+
+        return ( crc1 ^ crc2 ) & 0xffffffffL;
+    }
+
+    private static long gf2MatrixTimes( long[] matrix, long vector )
+    {
+        long sum = 0;
+        int i = 0;
+        while ( vector != 0 )
+        {
+            if ( ( vector & 1 ) != 0 )
+            {
+                sum ^= matrix[i];
+            }
+            vector >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare( long[] square, long[] matrix )
+    {
+        for ( int n = 0; n < 32; n++ )
+        {
+            square[n] = gf2MatrixTimes( matrix, matrix[n] );
+        }
+    }
+
+    private static class Block
+    {
+        byte[] data;
+        long crc;
+        int length;
+    }
+
+    private class BlockDeflater
+            implements Callable<Block>
+    {
+        private final byte[] input;
+        private final int length;
+        private final byte[] dictionary;
+        private final boolean last;
+
+        BlockDeflater( byte[] input, int length, byte[] dictionary, boolean last )
+        {
+            this.input = input;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        public Block call() throws Exception
+        {
+            Block block = new Block();
+            block.length = length;
+
+            Deflater deflater = DeflaterPool.getDefault().borrow( level, strategy, true );
+            byte[] data = BufferPool.getDefault().borrow( BUFFER );
+            try
+            {
+                CRC32 crc = new CRC32();
+                crc.update( input, 0, length );
+                block.crc = crc.getValue();
+
+                if ( dictionary != null )
+                {
+                    deflater.setDictionary( dictionary, 0, DICTIONARY_SIZE );
+                }
+                deflater.setInput( input, 0, length );
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream( length / 2 + 64 );
+                int count;
+                if ( last )
+                {
+                    deflater.finish();
+                    while ( !deflater.finished() )
+                    {
+                        count = deflater.deflate( data, 0, BUFFER );
+                        out.write( data, 0, count );
+                    }
+                }
+                else
+                {
+                    // a sync flush leaves the block byte aligned so the next one can be appended directly
+                    do
+                    {
+                        count = deflater.deflate( data, 0, BUFFER, Deflater.SYNC_FLUSH );
+                        out.write( data, 0, count );
+                    }
+                    while ( count == BUFFER );
+                }
+
+                block.data = out.toByteArray();
+            }
+            finally
+            {
+                DeflaterPool.getDefault().release( deflater );
+                BufferPool.getDefault().release( data );
+                BufferPool.getDefault().release( input );
+                BufferPool.getDefault().release( dictionary );
+            }
+
+            return block;
+        }
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Expands a gzip file made of many members, as written by bgzip or by concatenating gzip files, by
+ * inflating groups of members concurrently and writing each at its own position in the output. Member
+ * boundaries come from the BGZF block size field when there is one, and otherwise from a scan for member
+ * headers. The length of each member is taken from its trailer, and every member is checked to inflate to
+ * exactly that length and end exactly at the next header, so a header found by chance inside compressed
+ * data is caught and the caller can fall back to reading the file in order.
+ * <p>
+ * Without a BGZF block size the first member is inflated to find where it ends before any scan. Most
+ * gzip files have a single member, so if it is longer than PROBE_SIZE the file is left to be read in
+ * order rather than reading it all once more to look for headers.
+ */
+class ParallelGZipExpander
+{
+    // a header, an empty deflate block and a trailer
+    private static final int MIN_MEMBER = 20;
+
+    private static final int SCAN_BUFFER = 128 * 1024;
+
+    // members are handed to the workers in groups of about this much compressed data
+    private static final long TASK_SIZE = 4 * 1024 * 1024;
+
+    // the most of a first member without a BGZF block size to read looking for its end
+    static final long PROBE_SIZE = 4 * 1024 * 1024;
+
+    private final Executor executor;
+
+    private final int bufferSize;
+
+    /**
+     * @param executor   Where to inflate the members - it will not be shut down
+     * @param bufferSize The buffer size for each worker to inflate with
+     */
+    public ParallelGZipExpander( Executor executor, int bufferSize )
+    {
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Expand the gzip file open on the channel into dest.
+     *
+     * @param in   The gzip file
+     * @param dest The file to write
+     * @return false if the file has a single member or could not be split into members, in which case it
+     *         should be expanded in order - anything written to dest is then to be overwritten
+     * @throws IOException If there is a problem reading the gzip file or writing dest
+     */
+    public boolean expand( FileChannel in, java.io.File dest ) throws IOException
+    {
+        List<Long> starts = findMembers( in );
+        if ( starts.size() < 2 )
+        {
+            return false;
+        }
+
+        int count = starts.size();
+        long[] ends = new long[count];
+        long[] offsets = new long[count + 1];
+        ByteBuffer trailer = ByteBuffer.allocate( 4 );
+        for ( int i = 0; i < count; i++ )
+        {
+            ends[i] = i + 1 < count ? starts.get( i + 1 ) : in.size();
+            if ( ends[i] - starts.get( i ) < MIN_MEMBER )
+            {
+                return false;
+            }
+
+            trailer.clear();
+            readFully( in, trailer, ends[i] - 4 );
+            offsets[i + 1] = offsets[i] + readInt( trailer.array(), 0 );
+        }
+
+        FileChannel out = new RandomAccessFile( dest, "rw" ).getChannel();
+        List<FutureTask<Boolean>> tasks = new ArrayList<FutureTask<Boolean>>();
+        AtomicBoolean stop = new AtomicBoolean();
+        try
+        {
+            out.truncate( 0 );
+
+            int first = 0;
+            while ( first < count )
+            {
+                int last = first;
+                while ( last + 1 < count && ends[last + 1] - starts.get( first ) <= TASK_SIZE )
+                {
+                    last++;
+                }
+
+                FutureTask<Boolean> task = new FutureTask<Boolean>( new MemberInflater( in, out, starts, ends,
+                        offsets, first, last, stop ) );
+                executor.execute( task );
+                tasks.add( task );
+                first = last + 1;
+            }
+
+            for ( FutureTask<Boolean> task : tasks )
+            {
+                if ( !task.get() )
+                {
+                    return false;
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            throw new InterruptedIOException( e.getMessage() );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause().getMessage(), e.getCause() );
+        }
+        finally
+        {
+            // interrupting a worker would close the shared channels, so ask them to stop and wait for them
+            stop.set( true );
+            waitFor( tasks );
+            out.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The offsets of the member headers, or an empty list if the file does not start with one
+     */
+    private static List<Long> findMembers( FileChannel in ) throws IOException
+    {
+        List<Long> ret = new ArrayList<Long>();
+        long size = in.size();
+        ByteBuffer buffer = ByteBuffer.allocate( SCAN_BUFFER );
+        byte[] data = buffer.array();
+
+        long position = 0;
+        while ( position + MIN_MEMBER <= size )
+        {
+            buffer.clear();
+            if ( size - position < buffer.capacity() )
+            {
+                buffer.limit( (int) ( size - position ) );
+            }
+            readFully( in, buffer, position );
+            int limit = buffer.position();
+
+            int i = 0;
+            long next = -1;
+            while ( i + MIN_MEMBER <= limit )
+            {
+                if ( !isHeader( data, i ) )
+                {
+                    if ( position + i == 0 )
+                    {
+                        return ret;
+                    }
+                    i++;
+                    continue;
+                }
+
+                int blockSize = bgzfBlockSize( data, i, limit );
+                if ( blockSize == -2 && i > 0 )
+                {
+                    // the extra field runs past the buffer, so read it again from here
+                    break;
+                }
+
+                ret.add( position + i );
+                if ( blockSize > 0 )
+                {
+                    next = position + i + blockSize + 1;
+                    break;
+                }
+                if ( position + i == 0 )
+                {
+                    next = firstMemberEnd( in );
+                    if ( next == -1 )
+                    {
+                        return ret;
+                    }
+                    break;
+                }
+                i += MIN_MEMBER;
+            }
+
+            if ( next != -1 )
+            {
+                position = next;
+            }
+            else if ( limit < buffer.capacity() && i + MIN_MEMBER > limit )
+            {
+                // the rest of the file is too short to hold another member
+                break;
+            }
+            else
+            {
+                position += Math.max( i, 1 );
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Find where the first member ends by inflating it, giving up once more than PROBE_SIZE has been read.
+     *
+     * @return The position just after the trailer of the first member, or -1 if it was not found
+     */
+    private static long firstMemberEnd( FileChannel in ) throws IOException
+    {
+        byte[] input = BufferPool.getDefault().borrow( SCAN_BUFFER );
+        byte[] output = BufferPool.getDefault().borrow( SCAN_BUFFER );
+        Inflater inflater = InflaterPool.getDefault().borrow( true );
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( input );
+            readFully( in, buffer, 0 );
+            int count = buffer.position();
+            int header = headerLength( input, count );
+            if ( header < 0 )
+            {
+                return -1;
+            }
+            long position = count;
+            inflater.setInput( input, header, count - header );
+
+            while ( !inflater.finished() )
+            {
+                if ( inflater.inflate( output, 0, output.length ) == 0 )
+                {
+                    if ( inflater.needsDictionary() || !inflater.needsInput() || position >= PROBE_SIZE )
+                    {
+                        return -1;
+                    }
+                    Streams.checkInterrupted();
+
+                    buffer.clear();
+                    readFully( in, buffer, position );
+                    count = buffer.position();
+                    if ( count == 0 )
+                    {
+                        return -1;
+                    }
+                    position += count;
+                    inflater.setInput( input, 0, count );
+                }
+            }
+
+            return header + inflater.getBytesRead() + GZipFormat.TRAILER_SIZE;
+        }
+        catch ( DataFormatException e )
+        {
+            return -1;
+        }
+        finally
+        {
+            InflaterPool.getDefault().release( inflater );
+            BufferPool.getDefault().release( input );
+            BufferPool.getDefault().release( output );
+        }
+    }
+
+    private static boolean isHeader( byte[] data, int off )
+    {
+        int flags = data[off + 3] & 0xff;
+        int extraFlags = data[off + 8] & 0xff;
+        int os = data[off + 9] & 0xff;
+
+        return ( data[off] & 0xff ) == GZipFormat.ID1 && ( data[off + 1] & 0xff ) == GZipFormat.ID2 &&
+                data[off + 2] == Deflater.DEFLATED && ( flags & 0xe0 ) == 0 &&
+                ( extraFlags == 0 || extraFlags == 2 || extraFlags == 4 ) && ( os <= 13 || os == 255 );
+    }
+
+    /**
+     * @return The BGZF BSIZE field of the header at off, -1 if there is none or -2 if the extra
+     *         field is not all in the buffer
+     */
+    private static int bgzfBlockSize( byte[] data, int off, int limit )
+    {
+        if ( ( data[off + 3] & GZipFormat.FEXTRA ) == 0 )
+        {
+            return -1;
+        }
+
+        int length = ( data[off + 10] & 0xff ) | ( data[off + 11] & 0xff ) << 8;
+        int pos = off + 12;
+        int end = pos + length;
+        if ( end > limit )
+        {
+            return -2;
+        }
+
+        while ( pos + 4 <= end )
+        {
+            int fieldLength = ( data[pos + 2] & 0xff ) | ( data[pos + 3] & 0xff ) << 8;
+            if ( data[pos] == 'B' && data[pos + 1] == 'C' && fieldLength == 2 && pos + 6 <= end )
+            {
+                return ( data[pos + 4] & 0xff ) | ( data[pos + 5] & 0xff ) << 8;
+            }
+            pos += 4 + fieldLength;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return The length of the member header at the start of data, or -1 if it is not all there
+     */
+    private static int headerLength( byte[] data, int length )
+    {
+        int flags = data[3] & 0xff;
+        int pos = 10;
+        if ( ( flags & GZipFormat.FEXTRA ) != 0 )
+        {
+            if ( pos + 2 > length )
+            {
+                return -1;
+            }
+            pos += 2 + ( ( data[pos] & 0xff ) | ( data[pos + 1] & 0xff ) << 8 );
+        }
+        if ( ( flags & GZipFormat.FNAME ) != 0 )
+        {
+            while ( pos < length && data[pos] != 0 )
+            {
+                pos++;
+            }
+            pos++;
+        }
+        if ( ( flags & GZipFormat.FCOMMENT ) != 0 )
+        {
+            while ( pos < length && data[pos] != 0 )
+            {
+                pos++;
+            }
+            pos++;
+        }
+        if ( ( flags & GZipFormat.FHCRC ) != 0 )
+        {
+            pos += 2;
+        }
+
+        return pos <= length ? pos : -1;
+    }
+
+    private static void readFully( FileChannel in, ByteBuffer buffer, long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            int count = in.read( buffer, position );
+            if ( count == -1 )
+            {
+                break;
+            }
+            position += count;
+        }
+    }
+
+    private static long readInt( byte[] data, int off )
+    {
+        return ( data[off] & 0xffL ) | ( data[off + 1] & 0xffL ) << 8 | ( data[off + 2] & 0xffL ) << 16 |
+                ( data[off + 3] & 0xffL ) << 24;
+    }
+
+    private static void waitFor( List<FutureTask<Boolean>> tasks )
+    {
+        for ( FutureTask<Boolean> task : tasks )
+        {
+            try
+            {
+                task.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( ExecutionException e )
+            {
+                // already reported, or one of the reasons we are giving up
+            }
+        }
+    }
+
+    /**
+     * Inflates a run of members, writing each at its offset in the output.
+     */
+    private class MemberInflater
+            implements Callable<Boolean>
+    {
+        private final FileChannel in;
+
+        private final FileChannel out;
+
+        private final List<Long> starts;
+
+        private final long[] ends;
+
+        private final long[] offsets;
+
+        private final int first;
+
+        private final int last;
+
+        private final AtomicBoolean stop;
+
+        private final CRC32 crc = new CRC32();
+
+        MemberInflater( FileChannel in, FileChannel out, List<Long> starts, long[] ends, long[] offsets,
+                        int first, int last, AtomicBoolean stop )
+        {
+            this.in = in;
+            this.out = out;
+            this.starts = starts;
+            this.ends = ends;
+            this.offsets = offsets;
+            this.first = first;
+            this.last = last;
+            this.stop = stop;
+        }
+
+        /**
+         * @return false if a member did not match the boundaries and lengths found for it
+         */
+        public Boolean call() throws IOException
+        {
+            byte[] input = BufferPool.getDefault().borrow( bufferSize );
+            byte[] output = BufferPool.getDefault().borrow( bufferSize );
+            Inflater inflater = InflaterPool.getDefault().borrow( true );
+            try
+            {
+                for ( int i = first; i <= last; i++ )
+                {
+                    if ( stop.get() )
+                    {
+                        return false;
+                    }
+
+                    inflater.reset();
+                    if ( !inflateMember( i, inflater, input, output ) )
+                    {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+            catch ( DataFormatException e )
+            {
+                return false;
+            }
+            finally
+            {
+                InflaterPool.getDefault().release( inflater );
+                BufferPool.getDefault().release( input );
+                BufferPool.getDefault().release( output );
+            }
+        }
+
+        private boolean inflateMember( int member, Inflater inflater, byte[] input, byte[] output )
+                throws IOException, DataFormatException
+        {
+            long position = starts.get( member );
+            long end = ends[member] - GZipFormat.TRAILER_SIZE;
+            long expected = offsets[member + 1] - offsets[member];
+
+            int count = read( input, position, end );
+            int header = headerLength( input, count );
+            if ( header < 0 )
+            {
+                return false;
+            }
+            position += count;
+            inflater.setInput( input, header, count - header );
+
+            crc.reset();
+            long written = 0;
+            while ( !inflater.finished() )
+            {
+                int length = inflater.inflate( output, 0, output.length );
+                if ( length == 0 )
+                {
+                    if ( inflater.needsDictionary() || !inflater.needsInput() || position >= end )
+                    {
+                        return false;
+                    }
+
+                    count = read( input, position, end );
+                    position += count;
+                    inflater.setInput( input, 0, count );
+                    continue;
+                }
+                if ( written + length > expected )
+                {
+                    return false;
+                }
+
+                crc.update( output, 0, length );
+                ByteBuffer buffer = ByteBuffer.wrap( output, 0, length );
+                while ( buffer.hasRemaining() )
+                {
+                    out.write( buffer, offsets[member] + written + buffer.position() );
+                }
+                written += length;
+            }
+
+            // the member must use all of its data, so the next member really does start where we found it
+            if ( inflater.getRemaining() != 0 || position != end || written != expected )
+            {
+                return false;
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate( 4 );
+            readFully( in, trailer, end );
+            return readInt( trailer.array(), 0 ) == crc.getValue();
+        }
+
+        private int read( byte[] input, long position, long end ) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( input, 0, (int) Math.min( input.length, end - position ) );
+            readFully( in, buffer, position );
+            return buffer.position();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip writer that deflates each file on a pool of workers and appends the finished entries
+ * from the calling thread in the same order as the serial zipCompress would.
+ * Compressed data is held in memory for small entries and spilled to a temporary file for larger ones.
+ */
+class ParallelZipCompressor
+{
+    private static final int BUFFER = 64 * 1024;
+
+    private static final int SPILL_THRESHOLD = 1024 * 1024;
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final CompressionOptions options;
+
+    private final int bufferSize;
+
+    private volatile boolean aborted;
+
+    public ParallelZipCompressor( Executor executor, int parallelism )
+    {
+        this( executor, parallelism, new CompressionOptions() );
+    }
+
+    /**
+     * @param executor    Where to run the workers
+     * @param parallelism The most workers expected to run at once, used to limit the entries in flight
+     * @param options     The level, strategy, buffer size and store threshold for the entries
+     */
+    public ParallelZipCompressor( Executor executor, int parallelism, CompressionOptions options )
+    {
+        this.executor = executor;
+        this.parallelism = Math.max( 1, parallelism );
+        this.options = options;
+        this.bufferSize = Math.max( BUFFER, options.getBufferSize() );
+    }
+
+    /**
+     * Write a zip archive containing the files (and the contents of any directories) listed.
+     * The output stream is not closed.
+     *
+     * @param files  The files to archive
+     * @param delete True if the files should be deleted once the archive is complete
+     * @param out    Where the archive should be written
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public void compress( java.io.File[] files, boolean delete, OutputStream out ) throws IOException
+    {
+        List<Source> sources = new ArrayList<Source>();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            collect( files[i], "", sources );
+        }
+
+        int maxInFlight = parallelism * 2;
+        LinkedList<FutureTask<PrecompressedEntry>> pending = new LinkedList<FutureTask<PrecompressedEntry>>();
+        ZipArchiveWriter writer = new ZipArchiveWriter( out, options );
+        boolean complete = false;
+        try
+        {
+            for ( Source source : sources )
+            {
+                FutureTask<PrecompressedEntry> task = new FutureTask<PrecompressedEntry>(
+                        new EntryDeflater( source ) );
+                if ( source.directory )
+                {
+                    task.run();
+                }
+                else
+                {
+                    executor.execute( task );
+                }
+                pending.addLast( task );
+
+                while ( pending.size() >= maxInFlight )
+                {
+                    write( pending.removeFirst(), writer );
+                }
+            }
+
+            while ( !pending.isEmpty() )
+            {
+                write( pending.removeFirst(), writer );
+            }
+            writer.finish();
+            complete = true;
+        }
+        catch ( InterruptedException e )
+        {
+            throw new InterruptedIOException( e.getMessage() );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause().getMessage() );
+        }
+        finally
+        {
+            if ( !complete )
+            {
+                abort( pending );
+            }
+        }
+
+        if ( delete )
+        {
+            // children were collected after their parents so delete in reverse to empty directories first
+            for ( int i = sources.size() - 1; i >= 0; i-- )
+            {
+                sources.get( i ).file.delete();
+            }
+        }
+    }
+
+    private void write( FutureTask<PrecompressedEntry> task, ZipArchiveWriter writer )
+            throws IOException, InterruptedException, ExecutionException
+    {
+        PrecompressedEntry entry = task.get();
+        if ( entry == null )
+        {
+            return;
+        }
+
+        try
+        {
+            writer.writeEntry( entry );
+        }
+        finally
+        {
+            entry.dispose();
+        }
+    }
+
+    private void abort( List<FutureTask<PrecompressedEntry>> pending )
+    {
+        aborted = true;
+
+        // wait for any running workers so we can clean up the buffers they have created
+        for ( FutureTask<PrecompressedEntry> task : pending )
+        {
+            try
+            {
+                PrecompressedEntry entry = task.get();
+                if ( entry != null )
+                {
+                    entry.dispose();
+                }
+            }
+            catch ( Exception e )
+            {
+                // already failing, the original exception is the one to report
+            }
+        }
+    }
+
+    private static void collect( java.io.File file, String prefix, List<Source> sources )
+    {
+        if ( file.isDirectory() )
+        {
+            String thisDir = prefix + file.getName() + java.io.File.separatorChar;
+            sources.add( new Source( file, thisDir, true ) );
+
+            java.io.File[] files = file.listFiles();
+            for ( int i = 0; i < files.length; i++ )
+            {
+                collect( files[i], thisDir, sources );
+            }
+        }
+        else
+        {
+            sources.add( new Source( file, prefix + file.getName(), false ) );
+        }
+    }
+
+    private static class Source
+    {
+        final java.io.File file;
+        final String name;
+        final boolean directory;
+
+        Source( java.io.File file, String name, boolean directory )
+        {
+            this.file = file;
+            this.name = name;
+            this.directory = directory;
+        }
+    }
+
+    private class EntryDeflater
+            implements Callable<PrecompressedEntry>
+    {
+        private final Source source;
+
+        EntryDeflater( Source source )
+        {
+            this.source = source;
+        }
+
+        public PrecompressedEntry call() throws Exception
+        {
+            if ( aborted )
+            {
+                return null;
+            }
+
+            PrecompressedEntry entry = new PrecompressedEntry( source.name, source.file.lastModified() );
+            if ( source.directory )
+            {
+                return entry;
+            }
+
+            FileInputStream in;
+            try
+            {
+                in = new FileInputStream( source.file );
+            }
+            catch ( FileNotFoundException e )
+            {
+                if ( !e.getMessage().contains( "(Too many levels of symbolic links)" ) )
+                {
+                    throw e;
+                }
+                return null;
+            }
+
+            EntryTimer timer = EntryTimer.create( options );
+            if ( timer != null )
+            {
+                timer.start( source.name );
+            }
+
+            SpillBuffer buffer = new SpillBuffer( SPILL_THRESHOLD );
+            Deflater deflater = null;
+            byte[] input = BufferPool.getDefault().borrow( bufferSize );
+            byte[] output = null;
+            boolean complete = false;
+            try
+            {
+                CRC32 crc = new CRC32();
+                if ( StorePolicy.shouldStore( source.file, options ) )
+                {
+                    long size = Streams.copy( in, buffer, input, crc );
+                    buffer.close();
+                    if ( timer != null )
+                    {
+                        timer.read( size );
+                        timer.wrote( size );
+                    }
+
+                    entry.setData( ZipEntry.STORED, crc.getValue(), size, buffer );
+                }
+                else if ( options.getCache() == null )
+                {
+                    deflater = DeflaterPool.getDefault().borrow( options.getLevel(), options.getStrategy(), true );
+                    output = BufferPool.getDefault().borrow( bufferSize );
+                    long size = deflate( in, buffer, deflater, input, output, crc, timer );
+                    buffer.close();
+
+                    entry.setData( ZipEntry.DEFLATED, crc.getValue(), size, buffer );
+                }
+                else
+                {
+                    CompressionCache.CachedData cached = options.getCache().get( source.file, options );
+                    if ( cached != null )
+                    {
+                        buffer.dispose();
+                        entry.setData( cached );
+                        if ( timer != null )
+                        {
+                            timer.read( cached.getSize() );
+                            timer.wrote( cached.getCompressedSize() );
+                        }
+                    }
+                    else
+                    {
+                        CompressionCache.Writer cache = options.getCache().put( source.file, options, buffer );
+                        deflater = DeflaterPool.getDefault().borrow( options.getLevel(), options.getStrategy(),
+                                true );
+                        output = BufferPool.getDefault().borrow( bufferSize );
+                        try
+                        {
+                            long size = deflate( in, cache, deflater, input, output, crc, timer );
+                            buffer.close();
+                            cache.commit( crc.getValue(), size );
+
+                            entry.setData( ZipEntry.DEFLATED, crc.getValue(), size, buffer );
+                        }
+                        finally
+                        {
+                            cache.abort();
+                        }
+                    }
+                }
+                if ( timer != null )
+                {
+                    timer.finish();
+                }
+                complete = true;
+            }
+            finally
+            {
+                in.close();
+                DeflaterPool.getDefault().release( deflater );
+                BufferPool.getDefault().release( input );
+                BufferPool.getDefault().release( output );
+                if ( !complete || aborted )
+                {
+                    buffer.dispose();
+                    entry.dispose();
+                }
+            }
+
+            if ( aborted )
+            {
+                return null;
+            }
+            return entry;
+        }
+
+        private long deflate( FileInputStream in, OutputStream out, Deflater deflater, byte[] input, byte[] output,
+                              CRC32 crc, EntryTimer timer ) throws IOException
+        {
+            if ( options.isMemoryMapped() )
+            {
+                return Streams.deflate( in.getChannel(), out, deflater, output, crc, timer );
+            }
+
+            return Streams.deflate( in, out, deflater, input, output, crc, timer );
+        }
+    }
+}
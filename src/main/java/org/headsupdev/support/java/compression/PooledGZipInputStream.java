@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads gzip data using a pooled inflater. Concatenated gzip members are read one after another
+ * as a single stream, and each member's CRC and length are checked against its trailer.
+ */
+class PooledGZipInputStream
+        extends PooledInflaterInputStream
+{
+    private final CRC32 crc = new CRC32();
+
+    private long length;
+
+    private boolean inMember;
+
+    private boolean firstMember = true;
+
+    private boolean eof;
+
+    public PooledGZipInputStream( InputStream in, int bufferSize )
+    {
+        super( in, bufferSize );
+    }
+
+    public int read( byte[] data, int off, int len ) throws IOException
+    {
+        while ( !eof )
+        {
+            if ( !inMember )
+            {
+                if ( !readHeader() )
+                {
+                    eof = true;
+                    break;
+                }
+                continue;
+            }
+
+            int count = inflate( data, off, len );
+            if ( count != -1 )
+            {
+                crc.update( data, off, count );
+                length += count;
+                return count;
+            }
+
+            readTrailer();
+        }
+
+        return -1;
+    }
+
+    private boolean readHeader() throws IOException
+    {
+        int id1 = readInputByte();
+        if ( id1 == -1 && !firstMember )
+        {
+            return false;
+        }
+        int id2 = readInputByte();
+        if ( id1 != GZipFormat.ID1 || id2 != GZipFormat.ID2 )
+        {
+            if ( firstMember )
+            {
+                if ( id1 == -1 )
+                {
+                    throw new EOFException( "Empty gzip stream" );
+                }
+                throw new ZipException( "Not in gzip format" );
+            }
+
+            // like GZIPInputStream anything after the last member that is not gzip data is ignored
+            return false;
+        }
+        if ( readRequiredByte() != Deflater.DEFLATED )
+        {
+            throw new ZipException( "Unsupported gzip compression method" );
+        }
+
+        int flags = readRequiredByte();
+        // modification time, extra flags and operating system
+        skipBytes( 6 );
+
+        if ( ( flags & GZipFormat.FEXTRA ) != 0 )
+        {
+            skipBytes( readRequiredByte() | readRequiredByte() << 8 );
+        }
+        if ( ( flags & GZipFormat.FNAME ) != 0 )
+        {
+            while ( readRequiredByte() != 0 )
+            {
+                // skip the name
+            }
+        }
+        if ( ( flags & GZipFormat.FCOMMENT ) != 0 )
+        {
+            while ( readRequiredByte() != 0 )
+            {
+                // skip the comment
+            }
+        }
+        if ( ( flags & GZipFormat.FHCRC ) != 0 )
+        {
+            skipBytes( 2 );
+        }
+
+        resetInflater();
+        crc.reset();
+        length = 0;
+        inMember = true;
+        firstMember = false;
+        return true;
+    }
+
+    private void readTrailer() throws IOException
+    {
+        long expectedCrc = readInt();
+        long expectedLength = readInt();
+        if ( expectedCrc != crc.getValue() || expectedLength != ( length & 0xffffffffL ) )
+        {
+            throw new ZipException( "Corrupt gzip trailer" );
+        }
+
+        inMember = false;
+    }
+
+    private long readInt() throws IOException
+    {
+        return ( readRequiredByte() | readRequiredByte() << 8 | readRequiredByte() << 16 |
+                (long) readRequiredByte() << 24 ) & 0xffffffffL;
+    }
+
+    private int readRequiredByte() throws IOException
+    {
+        int value = readInputByte();
+        if ( value == -1 )
+        {
+            throw new EOFException( "Unexpected end of gzip stream" );
+        }
+        return value;
+    }
+
+    private void skipBytes( int count ) throws IOException
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            readRequiredByte();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates raw deflate data using an inflater and input buffer borrowed from the shared pools,
+ * which are given back when the stream is closed. Any input read past the end of the deflate
+ * data is kept so subclasses can go on to read trailers that follow it.
+ */
+class PooledInflaterInputStream
+        extends InputStream
+{
+    private final InputStream in;
+
+    private final Inflater inflater;
+
+    private byte[] buffer;
+
+    private int position;
+
+    private int limit;
+
+    private boolean finished;
+
+    public PooledInflaterInputStream( InputStream in, int bufferSize )
+    {
+        this.in = in;
+        this.inflater = InflaterPool.getDefault().borrow( true );
+        this.buffer = BufferPool.getDefault().borrow( bufferSize );
+    }
+
+    public int read() throws IOException
+    {
+        byte[] data = new byte[1];
+        if ( read( data, 0, 1 ) == -1 )
+        {
+            return -1;
+        }
+
+        return data[0] & 0xff;
+    }
+
+    public int read( byte[] data, int off, int len ) throws IOException
+    {
+        if ( finished )
+        {
+            return -1;
+        }
+
+        int count = inflate( data, off, len );
+        if ( count == -1 )
+        {
+            finished = true;
+        }
+        return count;
+    }
+
+    /**
+     * Inflate some data from the current deflate stream.
+     *
+     * @return The number of bytes inflated or -1 once the end of the deflate data has been reached
+     */
+    protected int inflate( byte[] data, int off, int len ) throws IOException
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+
+        try
+        {
+            while ( true )
+            {
+                int count = inflater.inflate( data, off, len );
+                if ( count > 0 )
+                {
+                    return count;
+                }
+
+                if ( inflater.finished() )
+                {
+                    // whatever the inflater did not use is back in our buffer for reading trailers
+                    position = limit - inflater.getRemaining();
+                    return -1;
+                }
+                if ( inflater.needsDictionary() )
+                {
+                    throw new ZipException( "Unexpected preset dictionary in deflate data" );
+                }
+                if ( inflater.needsInput() )
+                {
+                    if ( !fill() )
+                    {
+                        throw new EOFException( "Unexpected end of deflate data" );
+                    }
+                    inflater.setInput( buffer, position, limit - position );
+                    position = limit;
+                }
+            }
+        }
+        catch ( DataFormatException e )
+        {
+            throw new ZipException( e.getMessage() );
+        }
+    }
+
+    /**
+     * Start inflating a new deflate stream from the current input position.
+     */
+    protected void resetInflater()
+    {
+        inflater.reset();
+        finished = false;
+    }
+
+    /**
+     * Read a single byte of input that was not part of the deflate data.
+     *
+     * @return The next byte of input or -1 at the end of the input
+     */
+    protected int readInputByte() throws IOException
+    {
+        if ( !fill() )
+        {
+            return -1;
+        }
+
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException
+    {
+        while ( position >= limit )
+        {
+            int count = in.read( buffer, 0, buffer.length );
+            if ( count == -1 )
+            {
+                return false;
+            }
+
+            position = 0;
+            limit = count;
+        }
+
+        return true;
+    }
+
+    public void close() throws IOException
+    {
+        if ( buffer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            in.close();
+        }
+        finally
+        {
+            InflaterPool.getDefault().release( inflater );
+            BufferPool.getDefault().release( buffer );
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip entry whose data has already been compressed, along with the CRC and sizes
+ * needed to write its headers up front.
+ */
+class PrecompressedEntry
+{
+    private final String name;
+
+    private final long time;
+
+    private int method = ZipEntry.STORED;
+
+    private long crc;
+
+    private long size;
+
+    private SpillBuffer data;
+
+    private CompressionCache.CachedData cached;
+
+    public PrecompressedEntry( String name, long time )
+    {
+        this.name = name;
+        this.time = time;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getTime()
+    {
+        return time;
+    }
+
+    public boolean isDirectory()
+    {
+        return data == null && cached == null;
+    }
+
+    public int getMethod()
+    {
+        return method;
+    }
+
+    public long getCrc()
+    {
+        return crc;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getCompressedSize()
+    {
+        if ( cached != null )
+        {
+            return cached.getCompressedSize();
+        }
+        if ( data == null )
+        {
+            return 0;
+        }
+
+        return data.size();
+    }
+
+    void setData( int method, long crc, long size, SpillBuffer data )
+    {
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.data = data;
+    }
+
+    /**
+     * Use deflated data from a compression cache, which is closed when this entry is disposed.
+     */
+    void setData( CompressionCache.CachedData cached )
+    {
+        this.method = ZipEntry.DEFLATED;
+        this.crc = cached.getCrc();
+        this.size = cached.getSize();
+        this.cached = cached;
+    }
+
+    void writeDataTo( OutputStream out ) throws IOException
+    {
+        if ( cached != null )
+        {
+            cached.writeTo( out );
+        }
+        else if ( data != null )
+        {
+            data.writeTo( out );
+        }
+    }
+
+    void dispose()
+    {
+        if ( data != null )
+        {
+            data.dispose();
+        }
+        if ( cached != null )
+        {
+            try
+            {
+                cached.close();
+            }
+            catch ( IOException e )
+            {
+                // only read from, so nothing is lost
+            }
+        }
+    }
+}
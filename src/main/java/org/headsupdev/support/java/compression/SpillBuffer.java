@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.*;
+
+/**
+ * An output stream that collects data in memory until it passes a threshold, after which
+ * everything is moved to a temporary file. Used to hold compressed data until it can be written.
+ */
+class SpillBuffer
+        extends OutputStream
+{
+    private static final int BUFFER = 64 * 1024;
+
+    private final int threshold;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+    private java.io.File spillFile;
+
+    private OutputStream spill;
+
+    private long size;
+
+    public SpillBuffer( int threshold )
+    {
+        this.threshold = threshold;
+    }
+
+    public void write( int b ) throws IOException
+    {
+        write( new byte[]{ (byte) b }, 0, 1 );
+    }
+
+    public void write( byte[] data, int off, int len ) throws IOException
+    {
+        if ( spill == null && memory.size() + len > threshold )
+        {
+            spillFile = java.io.File.createTempFile( "compression", ".spill" );
+            spill = new BufferedOutputStream( new FileOutputStream( spillFile ), BUFFER );
+            memory.writeTo( spill );
+            memory = null;
+        }
+
+        if ( spill != null )
+        {
+            spill.write( data, off, len );
+        }
+        else
+        {
+            memory.write( data, off, len );
+        }
+        size += len;
+    }
+
+    public void close() throws IOException
+    {
+        if ( spill != null )
+        {
+            spill.close();
+        }
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Copy everything that has been written to this buffer to another stream.
+     * The buffer must have been closed first.
+     *
+     * @param out The stream to write the buffered data to
+     * @throws IOException If there is a problem reading the spill file or writing the data
+     */
+    public void writeTo( OutputStream out ) throws IOException
+    {
+        if ( spillFile == null )
+        {
+            memory.writeTo( out );
+            return;
+        }
+
+        InputStream in = new FileInputStream( spillFile );
+        try
+        {
+            byte[] data = new byte[BUFFER];
+            int count;
+            while ( ( count = in.read( data, 0, BUFFER ) ) != -1 )
+            {
+                out.write( data, 0, count );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Release the memory or temporary file used by this buffer.
+     */
+    public void dispose()
+    {
+        memory = null;
+        if ( spillFile != null )
+        {
+            try
+            {
+                close();
+            }
+            catch ( IOException e )
+            {
+                // we are throwing it away anyway
+            }
+            spillFile.delete();
+        }
+    }
+}
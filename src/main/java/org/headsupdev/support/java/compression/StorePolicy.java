@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Decides whether a file should be stored in a zip archive rather than deflated.
+ */
+final class StorePolicy
+{
+    static final int SAMPLE_SIZE = 64 * 1024;
+
+    // below this there is too little data for the sample to say anything useful
+    private static final int MINIMUM_SAMPLE = 1024;
+
+    private StorePolicy()
+    {
+    }
+
+    /**
+     * @param file    The file about to be added to an archive
+     * @param options The store threshold and adaptive settings
+     * @return True if the file should be stored, false if it should be deflated
+     * @throws IOException If the file cannot be read to sample it
+     */
+    static boolean shouldStore( java.io.File file, CompressionOptions options ) throws IOException
+    {
+        if ( file.length() < options.getStoreThreshold() )
+        {
+            return true;
+        }
+        if ( !options.isAdaptive() )
+        {
+            return false;
+        }
+
+        if ( options.getIncompressibleExtensions().contains( getExtension( file.getName() ) ) )
+        {
+            return true;
+        }
+
+        return sampleSaving( file ) < options.getMinimumSaving();
+    }
+
+    static String getExtension( String name )
+    {
+        int dot = name.lastIndexOf( '.' );
+        if ( dot == -1 )
+        {
+            return "";
+        }
+
+        return name.substring( dot + 1 ).toLowerCase( Locale.ENGLISH );
+    }
+
+    /**
+     * Deflate the start of a file as fast as possible to see how well it compresses.
+     *
+     * @return The fraction of the sample that was saved by deflating it, or 1 for small files
+     */
+    private static double sampleSaving( java.io.File file ) throws IOException
+    {
+        byte[] sample = BufferPool.getDefault().borrow( SAMPLE_SIZE );
+        byte[] output = BufferPool.getDefault().borrow( SAMPLE_SIZE );
+        Deflater deflater = DeflaterPool.getDefault().borrow( Deflater.BEST_SPEED, true );
+        try
+        {
+            int length = 0;
+            InputStream in = new FileInputStream( file );
+            try
+            {
+                int count;
+                while ( length < SAMPLE_SIZE && ( count = in.read( sample, length, SAMPLE_SIZE - length ) ) != -1 )
+                {
+                    length += count;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if ( length < MINIMUM_SAMPLE )
+            {
+                return 1;
+            }
+
+            deflater.setInput( sample, 0, length );
+            deflater.finish();
+            long compressed = 0;
+            while ( !deflater.finished() )
+            {
+                compressed += deflater.deflate( output, 0, output.length );
+            }
+
+            return 1 - (double) compressed / length;
+        }
+        finally
+        {
+            DeflaterPool.getDefault().release( deflater );
+            BufferPool.getDefault().release( sample );
+            BufferPool.getDefault().release( output );
+        }
+    }
+}
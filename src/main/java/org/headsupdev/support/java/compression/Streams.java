@@ -0,0 +1,286 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Helpers shared by the streaming compressors.
+ */
+final class Streams
+{
+    static final int CHANNEL_BUFFER = 64 * 1024;
+
+    /**
+     * How much of a file to map at once when deflating from memory mapped files.
+     */
+    static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private Streams()
+    {
+    }
+
+    /**
+     * Stop a long running copy part way through once its thread has been interrupted, as it is when an
+     * asynchronous operation is cancelled. Reading files does not notice an interrupt by itself.
+     * The interrupt is left set for the caller to see.
+     *
+     * @throws InterruptedIOException If the current thread has been interrupted
+     */
+    static void checkInterrupted() throws InterruptedIOException
+    {
+        if ( Thread.currentThread().isInterrupted() )
+        {
+            throw new InterruptedIOException( "Interrupted" );
+        }
+    }
+
+    /**
+     * Copy everything from one stream to another, leaving both open.
+     *
+     * @param in   The stream to read until it is exhausted
+     * @param out  The stream to write to
+     * @param data The buffer to copy through
+     * @return The number of bytes copied
+     * @throws IOException If there is a problem reading or writing
+     */
+    static long copy( InputStream in, OutputStream out, byte[] data ) throws IOException
+    {
+        long total = 0;
+        int count;
+        while ( ( count = in.read( data, 0, data.length ) ) != -1 )
+        {
+            checkInterrupted();
+            out.write( data, 0, count );
+            total += count;
+        }
+
+        return total;
+    }
+
+    /**
+     * Copy everything from one stream to another, leaving both open, and checksum the data on the way.
+     *
+     * @param in   The stream to read until it is exhausted
+     * @param out  The stream to write to
+     * @param data The buffer to copy through
+     * @param crc  A checksum to update with the data copied
+     * @return The number of bytes copied
+     * @throws IOException If there is a problem reading or writing
+     */
+    static long copy( InputStream in, OutputStream out, byte[] data, CRC32 crc ) throws IOException
+    {
+        long total = 0;
+        int count;
+        while ( ( count = in.read( data, 0, data.length ) ) != -1 )
+        {
+            checkInterrupted();
+            crc.update( data, 0, count );
+            out.write( data, 0, count );
+            total += count;
+        }
+
+        return total;
+    }
+
+    /**
+     * As copy( in, out, data ), charging the time taken to a timer.
+     *
+     * @param timer The timer of the entry being copied, which has been started, or null
+     */
+    static long copy( InputStream in, OutputStream out, byte[] data, EntryTimer timer ) throws IOException
+    {
+        if ( timer == null )
+        {
+            return copy( in, out, data );
+        }
+
+        long total = 0;
+        int count;
+        while ( ( count = in.read( data, 0, data.length ) ) != -1 )
+        {
+            checkInterrupted();
+            timer.read( count );
+            out.write( data, 0, count );
+            timer.wrote( count );
+            total += count;
+        }
+
+        return total;
+    }
+
+    /**
+     * Deflate everything from one stream into another, leaving both open.
+     * The deflater is finished but not ended or reset.
+     *
+     * @param in       The stream to read until it is exhausted
+     * @param out      Where the compressed data should be written
+     * @param deflater The deflater to compress with
+     * @param input    The buffer to read into
+     * @param output   The buffer to compress into
+     * @param crc      A checksum to update with the uncompressed data
+     * @return The number of uncompressed bytes read
+     * @throws IOException If there is a problem reading or writing
+     */
+    static long deflate( InputStream in, OutputStream out, Deflater deflater, byte[] input, byte[] output,
+                         CRC32 crc ) throws IOException
+    {
+        return deflate( in, out, deflater, input, output, crc, null );
+    }
+
+    /**
+     * As deflate( in, out, deflater, input, output, crc ), charging the time taken to a timer.
+     *
+     * @param timer The timer of the entry being deflated, which has been started, or null
+     */
+    static long deflate( InputStream in, OutputStream out, Deflater deflater, byte[] input, byte[] output,
+                         CRC32 crc, EntryTimer timer ) throws IOException
+    {
+        long total = 0;
+        int count;
+        while ( ( count = in.read( input, 0, input.length ) ) != -1 )
+        {
+            checkInterrupted();
+            if ( timer != null )
+            {
+                timer.read( count );
+            }
+            crc.update( input, 0, count );
+            total += count;
+
+            deflater.setInput( input, 0, count );
+            while ( !deflater.needsInput() )
+            {
+                write( out, deflater, output, timer );
+            }
+        }
+
+        finish( out, deflater, output, timer );
+        return total;
+    }
+
+    /**
+     * Deflate the rest of a file into a stream, mapping it into memory a window at a time so the
+     * deflater reads it directly rather than through a buffer. The file must not be truncated meanwhile.
+     *
+     * @param in       The file to read from its current position to its end, which is left open
+     * @param out      Where the compressed data should be written
+     * @param deflater The deflater to compress with
+     * @param output   The buffer to compress into
+     * @param crc      A checksum to update with the uncompressed data
+     * @param timer    The timer of the entry being deflated, which has been started, or null
+     * @return The number of uncompressed bytes read
+     * @throws IOException If there is a problem mapping the file or writing
+     */
+    static long deflate( FileChannel in, OutputStream out, Deflater deflater, byte[] output, CRC32 crc,
+                         EntryTimer timer ) throws IOException
+    {
+        return deflate( in, out, deflater, output, crc, MAP_WINDOW, timer );
+    }
+
+    static long deflate( FileChannel in, OutputStream out, Deflater deflater, byte[] output, CRC32 crc,
+                         long windowSize, EntryTimer timer ) throws IOException
+    {
+        long position = in.position();
+        long end = in.size();
+        while ( position < end )
+        {
+            checkInterrupted();
+            MappedByteBuffer window = in.map( FileChannel.MapMode.READ_ONLY, position,
+                    Math.min( windowSize, end - position ) );
+            if ( timer != null )
+            {
+                // the pages are read as they are touched, so most of the reading is counted as deflating
+                timer.read( window.capacity() );
+            }
+            crc.update( window.duplicate() );
+
+            deflater.setInput( window );
+            while ( !deflater.needsInput() )
+            {
+                write( out, deflater, output, timer );
+            }
+            position += window.capacity();
+        }
+
+        long total = position - in.position();
+        in.position( position );
+        finish( out, deflater, output, timer );
+        return total;
+    }
+
+    private static void finish( OutputStream out, Deflater deflater, byte[] output, EntryTimer timer )
+            throws IOException
+    {
+        deflater.finish();
+        while ( !deflater.finished() )
+        {
+            write( out, deflater, output, timer );
+        }
+    }
+
+    private static void write( OutputStream out, Deflater deflater, byte[] output, EntryTimer timer )
+            throws IOException
+    {
+        int count = deflater.deflate( output, 0, output.length );
+        if ( timer == null )
+        {
+            out.write( output, 0, count );
+            return;
+        }
+
+        timer.coded();
+        out.write( output, 0, count );
+        timer.wrote( count );
+    }
+
+    /**
+     * Wrap a stream so that closing the wrapper, for example to release a deflater, leaves it open.
+     */
+    static OutputStream nonClosing( OutputStream out )
+    {
+        return new FilterOutputStream( out )
+        {
+            public void write( byte[] data, int off, int len ) throws IOException
+            {
+                out.write( data, off, len );
+            }
+
+            public void close() throws IOException
+            {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Wrap a stream so that closing the wrapper, for example to release an inflater, leaves it open.
+     */
+    static InputStream nonClosing( InputStream in )
+    {
+        return new FilterInputStream( in )
+        {
+            public void close() throws IOException
+            {
+            }
+        };
+    }
+}
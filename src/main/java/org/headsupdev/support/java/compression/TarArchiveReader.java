@@ -0,0 +1,403 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the entries of a tar archive in order. After getNextEntry() the reader itself is a stream
+ * over the content of that entry. The ustar, pax and GNU formats are understood, so long names,
+ * long link targets and sizes of 8GB or more are read correctly. When the archive is a file channel
+ * the content of entries that are not read is skipped by seeking rather than reading.
+ */
+class TarArchiveReader
+        extends InputStream
+{
+    // pax and GNU long name headers are read into memory, so refuse anything unreasonable
+    private static final int MAX_EXTENDED_HEADER = 1024 * 1024;
+
+    private final ReadableByteChannel in;
+
+    private final ByteBuffer buffer;
+
+    private final byte[] header = new byte[TarFormat.RECORD_SIZE];
+
+    private final Map<String, String> globalPax = new HashMap<String, String>();
+
+    private TarEntry entry;
+
+    private long remaining;
+
+    private int padding;
+
+    private boolean finished;
+
+    public TarArchiveReader( InputStream in )
+    {
+        this( in, new CompressionOptions() );
+    }
+
+    /**
+     * @param in      The tar archive
+     * @param options The buffer size to read with
+     */
+    public TarArchiveReader( InputStream in, CompressionOptions options )
+    {
+        this( Channels.newChannel( in ), options );
+    }
+
+    /**
+     * @param in      The tar archive
+     * @param options The buffer size to read with
+     */
+    public TarArchiveReader( ReadableByteChannel in, CompressionOptions options )
+    {
+        this.in = in;
+        this.buffer = ByteBuffer.allocate( Math.max( options.getBufferSize(), TarFormat.RECORD_SIZE ) );
+        this.buffer.flip();
+    }
+
+    /**
+     * Move to the next entry, skipping whatever is left of the current one.
+     *
+     * @return The next entry, or null at the end of the archive
+     * @throws IOException If the archive cannot be read or a header is corrupt
+     */
+    public TarEntry getNextEntry() throws IOException
+    {
+        if ( finished )
+        {
+            return null;
+        }
+        if ( entry != null )
+        {
+            skipBytes( remaining + padding );
+            entry = null;
+        }
+
+        Map<String, String> pax = new HashMap<String, String>( globalPax );
+        String longName = null;
+        String longLink = null;
+        while ( true )
+        {
+            if ( !readHeader() )
+            {
+                finished = true;
+                return null;
+            }
+
+            byte type = header[TarFormat.TYPE_OFFSET];
+            long size = TarFormat.readNumber( header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH );
+            if ( type == TarFormat.TYPE_PAX )
+            {
+                pax.putAll( parsePax( readExtendedHeader( size ) ) );
+            }
+            else if ( type == TarFormat.TYPE_PAX_GLOBAL )
+            {
+                Map<String, String> global = parsePax( readExtendedHeader( size ) );
+                globalPax.putAll( global );
+                pax.putAll( global );
+            }
+            else if ( type == TarFormat.TYPE_GNU_LONG_NAME )
+            {
+                byte[] data = readExtendedHeader( size );
+                longName = TarFormat.readString( data, 0, data.length );
+            }
+            else if ( type == TarFormat.TYPE_GNU_LONG_LINK )
+            {
+                byte[] data = readExtendedHeader( size );
+                longLink = TarFormat.readString( data, 0, data.length );
+            }
+            else
+            {
+                entry = createEntry( type, size, pax, longName, longLink );
+                return entry;
+            }
+        }
+    }
+
+    public int read() throws IOException
+    {
+        byte[] data = new byte[1];
+        if ( read( data, 0, 1 ) == -1 )
+        {
+            return -1;
+        }
+
+        return data[0] & 0xff;
+    }
+
+    /**
+     * Read the content of the current entry.
+     */
+    public int read( byte[] data, int off, int len ) throws IOException
+    {
+        if ( entry == null || remaining == 0 )
+        {
+            return -1;
+        }
+        if ( len == 0 )
+        {
+            return 0;
+        }
+
+        if ( !buffer.hasRemaining() && fill() == -1 )
+        {
+            throw new EOFException( "Unexpected end of tar archive in " + entry.getName() );
+        }
+
+        int count = (int) Math.min( Math.min( len, buffer.remaining() ), remaining );
+        buffer.get( data, off, count );
+        remaining -= count;
+        return count;
+    }
+
+    public long skip( long n ) throws IOException
+    {
+        long count = Math.min( Math.max( n, 0 ), remaining );
+        skipBytes( count );
+        remaining -= count;
+        return count;
+    }
+
+    public int available() throws IOException
+    {
+        return (int) Math.min( buffer.remaining(), remaining );
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    private TarEntry createEntry( byte type, long size, Map<String, String> pax, String longName,
+                                  String longLink ) throws IOException
+    {
+        String name = TarFormat.readString( header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH );
+        // old GNU archives have "ustar " as their magic and keep other fields where the prefix would be
+        if ( TarFormat.readString( header, TarFormat.MAGIC_OFFSET, TarFormat.MAGIC.length ).equals( "ustar" ) )
+        {
+            String prefix = TarFormat.readString( header, TarFormat.PREFIX_OFFSET, TarFormat.PREFIX_LENGTH );
+            if ( prefix.length() > 0 )
+            {
+                name = prefix + "/" + name;
+            }
+        }
+        if ( longName != null )
+        {
+            name = longName;
+        }
+        if ( pax.containsKey( "path" ) )
+        {
+            name = pax.get( "path" );
+        }
+
+        String linkName = TarFormat.readString( header, TarFormat.LINK_OFFSET, TarFormat.NAME_LENGTH );
+        if ( longLink != null )
+        {
+            linkName = longLink;
+        }
+        if ( pax.containsKey( "linkpath" ) )
+        {
+            linkName = pax.get( "linkpath" );
+        }
+
+        long time = TarFormat.readNumber( header, TarFormat.MTIME_OFFSET, TarFormat.MTIME_LENGTH ) * 1000;
+        try
+        {
+            if ( pax.containsKey( "size" ) )
+            {
+                size = Long.parseLong( pax.get( "size" ) );
+            }
+            if ( pax.containsKey( "mtime" ) )
+            {
+                // pax times may have a fractional part
+                time = (long) ( Double.parseDouble( pax.get( "mtime" ) ) * 1000 );
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IOException( "Invalid pax header for " + name );
+        }
+
+        long dataOffset = -1;
+        if ( in instanceof SeekableByteChannel )
+        {
+            dataOffset = ( (SeekableByteChannel) in ).position() - buffer.remaining();
+        }
+
+        int mode = (int) TarFormat.readNumber( header, TarFormat.MODE_OFFSET, TarFormat.MODE_LENGTH );
+        TarEntry ret = new TarEntry( name, type, mode, size, time, linkName, dataOffset );
+
+        // links, directories, devices and fifos have no content whatever their size field says
+        remaining = type >= TarFormat.TYPE_HARD_LINK && type <= '6' ? 0 : size;
+        padding = TarFormat.padding( remaining );
+        return ret;
+    }
+
+    /**
+     * @return false at the end of the archive, marked by a zero record or the end of the stream
+     */
+    private boolean readHeader() throws IOException
+    {
+        int count = 0;
+        while ( count < TarFormat.RECORD_SIZE )
+        {
+            if ( !buffer.hasRemaining() && fill() == -1 )
+            {
+                if ( count == 0 )
+                {
+                    return false;
+                }
+                throw new EOFException( "Unexpected end of tar archive in a header" );
+            }
+
+            int length = Math.min( buffer.remaining(), TarFormat.RECORD_SIZE - count );
+            buffer.get( header, count, length );
+            count += length;
+        }
+
+        if ( TarFormat.isZero( header ) )
+        {
+            return false;
+        }
+
+        long stored = TarFormat.readNumber( header, TarFormat.CHECKSUM_OFFSET, TarFormat.CHECKSUM_LENGTH );
+        if ( stored != TarFormat.checksum( header ) && stored != TarFormat.signedChecksum( header ) )
+        {
+            throw new IOException( "Invalid tar header checksum" );
+        }
+
+        return true;
+    }
+
+    private byte[] readExtendedHeader( long size ) throws IOException
+    {
+        if ( size < 0 || size > MAX_EXTENDED_HEADER )
+        {
+            throw new IOException( "Extended tar header of " + size + " bytes is too large" );
+        }
+
+        byte[] data = new byte[(int) size];
+        int count = 0;
+        while ( count < data.length )
+        {
+            if ( !buffer.hasRemaining() && fill() == -1 )
+            {
+                throw new EOFException( "Unexpected end of tar archive in an extended header" );
+            }
+
+            int length = Math.min( buffer.remaining(), data.length - count );
+            buffer.get( data, count, length );
+            count += length;
+        }
+
+        skipBytes( TarFormat.padding( size ) );
+        return data;
+    }
+
+    private static Map<String, String> parsePax( byte[] data ) throws IOException
+    {
+        Map<String, String> ret = new HashMap<String, String>();
+        int pos = 0;
+        while ( pos < data.length )
+        {
+            int length = 0;
+            int i = pos;
+            while ( i < data.length && data[i] >= '0' && data[i] <= '9' )
+            {
+                length = length * 10 + ( data[i] - '0' );
+                i++;
+            }
+            if ( i == pos || i >= data.length || data[i] != ' ' || length <= i - pos ||
+                    pos + length > data.length || data[pos + length - 1] != '\n' )
+            {
+                throw new IOException( "Invalid pax extended header" );
+            }
+
+            int end = pos + length - 1;
+            int equals = i + 1;
+            while ( equals < end && data[equals] != '=' )
+            {
+                equals++;
+            }
+            if ( equals == end )
+            {
+                throw new IOException( "Invalid pax extended header" );
+            }
+
+            String key = new String( data, i + 1, equals - i - 1, TarFormat.UTF8 );
+            String value = new String( data, equals + 1, end - equals - 1, TarFormat.UTF8 );
+            ret.put( key, value );
+            pos += length;
+        }
+
+        return ret;
+    }
+
+    private int fill() throws IOException
+    {
+        buffer.clear();
+        int count;
+        do
+        {
+            count = in.read( buffer );
+        }
+        while ( count == 0 );
+        buffer.flip();
+
+        return count;
+    }
+
+    private void skipBytes( long count ) throws IOException
+    {
+        int buffered = (int) Math.min( count, buffer.remaining() );
+        buffer.position( buffer.position() + buffered );
+        count -= buffered;
+        if ( count == 0 )
+        {
+            return;
+        }
+
+        if ( in instanceof SeekableByteChannel )
+        {
+            SeekableByteChannel channel = (SeekableByteChannel) in;
+            channel.position( channel.position() + count );
+            return;
+        }
+
+        while ( count > 0 )
+        {
+            if ( fill() == -1 )
+            {
+                throw new EOFException( "Unexpected end of tar archive" );
+            }
+
+            buffered = (int) Math.min( count, buffer.remaining() );
+            buffer.position( buffer.position() + buffered );
+            count -= buffered;
+        }
+    }
+}
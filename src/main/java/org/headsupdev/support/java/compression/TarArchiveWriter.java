@@ -0,0 +1,430 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+
+/**
+ * A tar writer producing POSIX.1-2001 archives. Names longer than the 100 bytes of a ustar header and
+ * entries of 8GB or more get a pax extended header. Headers and small files are gathered into whole
+ * blocks before they are written and the archive is padded to a whole block when it is finished, as
+ * tar expects. When writing to a file the content of larger files is moved with FileChannel.transferTo
+ * so it never passes through the Java heap.
+ */
+class TarArchiveWriter
+{
+    // gather at least this much before writing, whatever the block size
+    private static final int MINIMUM_BUFFER = 64 * 1024;
+
+    private final WritableByteChannel out;
+
+    private final int blockSize;
+
+    private final ByteBuffer buffer;
+
+    // bytes already written to the channel, to work out the padding of the last block
+    private long written;
+
+    private final byte[] header = new byte[TarFormat.RECORD_SIZE];
+
+    private boolean finished;
+
+    private final EntryTimer timer;
+
+    public TarArchiveWriter( OutputStream out )
+    {
+        this( out, new CompressionOptions() );
+    }
+
+    /**
+     * @param out     Where to write the archive
+     * @param options The tar block size to write in and the listener to tell about each entry
+     */
+    public TarArchiveWriter( OutputStream out, CompressionOptions options )
+    {
+        this( Channels.newChannel( out ), options );
+    }
+
+    /**
+     * @param out     Where to write the archive
+     * @param options The tar block size to write in and the listener to tell about each entry
+     */
+    public TarArchiveWriter( WritableByteChannel out, CompressionOptions options )
+    {
+        this.out = out;
+        this.blockSize = options.getTarBlockSize();
+        this.timer = EntryTimer.create( options );
+
+        int blocks = Math.max( 1, MINIMUM_BUFFER / blockSize );
+        this.buffer = ByteBuffer.allocate( blocks * blockSize );
+    }
+
+    /**
+     * Add a file, directory or symbolic link to the archive. Directories are written without their
+     * contents and symbolic links are stored as links rather than followed.
+     *
+     * @param name The name of the entry, using / to separate directories
+     * @param file The file to add
+     * @throws IOException If the file cannot be read or the archive cannot be written
+     */
+    public void writeEntry( String name, java.io.File file ) throws IOException
+    {
+        Path path = file.toPath();
+        int mode = getMode( path );
+        long time = file.lastModified();
+
+        if ( Files.isSymbolicLink( path ) )
+        {
+            String target = Files.readSymbolicLink( path ).toString();
+            writeHeader( new TarEntry( name, TarFormat.TYPE_SYMLINK, mode, 0, time, target ) );
+            return;
+        }
+        if ( file.isDirectory() )
+        {
+            if ( !name.endsWith( "/" ) )
+            {
+                name += "/";
+            }
+            writeHeader( new TarEntry( name, TarFormat.TYPE_DIRECTORY, mode, 0, time, "" ) );
+            return;
+        }
+
+        FileInputStream in = new FileInputStream( file );
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            writeHeader( new TarEntry( name, TarFormat.TYPE_FILE, mode, size, time, "" ) );
+            if ( timer != null )
+            {
+                timer.start( name );
+            }
+
+            // transferring only pays off when the kernel can copy straight into the archive
+            if ( out instanceof FileChannel && size >= buffer.capacity() )
+            {
+                transfer( channel, size, file );
+            }
+            else
+            {
+                copy( channel, size, file );
+            }
+            pad( size );
+            if ( timer != null )
+            {
+                timer.finish();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Add an entry whose content is read from a stream. Exactly size bytes must be available.
+     *
+     * @param name The name of the entry
+     * @param time The modification time in milliseconds since the epoch
+     * @param size The number of bytes that will be read from the stream
+     * @param in   The content of the entry
+     * @throws IOException If the stream does not hold size bytes or the archive cannot be written
+     */
+    public void writeEntry( String name, long time, long size, InputStream in ) throws IOException
+    {
+        writeHeader( new TarEntry( name, TarFormat.TYPE_FILE, 0644, size, time, "" ) );
+        if ( timer != null )
+        {
+            timer.start( name );
+        }
+
+        long remaining = size;
+        while ( remaining > 0 )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                flush();
+            }
+
+            int count = in.read( buffer.array(), buffer.position(), (int) Math.min( buffer.remaining(), remaining ) );
+            if ( count == -1 )
+            {
+                throw new IOException( "Expected " + size + " bytes for " + name + " but read " + ( size - remaining ) );
+            }
+            buffer.position( buffer.position() + count );
+            copied( count );
+            remaining -= count;
+        }
+        if ( in.read() != -1 )
+        {
+            throw new IOException( "Expected " + size + " bytes for " + name + " but there were more" );
+        }
+        pad( size );
+        if ( timer != null )
+        {
+            timer.finish();
+        }
+    }
+
+    /**
+     * Write the end of archive marker and pad the archive to a whole block.
+     */
+    public void finish() throws IOException
+    {
+        if ( finished )
+        {
+            return;
+        }
+
+        writeZeros( 2 * TarFormat.RECORD_SIZE );
+        int partial = (int) ( ( written + buffer.position() ) % blockSize );
+        if ( partial != 0 )
+        {
+            writeZeros( blockSize - partial );
+        }
+        flush();
+        finished = true;
+    }
+
+    /**
+     * Finish the archive and close the channel or stream it was written to.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private void writeHeader( TarEntry entry ) throws IOException
+    {
+        String name = entry.getName();
+        boolean longName = !TarFormat.fits( name, TarFormat.NAME_LENGTH );
+        boolean longLink = !TarFormat.fits( entry.getLinkName(), TarFormat.NAME_LENGTH );
+        boolean largeSize = entry.getSize() > TarFormat.MAX_OCTAL_SIZE;
+
+        if ( longName || longLink || largeSize )
+        {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            if ( longName )
+            {
+                records.write( TarFormat.paxRecord( "path", name ) );
+            }
+            if ( longLink )
+            {
+                records.write( TarFormat.paxRecord( "linkpath", entry.getLinkName() ) );
+            }
+            if ( largeSize )
+            {
+                records.write( TarFormat.paxRecord( "size", String.valueOf( entry.getSize() ) ) );
+            }
+
+            byte[] pax = records.toByteArray();
+            String paxName = "PaxHeaders/" + new java.io.File( name ).getName();
+            writeRecord( new TarEntry( paxName, TarFormat.TYPE_PAX, 0644, pax.length, entry.getTime(), "" ) );
+            write( pax, 0, pax.length );
+            pad( pax.length );
+        }
+
+        writeRecord( entry );
+    }
+
+    private void writeRecord( TarEntry entry ) throws IOException
+    {
+        Arrays.fill( header, (byte) 0 );
+        TarFormat.writeString( header, TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH, entry.getName() );
+        TarFormat.writeNumber( header, TarFormat.MODE_OFFSET, TarFormat.MODE_LENGTH, entry.getMode() );
+        TarFormat.writeNumber( header, TarFormat.UID_OFFSET, TarFormat.ID_LENGTH, 0 );
+        TarFormat.writeNumber( header, TarFormat.GID_OFFSET, TarFormat.ID_LENGTH, 0 );
+        TarFormat.writeNumber( header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, entry.getSize() );
+        TarFormat.writeNumber( header, TarFormat.MTIME_OFFSET, TarFormat.MTIME_LENGTH,
+                Math.max( 0, entry.getTime() / 1000 ) );
+        header[TarFormat.TYPE_OFFSET] = entry.getType();
+        TarFormat.writeString( header, TarFormat.LINK_OFFSET, TarFormat.NAME_LENGTH, entry.getLinkName() );
+        System.arraycopy( TarFormat.MAGIC, 0, header, TarFormat.MAGIC_OFFSET, TarFormat.MAGIC.length );
+        System.arraycopy( TarFormat.VERSION, 0, header, TarFormat.VERSION_OFFSET, TarFormat.VERSION.length );
+
+        // six octal digits, a NUL and a space
+        TarFormat.writeNumber( header, TarFormat.CHECKSUM_OFFSET, TarFormat.CHECKSUM_LENGTH - 1,
+                TarFormat.checksum( header ) );
+        header[TarFormat.CHECKSUM_OFFSET + TarFormat.CHECKSUM_LENGTH - 1] = ' ';
+
+        write( header, 0, header.length );
+    }
+
+    private void write( byte[] data, int off, int len ) throws IOException
+    {
+        while ( len > 0 )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                flush();
+            }
+
+            int count = Math.min( len, buffer.remaining() );
+            buffer.put( data, off, count );
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void pad( long size ) throws IOException
+    {
+        writeZeros( TarFormat.padding( size ) );
+    }
+
+    private void writeZeros( int count ) throws IOException
+    {
+        while ( count > 0 )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                flush();
+            }
+
+            int length = Math.min( count, buffer.remaining() );
+            Arrays.fill( buffer.array(), buffer.position(), buffer.position() + length, (byte) 0 );
+            buffer.position( buffer.position() + length );
+            count -= length;
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while ( buffer.hasRemaining() )
+        {
+            written += out.write( buffer );
+        }
+        buffer.clear();
+        if ( timer != null )
+        {
+            // the bytes were counted as they were copied in, so this is just the time taken
+            timer.wrote( 0 );
+        }
+    }
+
+    /**
+     * Tar does not change the content, so what has been read into the buffer counts as written too.
+     */
+    private void copied( long count )
+    {
+        if ( timer != null )
+        {
+            timer.read( count );
+            timer.wrote( count );
+        }
+    }
+
+    private void copy( FileChannel channel, long size, java.io.File file ) throws IOException
+    {
+        long remaining = size;
+        while ( remaining > 0 )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                flush();
+            }
+
+            int limit = buffer.limit();
+            if ( buffer.remaining() > remaining )
+            {
+                buffer.limit( buffer.position() + (int) remaining );
+            }
+            int count = channel.read( buffer );
+            buffer.limit( limit );
+
+            if ( count == -1 )
+            {
+                throw new IOException( "File " + file + " was truncated while it was being archived" );
+            }
+            copied( count );
+            remaining -= count;
+        }
+    }
+
+    private void transfer( FileChannel channel, long size, java.io.File file ) throws IOException
+    {
+        // the header has to reach the archive before the content does
+        flush();
+
+        long position = 0;
+        while ( position < size )
+        {
+            long count = channel.transferTo( position, size - position, out );
+            if ( count == 0 && channel.size() <= position )
+            {
+                throw new IOException( "File " + file + " was truncated while it was being archived" );
+            }
+            position += count;
+        }
+        written += size;
+        if ( timer != null )
+        {
+            // the kernel read and wrote it in one go, so the time is all writing
+            timer.wrote( size );
+            timer.read( size );
+        }
+    }
+
+    private static int getMode( Path path )
+    {
+        try
+        {
+            PosixFileAttributes attributes = Files.readAttributes( path, PosixFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS );
+
+            int mode = 0;
+            for ( PosixFilePermission permission : attributes.permissions() )
+            {
+                // the enum runs from OWNER_READ down to OTHERS_EXECUTE, matching the bits from 0400 to 01
+                mode |= 0400 >> permission.ordinal();
+            }
+            return mode;
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // not a posix file system
+        }
+        catch ( IOException e )
+        {
+            // fall back to what java.io.File can tell us
+        }
+
+        java.io.File file = path.toFile();
+        return file.isDirectory() || file.canExecute() ? 0755 : 0644;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes a stream into a tar archive containing a single entry. A tar header records the size
+ * of the entry before its content so the length of the stream must be known up front.
+ */
+public class TarCompressor
+        extends AbstractCompressor
+{
+    private final String entryName;
+
+    private final long size;
+
+    private final CompressionOptions options;
+
+    /**
+     * @param entryName The name to give the entry in the archive
+     * @param size      The number of bytes that will be read from the stream
+     */
+    public TarCompressor( String entryName, long size )
+    {
+        this( entryName, size, new CompressionOptions() );
+    }
+
+    /**
+     * @param entryName The name to give the entry in the archive
+     * @param size      The number of bytes that will be read from the stream
+     * @param options   The tar block size to write with
+     */
+    public TarCompressor( String entryName, long size, CompressionOptions options )
+    {
+        this.entryName = entryName;
+        this.size = size;
+        this.options = options;
+    }
+
+    public void compress( InputStream in, OutputStream out ) throws IOException
+    {
+        TarArchiveWriter writer = new TarArchiveWriter( Streams.nonClosing( out ), options );
+        try
+        {
+            writer.writeEntry( entryName, System.currentTimeMillis(), size, in );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a tar archive from a stream. An archive can be expanded into a directory or a single
+ * entry can be written to another stream.
+ */
+public class TarDecompressor
+        extends AbstractDecompressor
+{
+    private final String entryName;
+
+    private final CompressionOptions options;
+
+    /**
+     * Create a decompressor that writes out the first file in the archive.
+     */
+    public TarDecompressor()
+    {
+        this( null );
+    }
+
+    /**
+     * @param entryName The name of the entry to write out when decompressing to a stream
+     */
+    public TarDecompressor( String entryName )
+    {
+        this( entryName, new CompressionOptions() );
+    }
+
+    /**
+     * @param entryName The name of the entry to write out when decompressing to a stream, or null for the first
+     * @param options   The buffer size to decompress with and the listener to tell about expanded entries
+     */
+    public TarDecompressor( String entryName, CompressionOptions options )
+    {
+        this.entryName = entryName;
+        this.options = options;
+    }
+
+    public void decompress( InputStream in, OutputStream out ) throws IOException
+    {
+        TarArchiveReader reader = new TarArchiveReader( Streams.nonClosing( in ), options );
+        try
+        {
+            TarEntry entry;
+            while ( ( entry = reader.getNextEntry() ) != null )
+            {
+                if ( entry.isFile() && ( entryName == null || entryName.equals( entry.getName() ) ) )
+                {
+                    byte[] data = BufferPool.getDefault().borrow( options.getBufferSize() );
+                    try
+                    {
+                        Streams.copy( reader, out, data );
+                    }
+                    finally
+                    {
+                        BufferPool.getDefault().release( data );
+                    }
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        throw new FileNotFoundException( "No entry " + ( entryName == null ? "" : entryName + " " ) +
+                "found in tar stream" );
+    }
+
+    /**
+     * Expand every entry in the archive into the directory passed in.
+     *
+     * @param in   The tar archive
+     * @param dest The directory to expand into, which must exist
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public void expand( InputStream in, java.io.File dest ) throws IOException
+    {
+        expand( Channels.newChannel( Streams.nonClosing( in ) ), dest );
+    }
+
+    /**
+     * Expand every entry in the archive into the directory passed in. Entries that would be written
+     * outside of that directory are refused.
+     *
+     * @param in   The tar archive, which is not closed
+     * @param dest The directory to expand into, which must exist
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public void expand( ReadableByteChannel in, java.io.File dest ) throws IOException
+    {
+        TarArchiveReader reader = new TarArchiveReader( in, options );
+        String root = dest.getCanonicalPath() + java.io.File.separator;
+        List<java.io.File> directories = new ArrayList<java.io.File>();
+        List<TarEntry> directoryEntries = new ArrayList<TarEntry>();
+
+        EntryTimer timer = EntryTimer.create( options );
+        byte[] data = BufferPool.getDefault().borrow( options.getBufferSize() );
+        try
+        {
+            TarEntry entry;
+            while ( ( entry = reader.getNextEntry() ) != null )
+            {
+                java.io.File file = getDestination( dest, root, entry );
+                if ( file == null )
+                {
+                    continue;
+                }
+
+                if ( entry.isDirectory() )
+                {
+                    file.mkdirs();
+                    directories.add( file );
+                    directoryEntries.add( entry );
+                    continue;
+                }
+
+                file.getParentFile().mkdirs();
+                Files.deleteIfExists( file.toPath() );
+                if ( entry.isSymbolicLink() )
+                {
+                    Files.createSymbolicLink( file.toPath(), Paths.get( entry.getLinkName() ) );
+                }
+                else if ( entry.isHardLink() )
+                {
+                    java.io.File target = getDestination( dest, root, new TarEntry( entry.getLinkName(),
+                            TarFormat.TYPE_FILE, 0, 0, 0, "" ) );
+                    if ( target == null || !target.exists() )
+                    {
+                        throw new FileNotFoundException( "Link target " + entry.getLinkName() + " of " +
+                                entry.getName() + " not found" );
+                    }
+                    Files.copy( target.toPath(), file.toPath() );
+                }
+                else if ( entry.isFile() )
+                {
+                    if ( timer != null )
+                    {
+                        timer.start( entry.getName() );
+                    }
+                    OutputStream out = new FileOutputStream( file );
+                    try
+                    {
+                        Streams.copy( reader, out, data, timer );
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                    if ( timer != null )
+                    {
+                        timer.finish();
+                    }
+                    setAttributes( file, entry );
+                }
+            }
+        }
+        finally
+        {
+            BufferPool.getDefault().release( data );
+        }
+
+        // creating the contents changed the directory times so set them last
+        for ( int i = 0; i < directories.size(); i++ )
+        {
+            setAttributes( directories.get( i ), directoryEntries.get( i ) );
+        }
+    }
+
+    /**
+     * @return Where an entry should be expanded to, or null for "." and other names of the destination itself
+     * @throws IOException If the entry would be expanded outside of the destination
+     */
+    private static java.io.File getDestination( java.io.File dest, String root, TarEntry entry ) throws IOException
+    {
+        String name = entry.getName();
+        while ( name.startsWith( "/" ) || name.startsWith( "./" ) )
+        {
+            name = name.substring( name.startsWith( "/" ) ? 1 : 2 );
+        }
+        if ( name.length() == 0 || name.equals( "." ) )
+        {
+            return null;
+        }
+
+        java.io.File file = new java.io.File( dest, name );
+        if ( !file.getCanonicalPath().startsWith( root ) )
+        {
+            throw new IOException( "Entry " + entry.getName() + " is outside of the destination directory" );
+        }
+
+        return file;
+    }
+
+    private static void setAttributes( java.io.File file, TarEntry entry )
+    {
+        if ( entry.getTime() > 0 )
+        {
+            file.setLastModified( entry.getTime() );
+        }
+        if ( ( entry.getMode() & 0111 ) != 0 )
+        {
+            file.setExecutable( true, ( entry.getMode() & 0011 ) == 0 );
+        }
+    }
+}
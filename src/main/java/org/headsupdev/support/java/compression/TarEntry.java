@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+/**
+ * An entry in a tar archive, with any pax or GNU long name headers already applied.
+ */
+public class TarEntry
+{
+    private final String name;
+
+    private final byte type;
+
+    private final int mode;
+
+    private final long size;
+
+    private final long time;
+
+    private final String linkName;
+
+    private final long dataOffset;
+
+    TarEntry( String name, byte type, int mode, long size, long time, String linkName )
+    {
+        this( name, type, mode, size, time, linkName, -1 );
+    }
+
+    TarEntry( String name, byte type, int mode, long size, long time, String linkName, long dataOffset )
+    {
+        this.name = name;
+        this.type = type;
+        this.mode = mode;
+        this.size = size;
+        this.time = time;
+        this.linkName = linkName;
+        this.dataOffset = dataOffset;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isDirectory()
+    {
+        // very old archives mark directories only by a trailing slash
+        return type == TarFormat.TYPE_DIRECTORY || ( isRegularType() && name.endsWith( "/" ) );
+    }
+
+    public boolean isFile()
+    {
+        return isRegularType() && !name.endsWith( "/" );
+    }
+
+    public boolean isSymbolicLink()
+    {
+        return type == TarFormat.TYPE_SYMLINK;
+    }
+
+    public boolean isHardLink()
+    {
+        return type == TarFormat.TYPE_HARD_LINK;
+    }
+
+    /**
+     * @return The unix permission bits of the entry
+     */
+    public int getMode()
+    {
+        return mode;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return The modification time in milliseconds since the epoch
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * @return The target of a link entry, or an empty string for other entries
+     */
+    public String getLinkName()
+    {
+        return linkName;
+    }
+
+    private boolean isRegularType()
+    {
+        return type == TarFormat.TYPE_FILE || type == TarFormat.TYPE_OLD_FILE || type == TarFormat.TYPE_CONTIGUOUS;
+    }
+
+    byte getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return The position of the entry content in the archive, or -1 if the archive was not read from a file
+     */
+    long getDataOffset()
+    {
+        return dataOffset;
+    }
+
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -16,14 +16,28 @@
 
 package org.headsupdev.support.java.compression;
 
-import com.ice.tar.TarArchive;
-
+import java.io.EOFException;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 public class TarFile
         extends UncompressedFile
 {
+    private TarIndex index;
+
+    private long indexedLength = -1;
+
+    private long indexedModified;
 
     public TarFile( String name )
     {
@@ -46,44 +60,253 @@ public class TarFile
     }
 
     public UncompressedFile expand() throws IOException
+    {
+        return expand( new CompressionOptions() );
+    }
+
+    /**
+     * Expand this archive into a directory alongside it, named without the .tar extension.
+     *
+     * @param options The buffer size to read with
+     * @return The directory the archive was expanded into
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public UncompressedFile expand( CompressionOptions options ) throws IOException
+    {
+        UncompressedFile ret = new UncompressedFile( getExpandPath() );
+        FileInputStream in = null;
+        try
+        {
+            ret.mkdir();
+            in = new FileInputStream( this );
+
+            new TarDecompressor( null, options ).expand( in.getChannel(), ret );
+        }
+        catch ( IOException e )
+        {
+            throw new IOException( e.getMessage() );
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                in.close();
+            }
+        }
+
+        return ret;
+    }
+
+    public CompletableFuture<UncompressedFile> expandAsync()
+    {
+        return expandAsync( new CompressionOptions() );
+    }
+
+    /**
+     * Expand this archive into a directory alongside it without blocking, on the IO pool of the scheduler
+     * from the options. If it is cancelled or fails the directory is removed, unless it was already there.
+     *
+     * @param options The buffer size, listener and scheduler to expand with
+     * @return A future for the directory the archive was expanded into
+     */
+    public CompletableFuture<UncompressedFile> expandAsync( final CompressionOptions options )
+    {
+        return options.getScheduler().submit( new Callable<UncompressedFile>()
+        {
+            public UncompressedFile call() throws Exception
+            {
+                return expand( options );
+            }
+        }, false, new java.io.File( getExpandPath() ) );
+    }
+
+    private String getExpandPath()
     {
         String destFile = getAbsolutePath();
         if ( destFile.endsWith( ".tar" ) )
         {
-            destFile = destFile.substring( 0, destFile.length() - 4 );
+            return destFile.substring( 0, destFile.length() - 4 );
         }
-        else
+
+        return destFile + "_contents";
+    }
+
+    /**
+     * List the entries in this archive. The first call scans the headers, or loads the index saved
+     * by saveIndex(), and the index is reused until the archive changes on disk.
+     *
+     * @return The entries in this archive, in the order they were written
+     * @throws IOException If the archive cannot be read or a header is corrupt
+     */
+    public List<TarEntry> getEntries() throws IOException
+    {
+        return getIndex().getEntries();
+    }
+
+    /**
+     * @param name The name of the entry to look up
+     * @return The entry with the given name, or null if it is not in this archive
+     * @throws IOException If the archive cannot be read or a header is corrupt
+     */
+    public TarEntry getEntry( String name ) throws IOException
+    {
+        return getIndex().getEntry( name );
+    }
+
+    /**
+     * Open a channel over the content of a single file in the archive. It seeks within that entry only,
+     * so reading any part of any entry costs a single seek. The caller must close the channel.
+     *
+     * @param name The name of the entry to read
+     * @return A read only channel of the entry content
+     * @throws IOException If the entry does not exist, is not a file or the archive cannot be read
+     */
+    public SeekableByteChannel openEntry( String name ) throws IOException
+    {
+        TarEntry entry = getRequiredEntry( name );
+        if ( !entry.isFile() )
         {
-            destFile = destFile + "_contents";
+            throw new FileNotFoundException( "Entry " + name + " in " + getPath() + " is not a file" );
         }
 
-        UncompressedFile ret = new UncompressedFile( destFile );
-        TarArchive archive = null;
+        FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+        return new BoundedChannel( channel, entry.getDataOffset(), entry.getSize(), true );
+    }
+
+    public UncompressedFile extractEntry( String name, String dest ) throws IOException
+    {
+        return extractEntry( name, new UncompressedFile( dest ) );
+    }
+
+    /**
+     * Extract a single entry from this archive without reading any of the other entries.
+     *
+     * @param name The name of the entry to extract
+     * @param dest The file (or directory, for a directory entry) to create
+     * @return The extracted file
+     * @throws IOException If the entry does not exist or there is a problem extracting it
+     */
+    public UncompressedFile extractEntry( String name, java.io.File dest ) throws IOException
+    {
+        TarEntry entry = getRequiredEntry( name );
+        if ( entry.isDirectory() )
+        {
+            dest.mkdirs();
+            return new UncompressedFile( dest );
+        }
+        if ( entry.isSymbolicLink() )
+        {
+            Files.deleteIfExists( dest.toPath() );
+            Files.createSymbolicLink( dest.toPath(), Paths.get( entry.getLinkName() ) );
+            return new UncompressedFile( dest );
+        }
+        if ( entry.isHardLink() && !entry.getLinkName().equals( name ) )
+        {
+            return extractEntry( entry.getLinkName(), dest );
+        }
+
+        FileChannel in = new RandomAccessFile( this, "r" ).getChannel();
         try
         {
-            ret.mkdir();
-            archive = new TarArchive( new FileInputStream( this ) );
+            FileChannel out = new FileOutputStream( dest ).getChannel();
+            try
+            {
+                long position = 0;
+                while ( position < entry.getSize() )
+                {
+                    long count = in.transferTo( entry.getDataOffset() + position, entry.getSize() - position, out );
+                    if ( count == 0 && in.size() <= entry.getDataOffset() + position )
+                    {
+                        throw new EOFException( "Unexpected end of " + getPath() + " in " + name );
+                    }
+                    position += count;
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
 
-            archive.setDebug( false );
-            archive.setVerbose( false );
-            archive.setKeepOldFiles( false );
-            archive.setAsciiTranslation( false );
+        if ( entry.getTime() > 0 )
+        {
+            dest.setLastModified( entry.getTime() );
+        }
+        return new UncompressedFile( dest );
+    }
 
-            archive.extractContents( ret );
+    /**
+     * Save the index of this archive alongside it, so that listing or extracting from it later,
+     * even in another process, does not need to scan the headers again.
+     *
+     * @return The index file that was written
+     * @throws IOException If the archive cannot be read or the index cannot be written
+     */
+    public UncompressedFile saveIndex() throws IOException
+    {
+        UncompressedFile file = getIndexFile();
+        TarIndex current;
+        long length;
+        long modified;
+        synchronized ( this )
+        {
+            current = getIndex();
+            length = indexedLength;
+            modified = indexedModified;
         }
-        catch ( IOException e )
+
+        current.write( file, length, modified );
+        return file;
+    }
+
+    /**
+     * @return Where saveIndex() writes the index - this archive's name with ".index" added
+     */
+    public UncompressedFile getIndexFile()
+    {
+        return new UncompressedFile( getPath() + ".index" );
+    }
+
+    private TarEntry getRequiredEntry( String name ) throws IOException
+    {
+        TarEntry entry = getEntry( name );
+        if ( entry == null )
         {
-            throw new IOException( e.getMessage() );
+            throw new FileNotFoundException( "No entry " + name + " in " + getPath() );
         }
-        finally
+
+        return entry;
+    }
+
+    synchronized TarIndex getIndex() throws IOException
+    {
+        if ( index == null || indexedLength != length() || indexedModified != lastModified() )
         {
-            if ( archive != null )
+            long length = length();
+            long modified = lastModified();
+            index = TarIndex.load( getIndexFile(), length, modified );
+
+            if ( index == null )
             {
-                archive.closeArchive();
+                FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+                try
+                {
+                    index = TarIndex.read( channel );
+                }
+                finally
+                {
+                    channel.close();
+                }
             }
+
+            indexedLength = length;
+            indexedModified = modified;
         }
 
-        return ret;
+        return index;
     }
-
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Constants and helpers for the ustar header format of POSIX.1-2001, with the pax extended
+ * headers it defines and the GNU long name headers that older archives use.
+ */
+final class TarFormat
+{
+    static final int RECORD_SIZE = 512;
+
+    static final int NAME_OFFSET = 0;
+    static final int NAME_LENGTH = 100;
+    static final int MODE_OFFSET = 100;
+    static final int MODE_LENGTH = 8;
+    static final int UID_OFFSET = 108;
+    static final int GID_OFFSET = 116;
+    static final int ID_LENGTH = 8;
+    static final int SIZE_OFFSET = 124;
+    static final int SIZE_LENGTH = 12;
+    static final int MTIME_OFFSET = 136;
+    static final int MTIME_LENGTH = 12;
+    static final int CHECKSUM_OFFSET = 148;
+    static final int CHECKSUM_LENGTH = 8;
+    static final int TYPE_OFFSET = 156;
+    static final int LINK_OFFSET = 157;
+    static final int MAGIC_OFFSET = 257;
+    static final int VERSION_OFFSET = 263;
+    static final int PREFIX_OFFSET = 345;
+    static final int PREFIX_LENGTH = 155;
+
+    static final byte TYPE_FILE = '0';
+    static final byte TYPE_OLD_FILE = 0;
+    static final byte TYPE_HARD_LINK = '1';
+    static final byte TYPE_SYMLINK = '2';
+    static final byte TYPE_DIRECTORY = '5';
+    static final byte TYPE_CONTIGUOUS = '7';
+    static final byte TYPE_PAX = 'x';
+    static final byte TYPE_PAX_GLOBAL = 'g';
+    static final byte TYPE_GNU_LONG_NAME = 'L';
+    static final byte TYPE_GNU_LONG_LINK = 'K';
+
+    static final byte[] MAGIC = { 'u', 's', 't', 'a', 'r', 0 };
+    static final byte[] VERSION = { '0', '0' };
+
+    /**
+     * The largest size an 11 digit octal field can hold, 8GB - 1. Larger entries need a pax size.
+     */
+    static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private TarFormat()
+    {
+    }
+
+    /**
+     * @return The number of zero bytes needed after size bytes of data to fill the last record
+     */
+    static int padding( long size )
+    {
+        return (int) ( ( RECORD_SIZE - size % RECORD_SIZE ) % RECORD_SIZE );
+    }
+
+    /**
+     * Write a number as zero padded octal followed by a NUL. Values too large for the field are
+     * written in the base-256 form that GNU tar introduced, marked by the top bit of the first byte.
+     */
+    static void writeNumber( byte[] header, int offset, int length, long value )
+    {
+        if ( value >= 0 && value < 1L << ( 3 * ( length - 1 ) ) )
+        {
+            String octal = Long.toOctalString( value );
+            int start = offset + length - 1 - octal.length();
+            for ( int i = offset; i < start; i++ )
+            {
+                header[i] = '0';
+            }
+            for ( int i = 0; i < octal.length(); i++ )
+            {
+                header[start + i] = (byte) octal.charAt( i );
+            }
+            header[offset + length - 1] = 0;
+            return;
+        }
+
+        for ( int i = offset + length - 1; i > offset; i-- )
+        {
+            header[i] = (byte) value;
+            value >>= 8;
+        }
+        header[offset] = (byte) 0x80;
+    }
+
+    static long readNumber( byte[] header, int offset, int length ) throws IOException
+    {
+        if ( ( header[offset] & 0x80 ) != 0 )
+        {
+            long value = header[offset] & 0x7f;
+            for ( int i = offset + 1; i < offset + length; i++ )
+            {
+                value = ( value << 8 ) | ( header[i] & 0xff );
+            }
+            return value;
+        }
+
+        long value = 0;
+        int end = offset + length;
+        int i = offset;
+        while ( i < end && header[i] == ' ' )
+        {
+            i++;
+        }
+        for ( ; i < end && header[i] != 0 && header[i] != ' '; i++ )
+        {
+            if ( header[i] < '0' || header[i] > '7' )
+            {
+                throw new IOException( "Invalid octal number in tar header" );
+            }
+            value = ( value << 3 ) + ( header[i] - '0' );
+        }
+
+        return value;
+    }
+
+    static String readString( byte[] header, int offset, int length )
+    {
+        int end = offset;
+        while ( end < offset + length && header[end] != 0 )
+        {
+            end++;
+        }
+
+        return new String( header, offset, end - offset, UTF8 );
+    }
+
+    /**
+     * Copy as much of a string as fits into a header field. A name that does not fit is written in
+     * full in a pax header, so truncating here only affects readers that do not understand pax.
+     */
+    static void writeString( byte[] header, int offset, int length, String value )
+    {
+        byte[] bytes = value.getBytes( UTF8 );
+        System.arraycopy( bytes, 0, header, offset, Math.min( bytes.length, length ) );
+    }
+
+    static boolean fits( String value, int length )
+    {
+        return value.getBytes( UTF8 ).length <= length;
+    }
+
+    /**
+     * @return The header checksum, the sum of its bytes with the checksum field counted as spaces
+     */
+    static long checksum( byte[] header )
+    {
+        long sum = 0;
+        for ( int i = 0; i < RECORD_SIZE; i++ )
+        {
+            if ( i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH )
+            {
+                sum += ' ';
+            }
+            else
+            {
+                sum += header[i] & 0xff;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Some old tar implementations summed the header as signed bytes, so accept that as well.
+     */
+    static long signedChecksum( byte[] header )
+    {
+        long sum = 0;
+        for ( int i = 0; i < RECORD_SIZE; i++ )
+        {
+            if ( i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH )
+            {
+                sum += ' ';
+            }
+            else
+            {
+                sum += header[i];
+            }
+        }
+
+        return sum;
+    }
+
+    static boolean isZero( byte[] header )
+    {
+        for ( int i = 0; i < RECORD_SIZE; i++ )
+        {
+            if ( header[i] != 0 )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Encode one pax record, "length key=value\n", where the length counts every byte of the record
+     * including its own digits.
+     */
+    static byte[] paxRecord( String key, String value )
+    {
+        byte[] body = ( " " + key + "=" + value + "\n" ).getBytes( UTF8 );
+        int length = body.length;
+        while ( String.valueOf( length ).length() + body.length != length )
+        {
+            length = String.valueOf( length ).length() + body.length;
+        }
+
+        byte[] digits = String.valueOf( length ).getBytes( UTF8 );
+        byte[] record = new byte[length];
+        System.arraycopy( digits, 0, record, 0, digits.length );
+        System.arraycopy( body, 0, record, digits.length, body.length );
+        return record;
+    }
+}
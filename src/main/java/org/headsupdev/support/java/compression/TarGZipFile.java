@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A gzipped tar archive, as created by UncompressedFile.tarGzipCompress().
+ */
+public class TarGZipFile
+        extends UncompressedFile
+{
+    public TarGZipFile( String name )
+    {
+        super( name );
+    }
+
+    public TarGZipFile( String parent, String child )
+    {
+        super( parent, child );
+    }
+
+    public TarGZipFile( java.io.File file )
+    {
+        super( file.getPath() );
+    }
+
+    public TarGZipFile( java.io.File parent, String child )
+    {
+        super( parent, child );
+    }
+
+    public UncompressedFile expand() throws IOException
+    {
+        return expand( new CompressionOptions() );
+    }
+
+    /**
+     * Expand this archive into a directory alongside it, named without the .tar.gz or .tgz extension.
+     * The archive is inflated on one thread and extracted on another, with no intermediate tar file.
+     *
+     * @param options The buffer size to read with
+     * @return The directory the archive was expanded into
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public UncompressedFile expand( CompressionOptions options ) throws IOException
+    {
+        String destFile = getAbsolutePath();
+        if ( destFile.endsWith( ".tar.gz" ) )
+        {
+            destFile = destFile.substring( 0, destFile.length() - 7 );
+        }
+        else if ( destFile.endsWith( ".tgz" ) )
+        {
+            destFile = destFile.substring( 0, destFile.length() - 4 );
+        }
+        else
+        {
+            destFile = destFile + "_contents";
+        }
+
+        UncompressedFile ret = new UncompressedFile( destFile );
+        ret.mkdir();
+        expand( ret, options );
+
+        return ret;
+    }
+
+    private void expand( java.io.File dest, final CompressionOptions options ) throws IOException
+    {
+        final BufferPipe pipe = new BufferPipe();
+        Callable<Void> inflater = new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                InputStream in = null;
+                try
+                {
+                    in = new FileInputStream( TarGZipFile.this );
+
+                    OutputStream out = pipe.getOutputStream();
+                    new GZipDecompressor( options ).decompress( in, out );
+                    out.close();
+                }
+                catch ( Throwable e )
+                {
+                    pipe.abort( e );
+                    throw e;
+                }
+                finally
+                {
+                    if ( in != null )
+                    {
+                        in.close();
+                    }
+                }
+
+                return null;
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        InputStream in = pipe.getInputStream();
+        try
+        {
+            Future<Void> inflated = executor.submit( inflater );
+
+            new TarDecompressor( null, options ).expand( in, dest );
+
+            // tar stops reading at its end of archive marker, so let the inflater discard any padding after it
+            in.close();
+            inflated.get();
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IOException( e.getCause().getMessage(), e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new InterruptedIOException( e.getMessage() );
+        }
+        finally
+        {
+            in.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names and content positions of the entries in a tar archive. Tar has no central directory
+ * so the index is built by reading each header and seeking past the content that follows it.
+ * It can be saved alongside the archive so that later lookups do not have to scan it again.
+ */
+public class TarIndex
+{
+    private static final int SIDECAR_MAGIC = 0x54494458; // "TIDX"
+
+    private static final int SIDECAR_VERSION = 1;
+
+    private static final int MAX_STRING = 1024 * 1024;
+
+    private final List<TarEntry> entries;
+
+    private final Map<String, TarEntry> entriesByName;
+
+    private TarIndex( List<TarEntry> entries )
+    {
+        this.entries = Collections.unmodifiableList( entries );
+        this.entriesByName = new HashMap<String, TarEntry>();
+        for ( TarEntry entry : entries )
+        {
+            // an archive can be appended to, in which case the last copy of a name wins
+            entriesByName.put( entry.getName(), entry );
+        }
+    }
+
+    public List<TarEntry> getEntries()
+    {
+        return entries;
+    }
+
+    public TarEntry getEntry( String name )
+    {
+        return entriesByName.get( name );
+    }
+
+    /**
+     * Scan the headers of the archive open on the channel passed in.
+     *
+     * @param channel The archive to index
+     * @return The index of all entries in the archive
+     * @throws IOException If the archive cannot be read or a header is corrupt
+     */
+    public static TarIndex read( FileChannel channel ) throws IOException
+    {
+        // only headers are read, so a buffer bigger than a record would mostly read content we skip
+        CompressionOptions options = new CompressionOptions();
+        options.setBufferSize( TarFormat.RECORD_SIZE );
+
+        channel.position( 0 );
+        TarArchiveReader reader = new TarArchiveReader( channel, options );
+        List<TarEntry> entries = new ArrayList<TarEntry>();
+        TarEntry entry;
+        while ( ( entry = reader.getNextEntry() ) != null )
+        {
+            entries.add( entry );
+        }
+
+        return new TarIndex( entries );
+    }
+
+    /**
+     * Save this index to a file. The length and modification time of the archive are saved with it
+     * so that a stale index is not loaded after the archive changes.
+     *
+     * @param file     The file to save to
+     * @param length   The length of the archive that was indexed
+     * @param modified The modification time of the archive that was indexed
+     * @throws IOException If the file cannot be written
+     */
+    public void write( java.io.File file, long length, long modified ) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+        try
+        {
+            out.writeInt( SIDECAR_MAGIC );
+            out.writeInt( SIDECAR_VERSION );
+            out.writeLong( length );
+            out.writeLong( modified );
+            out.writeInt( entries.size() );
+            for ( TarEntry entry : entries )
+            {
+                writeString( out, entry.getName() );
+                out.writeByte( entry.getType() );
+                out.writeInt( entry.getMode() );
+                out.writeLong( entry.getSize() );
+                out.writeLong( entry.getTime() );
+                writeString( out, entry.getLinkName() );
+                out.writeLong( entry.getDataOffset() );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Load an index saved by write().
+     *
+     * @param file     The saved index
+     * @param length   The current length of the archive
+     * @param modified The current modification time of the archive
+     * @return The index, or null if there is no saved index or it is for a different version of the archive
+     * @throws IOException If the file cannot be read
+     */
+    public static TarIndex load( java.io.File file, long length, long modified ) throws IOException
+    {
+        if ( !file.exists() )
+        {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != SIDECAR_MAGIC || in.readInt() != SIDECAR_VERSION ||
+                    in.readLong() != length || in.readLong() != modified )
+            {
+                return null;
+            }
+
+            int count = in.readInt();
+            List<TarEntry> entries = new ArrayList<TarEntry>( Math.max( 0, Math.min( count, 1024 ) ) );
+            for ( int i = 0; i < count; i++ )
+            {
+                String name = readString( in );
+                byte type = in.readByte();
+                int mode = in.readInt();
+                long size = in.readLong();
+                long time = in.readLong();
+                String linkName = readString( in );
+                long dataOffset = in.readLong();
+                if ( dataOffset < 0 || dataOffset + size > length )
+                {
+                    return null;
+                }
+
+                entries.add( new TarEntry( name, type, mode, size, time, linkName, dataOffset ) );
+            }
+
+            return new TarIndex( entries );
+        }
+        catch ( EOFException e )
+        {
+            // a truncated index is no use, the archive will just be scanned again
+            return null;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException
+    {
+        byte[] bytes = value.getBytes( TarFormat.UTF8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in ) throws IOException
+    {
+        int length = in.readInt();
+        if ( length < 0 || length > MAX_STRING )
+        {
+            throw new EOFException( "Invalid string in tar index" );
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, TarFormat.UTF8 );
+    }
+}
@@ -16,19 +16,24 @@
 
 package org.headsupdev.support.java.compression;
 
-import com.ice.tar.TarArchive;
-
 import java.io.*;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class UncompressedFile
         extends java.io.File
 {
 
-    private static final int BUFFER = 2048;
-
     public UncompressedFile( String name )
     {
         super( name );
@@ -56,37 +61,78 @@ public class UncompressedFile
 
     public ZipFile zipCompress( boolean delete ) throws IOException
     {
+        return zipCompress( delete, new CompressionOptions() );
+    }
 
-        String dest = this.getAbsolutePath() + ".zip";
+    /**
+     * Zip this file, or the contents of this directory. If the options ask for more than one thread
+     * the files are compressed concurrently on a pool of that size.
+     *
+     * @param delete  True if the files should be deleted after they are added to the archive
+     * @param options The level, strategy, buffer size, parallelism and store threshold to use
+     * @return A ZipFile representing the new archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public ZipFile zipCompress( boolean delete, CompressionOptions options ) throws IOException
+    {
+        UncompressedFile dest = new UncompressedFile( this.getAbsolutePath() + ".zip" );
 
-        ZipOutputStream zout = null;
-        try
-        {
-            zout = new ZipOutputStream( new BufferedOutputStream(
-                    new FileOutputStream( dest ) ) );
+        return zipCompress( new UncompressedFile[]{ this }, delete, dest, options );
+    }
 
-            zipCompress( this, "", delete, zout );
-        }
-        finally
+    public CompletableFuture<ZipFile> zipCompressAsync( boolean delete )
+    {
+        return zipCompressAsync( delete, new CompressionOptions() );
+    }
+
+    /**
+     * Zip this file, or the contents of this directory, without blocking. The archive is written on the
+     * scheduler from the options, and if they ask for more than one thread the files are compressed on
+     * its CPU pool. Files are only deleted once the archive is complete, and a cancelled or failed archive
+     * is removed.
+     *
+     * @param delete  True if the files should be deleted once the archive is complete
+     * @param options The level, strategy, buffer size, parallelism, store threshold and scheduler to use
+     * @return A future for the new archive
+     */
+    public CompletableFuture<ZipFile> zipCompressAsync( final boolean delete, final CompressionOptions options )
+    {
+        final CompressionScheduler scheduler = options.getScheduler();
+        final UncompressedFile dest = new UncompressedFile( this.getAbsolutePath() + ".zip" );
+        final boolean parallel = options.getParallelism() > 1;
+
+        return scheduler.submit( new Callable<ZipFile>()
         {
-            if ( zout != null )
+            public ZipFile call() throws Exception
             {
-                zout.close();
-            }
-        }
+                UncompressedFile[] files = new UncompressedFile[]{ UncompressedFile.this };
+                ZipFile ret;
+                if ( parallel )
+                {
+                    ret = zipCompress( files, false, dest, new ParallelZipCompressor( scheduler.getCpuExecutor(),
+                            options.getParallelism(), options ), options.getBufferSize() );
+                }
+                else
+                {
+                    ret = zipCompress( files, false, dest, options );
+                }
 
-        return new ZipFile( dest );
+                if ( delete )
+                {
+                    deleteAll( UncompressedFile.this );
+                }
+                return ret;
+            }
+        }, !parallel, dest );
     }
 
     private static void zipCompress( java.io.File file, String prefix,
-                                     boolean delete, ZipOutputStream zout ) throws IOException
+                                     boolean delete, ZipArchiveWriter zout ) throws IOException
     {
-        byte data[] = new byte[BUFFER];
-
         if ( file.isDirectory() )
         {
             String thisDir = prefix + file.getName() + separatorChar;
-            zout.putNextEntry( new ZipEntry( thisDir ) );
+            zout.writeEntry( new PrecompressedEntry( thisDir, file.lastModified() ) );
             java.io.File[] files = file.listFiles();
             for ( int i = 0; i < files.length; i++ )
             {
@@ -96,19 +142,9 @@ public class UncompressedFile
         }
         else
         {
-            BufferedInputStream origin = null;
             try
             {
-                origin = new BufferedInputStream(
-                        new FileInputStream( file ), BUFFER );
-
-                ZipEntry entry = new ZipEntry( prefix + file.getName() );
-                zout.putNextEntry( entry );
-                int count;
-                while ( (count = origin.read( data, 0, BUFFER )) != -1 )
-                {
-                    zout.write( data, 0, count );
-                }
+                zout.writeEntry( prefix + file.getName(), file );
             }
             catch ( FileNotFoundException e )
             {
@@ -117,13 +153,6 @@ public class UncompressedFile
                     throw e;
                 }
             }
-            finally
-            {
-                if ( origin != null )
-                {
-                    origin.close();
-                }
-            }
         }
 
         if ( delete )
@@ -142,6 +171,22 @@ public class UncompressedFile
      * @throws IOException If there is a problem reading the files or writing the archive
      */
     public static ZipFile zipCompress( UncompressedFile[] files, boolean delete ) throws IOException
+    {
+        return zipCompress( files, delete, new CompressionOptions() );
+    }
+
+    /**
+     * Create a zip archive of the listed files. It will be created in the same
+     * directory as the first listed file. The file will be called "data.zip".
+     *
+     * @param files   The files to archive
+     * @param delete  True if the files should be deleted after they are added to the archive
+     * @param options The level, strategy, buffer size, parallelism and store threshold to use
+     * @return A ZipFile representing the new archive, or null if there are no files to archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public static ZipFile zipCompress( UncompressedFile[] files, boolean delete, CompressionOptions options )
+            throws IOException
     {
         if ( files == null || files.length == 0 )
         {
@@ -149,22 +194,139 @@ public class UncompressedFile
         }
         UncompressedFile dest = new UncompressedFile( getParentPath( files[0] ), "data.zip" );
 
-        ZipOutputStream zout = null;
+        return zipCompress( files, delete, dest, options );
+    }
+
+    private static ZipFile zipCompress( UncompressedFile[] files, boolean delete, UncompressedFile dest,
+                                        CompressionOptions options ) throws IOException
+    {
+        if ( options.getParallelism() > 1 )
+        {
+            ExecutorService executor = Executors.newFixedThreadPool( options.getParallelism() );
+            try
+            {
+                return zipCompress( files, delete, dest, new ParallelZipCompressor( executor,
+                        options.getParallelism(), options ), options.getBufferSize() );
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+
+        OutputStream out = null;
         try
         {
-            zout = new ZipOutputStream( new BufferedOutputStream(
-                    new FileOutputStream( dest ) ) );
+            out = new BufferedOutputStream( new FileOutputStream( dest ), options.getBufferSize() );
+            ZipArchiveWriter zout = new ZipArchiveWriter( out, options );
 
             for ( int i = 0; i < files.length; i++ )
             {
                 zipCompress( files[i], "", delete, zout );
             }
+            zout.finish();
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                out.close();
+            }
+        }
+
+        return new ZipFile( dest );
+    }
+
+    /**
+     * Create a zip archive of the listed files using several threads. Each file is compressed
+     * independently on a pool of workers and the entries are written in the same order as
+     * zipCompress( files, delete ) would use.
+     *
+     * @param files   The files to archive
+     * @param delete  True if the files should be deleted after the archive is complete
+     * @param threads The number of threads to compress with
+     * @return A ZipFile representing the new archive, or null if there are no files to archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public static ZipFile zipCompress( UncompressedFile[] files, boolean delete, int threads ) throws IOException
+    {
+        if ( files == null || files.length == 0 )
+        {
+            return null;
+        }
+        UncompressedFile dest = new UncompressedFile( getParentPath( files[0] ), "data.zip" );
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            return zipCompress( files, delete, dest, new ParallelZipCompressor( executor, threads ),
+                    CompressionOptions.DEFAULT_BUFFER_SIZE );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Zip this file, or the contents of this directory, using several threads.
+     * Each file is compressed independently on a pool of workers.
+     *
+     * @param delete  True if the files should be deleted after the archive is complete
+     * @param threads The number of threads to compress with
+     * @return A ZipFile representing the new archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public ZipFile zipCompress( boolean delete, int threads ) throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            return zipCompress( delete, executor, threads );
         }
         finally
         {
-            if ( zout != null )
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Zip this file, or the contents of this directory, using several threads.
+     * Each file is compressed independently on the executor passed in.
+     *
+     * @param delete   True if the files should be deleted after the archive is complete
+     * @param executor The executor to run the compression on - it will not be shut down
+     * @return A ZipFile representing the new archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public ZipFile zipCompress( boolean delete, Executor executor ) throws IOException
+    {
+        return zipCompress( delete, executor, Runtime.getRuntime().availableProcessors() );
+    }
+
+    private ZipFile zipCompress( boolean delete, Executor executor, int parallelism ) throws IOException
+    {
+        UncompressedFile dest = new UncompressedFile( this.getAbsolutePath() + ".zip" );
+
+        return zipCompress( new UncompressedFile[]{ this }, delete, dest,
+                new ParallelZipCompressor( executor, parallelism ), CompressionOptions.DEFAULT_BUFFER_SIZE );
+    }
+
+    private static ZipFile zipCompress( UncompressedFile[] files, boolean delete, UncompressedFile dest,
+                                        ParallelZipCompressor compressor, int bufferSize ) throws IOException
+    {
+        OutputStream out = null;
+        try
+        {
+            out = new BufferedOutputStream( new FileOutputStream( dest ), bufferSize );
+
+            compressor.compress( files, delete, out );
+        }
+        finally
+        {
+            if ( out != null )
             {
-                zout.close();
+                out.close();
             }
         }
 
@@ -178,35 +340,184 @@ public class UncompressedFile
 
     public GZipFile gzipCompress( boolean delete ) throws IOException
     {
-        String dest = this.toString() + ".gz";
+        return gzipCompress( delete, new CompressionOptions() );
+    }
 
-        InputStream is = null;
+    /**
+     * Gzip this file. If the options ask for more than one thread the file is split into blocks
+     * that are compressed concurrently on a pool of that size.
+     *
+     * @param delete  True if this file should be deleted once it has been compressed
+     * @param options The level, strategy, buffer size and parallelism to use
+     * @return A GZipFile representing the compressed file
+     * @throws IOException If there is a problem reading this file or writing the compressed file
+     */
+    public GZipFile gzipCompress( boolean delete, CompressionOptions options ) throws IOException
+    {
+        if ( options.getParallelism() == 1 )
+        {
+            return gzipCompress( delete, null, options );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( options.getParallelism() );
         try
         {
-            FileInputStream fileIn = new FileInputStream( this );
+            return gzipCompress( delete, executor, options );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gzip this file on the executor passed in. If the options ask for more than one thread the file is
+     * split into blocks and no more than twice that many are compressed or waiting to be written at once,
+     * otherwise it is compressed on this thread.
+     *
+     * @param delete   True if this file should be deleted once it has been compressed
+     * @param executor The executor to run the compression on - it will not be shut down
+     * @param options  The level, strategy, buffer size and parallelism to use
+     * @return A GZipFile representing the compressed file
+     * @throws IOException If there is a problem reading this file or writing the compressed file
+     */
+    public GZipFile gzipCompress( boolean delete, Executor executor, CompressionOptions options ) throws IOException
+    {
+        if ( options.getParallelism() == 1 )
+        {
+            return gzipCompress( delete, new GZipCompressor( options ), options.getBufferSize(),
+                    options.isMemoryMapped() );
+        }
 
-            is = new BufferedInputStream( fileIn );
+        return gzipCompress( delete, new ParallelGZipCompressor( executor, options ), options.getBufferSize(),
+                false );
+    }
 
-            int count;
-            byte data[] = new byte[BUFFER];
+    public CompletableFuture<GZipFile> gzipCompressAsync( boolean delete )
+    {
+        return gzipCompressAsync( delete, new CompressionOptions() );
+    }
 
-            GZIPOutputStream zout = null;
+    /**
+     * Gzip this file without blocking. It is compressed on the scheduler from the options, with blocks
+     * compressed on its CPU pool if they ask for more than one thread. A cancelled or failed compression
+     * removes the partly written file.
+     *
+     * @param delete  True if this file should be deleted once it has been compressed
+     * @param options The level, strategy, buffer size, parallelism and scheduler to use
+     * @return A future for the compressed file
+     */
+    public CompletableFuture<GZipFile> gzipCompressAsync( final boolean delete, final CompressionOptions options )
+    {
+        final CompressionScheduler scheduler = options.getScheduler();
+        final boolean parallel = options.getParallelism() > 1;
+
+        return scheduler.submit( new Callable<GZipFile>()
+        {
+            public GZipFile call() throws Exception
+            {
+                return gzipCompress( delete, scheduler.getCpuExecutor(), options );
+            }
+        }, !parallel, new java.io.File( this.toString() + ".gz" ) );
+    }
+
+    public static BatchSummary<GZipFile> gzipCompressAll( Collection<? extends java.io.File> files, boolean delete )
+            throws IOException
+    {
+        return gzipCompressAll( files, delete, new CompressionOptions() );
+    }
+
+    /**
+     * Gzip each of a batch of files alongside itself. The files are compressed concurrently on the CPU pool
+     * of the scheduler from the options, each on a single thread, and the largest are started first. No
+     * more than the maximum open files from the options are held open at once. A file that cannot be
+     * compressed does not stop the others; its partly written output is removed and the reason recorded.
+     *
+     * @param files   The files to gzip
+     * @param delete  True if each file should be deleted once it has been compressed
+     * @param options The level, strategy, buffer size, maximum open files and scheduler to use
+     * @return What each file was compressed to, and why any that failed did so
+     * @throws IOException If the batch is interrupted, which cancels the files still being compressed
+     */
+    public static BatchSummary<GZipFile> gzipCompressAll( Collection<? extends java.io.File> files,
+                                                          final boolean delete, CompressionOptions options )
+            throws IOException
+    {
+        final CompressionOptions single = new CompressionOptions( options );
+        single.setParallelism( 1 );
+
+        return new BatchRunner( options.getMaxOpenFiles() ).run( files, new BatchRunner.Operation<GZipFile>()
+        {
+            public CompletableFuture<GZipFile> start( java.io.File file )
+            {
+                return new UncompressedFile( file.getPath() ).gzipCompressAsync( delete, single );
+            }
+        } );
+    }
+
+    /**
+     * Gzip this file using several threads. The file is split into blocks which are compressed
+     * concurrently and joined into a single gzip stream that any gzip tool can read.
+     *
+     * @param delete  True if this file should be deleted once it has been compressed
+     * @param threads The number of threads to compress with
+     * @return A GZipFile representing the compressed file
+     * @throws IOException If there is a problem reading this file or writing the compressed file
+     */
+    public GZipFile gzipCompress( boolean delete, int threads ) throws IOException
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallelism( threads );
+        return gzipCompress( delete, options );
+    }
+
+    /**
+     * Gzip this file using several threads. The file is split into blocks which are compressed
+     * concurrently on the executor passed in and joined into a single gzip stream. As many blocks are
+     * compressed at once as there are processors; pass options to choose another number.
+     *
+     * @param delete   True if this file should be deleted once it has been compressed
+     * @param executor The executor to run the compression on - it will not be shut down
+     * @return A GZipFile representing the compressed file
+     * @throws IOException If there is a problem reading this file or writing the compressed file
+     */
+    public GZipFile gzipCompress( boolean delete, Executor executor ) throws IOException
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallelism( Runtime.getRuntime().availableProcessors() );
+        return gzipCompress( delete, executor, options );
+    }
+
+    private GZipFile gzipCompress( boolean delete, Compressor compressor, int bufferSize, boolean mapped )
+            throws IOException
+    {
+        String dest = this.toString() + ".gz";
+
+        InputStream is = null;
+        try
+        {
+            is = new FileInputStream( this );
+
+            OutputStream out = null;
             try
             {
-                zout = new GZIPOutputStream( new BufferedOutputStream( new FileOutputStream( dest ),
-                        BUFFER ) );
+                out = new BufferedOutputStream( new FileOutputStream( dest ), bufferSize );
 
-                while ( (count = is.read( data, 0, BUFFER )) != -1 )
+                if ( mapped )
+                {
+                    ( (GZipCompressor) compressor ).compressMapped( ( (FileInputStream) is ).getChannel(), out );
+                }
+                else
                 {
-                    zout.write( data, 0, count );
+                    compressor.compress( is, out );
                 }
-                zout.flush();
+                out.flush();
             }
             finally
             {
-                if ( zout != null )
+                if ( out != null )
                 {
-                    zout.close();
+                    out.close();
                 }
             }
 
@@ -236,21 +547,26 @@ public class UncompressedFile
     }
 
     public TarFile tarCompress( boolean delete ) throws IOException
+    {
+        return tarCompress( delete, new CompressionOptions() );
+    }
+
+    /**
+     * Tar this file, or this directory and its contents.
+     *
+     * @param delete  True if the files should be deleted after they are added to the archive
+     * @param options The tar block size to write with
+     * @return A TarFile representing the new archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public TarFile tarCompress( boolean delete, CompressionOptions options ) throws IOException
     {
         String dest = this.toString() + ".tar";
 
-        TarArchive archive = null;
+        TarArchiveWriter archive = null;
         try
         {
-            archive = new TarArchive( new BufferedOutputStream(
-                    new FileOutputStream( dest ) ), BUFFER );
-
-            archive.setDebug( false );
-            archive.setVerbose( false );
-            archive.setKeepOldFiles( false );
-            archive.setAsciiTranslation( false );
-
-            archive.setUserInfo( 0, "", 0, "" );
+            archive = new TarArchiveWriter( new FileOutputStream( dest ).getChannel(), options );
 
             tarCompress( this, "", delete, archive );
         }
@@ -258,20 +574,53 @@ public class UncompressedFile
         {
             if ( archive != null )
             {
-                archive.closeArchive();
+                archive.close();
             }
         }
 
         return new TarFile( dest );
     }
 
+    public CompletableFuture<TarFile> tarCompressAsync( boolean delete )
+    {
+        return tarCompressAsync( delete, new CompressionOptions() );
+    }
+
+    /**
+     * Tar this file, or this directory and its contents, without blocking. The archive is written on
+     * the IO pool of the scheduler from the options. Files are only deleted once the archive is complete,
+     * and a cancelled or failed archive is removed.
+     *
+     * @param delete  True if the files should be deleted once the archive is complete
+     * @param options The tar block size and scheduler to use
+     * @return A future for the new archive
+     */
+    public CompletableFuture<TarFile> tarCompressAsync( final boolean delete, final CompressionOptions options )
+    {
+        return options.getScheduler().submit( new Callable<TarFile>()
+        {
+            public TarFile call() throws Exception
+            {
+                TarFile ret = tarCompress( false, options );
+                if ( delete )
+                {
+                    deleteAll( UncompressedFile.this );
+                }
+                return ret;
+            }
+        }, false, new java.io.File( this.toString() + ".tar" ) );
+    }
+
     private static void tarCompress( java.io.File file, String prefix, boolean delete,
-                                     TarArchive archive ) throws IOException
+                                     TarArchiveWriter archive ) throws IOException
     {
         String entryName = prefix + file.getName();
-        if ( file.isDirectory() )
+        archive.writeEntry( entryName, file );
+
+        // symbolic links are stored as links so never descend into them
+        if ( file.isDirectory() && !Files.isSymbolicLink( file.toPath() ) )
         {
-            entryName += UncompressedFile.separatorChar;
+            entryName += "/";
             java.io.File[] files = file.listFiles();
             for ( int i = 0; i < files.length; i++ )
             {
@@ -279,10 +628,6 @@ public class UncompressedFile
             }
         }
 
-        com.ice.tar.TarEntry entry = new com.ice.tar.TarEntry( file );
-        entry.setName( entryName );
-        archive.writeEntry( entry, false );
-
         if ( delete )
         {
             file.delete();
@@ -299,6 +644,22 @@ public class UncompressedFile
      * @throws IOException If there is a problem reading the files or writing the archive
      */
     public static TarFile tarCompress( UncompressedFile[] files, boolean delete ) throws IOException
+    {
+        return tarCompress( files, delete, new CompressionOptions() );
+    }
+
+    /**
+     * Create a tar archive of the listed files. It will be created in the same
+     * directory as the first listed file. The file will be called "data.tar".
+     *
+     * @param files   The files to archive
+     * @param delete  True if the files should be deleted after they are added to the archive
+     * @param options The tar block size to write with
+     * @return A TarFile representing the new archive, or null if there are no files to archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public static TarFile tarCompress( UncompressedFile[] files, boolean delete, CompressionOptions options )
+            throws IOException
     {
         if ( files == null || files.length == 0 )
         {
@@ -306,18 +667,10 @@ public class UncompressedFile
         }
         UncompressedFile dest = new UncompressedFile( getParentPath( files[0] ), "data.tar" );
 
-        TarArchive archive = null;
+        TarArchiveWriter archive = null;
         try
         {
-            archive = new TarArchive( new BufferedOutputStream(
-                    new FileOutputStream( dest ) ), BUFFER );
-
-            archive.setDebug( false );
-            archive.setVerbose( false );
-            archive.setKeepOldFiles( false );
-            archive.setAsciiTranslation( false );
-
-            archive.setUserInfo( 0, "", 0, "" );
+            archive = new TarArchiveWriter( new FileOutputStream( dest ).getChannel(), options );
 
             for ( int i = 0; i < files.length; i++ )
             {
@@ -328,20 +681,214 @@ public class UncompressedFile
         {
             if ( archive != null )
             {
-                archive.closeArchive();
+                archive.close();
             }
         }
 
         return new TarFile( dest );
     }
 
+    public TarGZipFile tarGzipCompress() throws IOException
+    {
+        return this.tarGzipCompress( false );
+    }
+
+    public TarGZipFile tarGzipCompress( boolean delete ) throws IOException
+    {
+        return tarGzipCompress( delete, new CompressionOptions() );
+    }
+
+    /**
+     * Tar and gzip this file, or this directory and its contents, without writing an intermediate tar file.
+     * The tar writer runs on its own thread and hands its output to the compressor through a bounded queue,
+     * so reading the files and deflating them overlap.
+     *
+     * @param delete  True if the files should be deleted once the archive is complete
+     * @param options The level, strategy, buffer size and parallelism to compress with
+     * @return A TarGZipFile representing the new archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public TarGZipFile tarGzipCompress( boolean delete, CompressionOptions options ) throws IOException
+    {
+        UncompressedFile dest = new UncompressedFile( this.toString() + ".tar.gz" );
+
+        return tarGzipCompress( new UncompressedFile[]{ this }, delete, dest, options );
+    }
+
+    /**
+     * Create a gzipped tar archive of the listed files. It will be created in the same
+     * directory as the first listed file. The file will be called "data.tar.gz".
+     *
+     * @param files  The files to archive
+     * @param delete True if the files should be deleted once the archive is complete
+     * @return A TarGZipFile representing the new archive, or null if there are no files to archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public static TarGZipFile tarGzipCompress( UncompressedFile[] files, boolean delete ) throws IOException
+    {
+        return tarGzipCompress( files, delete, new CompressionOptions() );
+    }
+
+    /**
+     * Create a gzipped tar archive of the listed files. It will be created in the same
+     * directory as the first listed file. The file will be called "data.tar.gz".
+     *
+     * @param files   The files to archive
+     * @param delete  True if the files should be deleted once the archive is complete
+     * @param options The level, strategy, buffer size and parallelism to compress with
+     * @return A TarGZipFile representing the new archive, or null if there are no files to archive
+     * @throws IOException If there is a problem reading the files or writing the archive
+     */
+    public static TarGZipFile tarGzipCompress( UncompressedFile[] files, boolean delete,
+                                               CompressionOptions options ) throws IOException
+    {
+        if ( files == null || files.length == 0 )
+        {
+            return null;
+        }
+        UncompressedFile dest = new UncompressedFile( getParentPath( files[0] ), "data.tar.gz" );
+
+        return tarGzipCompress( files, delete, dest, options );
+    }
+
+    private static TarGZipFile tarGzipCompress( final UncompressedFile[] files, boolean delete,
+                                                UncompressedFile dest, final CompressionOptions options )
+            throws IOException
+    {
+        final CompressionOptions tarOptions = new CompressionOptions( options );
+        CompressionOptions gzipOptions = new CompressionOptions( options );
+        if ( options.getListener() != null )
+        {
+            // so that the archive is not counted twice, tar reports the entries and gzip what it writes
+            tarOptions.setListener( new StageListener( options.getListener(), true ) );
+            gzipOptions.setListener( new StageListener( options.getListener(), false ) );
+        }
+
+        final BufferPipe pipe = new BufferPipe();
+        Callable<Void> writer = new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                try
+                {
+                    TarArchiveWriter archive = new TarArchiveWriter( pipe.getOutputStream(), tarOptions );
+                    for ( int i = 0; i < files.length; i++ )
+                    {
+                        tarCompress( files[i], "", false, archive );
+                    }
+                    archive.close();
+                }
+                catch ( Throwable e )
+                {
+                    pipe.abort( e );
+                    throw e;
+                }
+
+                return null;
+            }
+        };
+
+        ExecutorService tarExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService gzipExecutor = null;
+        InputStream in = pipe.getInputStream();
+        OutputStream out = null;
+        try
+        {
+            Future<Void> written = tarExecutor.submit( writer );
+
+            Compressor compressor;
+            if ( options.getParallelism() == 1 )
+            {
+                compressor = new GZipCompressor( gzipOptions );
+            }
+            else
+            {
+                gzipExecutor = Executors.newFixedThreadPool( options.getParallelism() );
+                compressor = new ParallelGZipCompressor( gzipExecutor, gzipOptions );
+            }
+
+            out = new BufferedOutputStream( new FileOutputStream( dest ), options.getBufferSize() );
+            compressor.compress( in, out );
+            out.flush();
+
+            written.get();
+        }
+        catch ( ExecutionException e )
+        {
+            throw new IOException( e.getCause().getMessage(), e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new InterruptedIOException( e.getMessage() );
+        }
+        finally
+        {
+            // if the compressor failed this lets the tar writer run on to the end rather than block
+            in.close();
+            tarExecutor.shutdownNow();
+            if ( gzipExecutor != null )
+            {
+                gzipExecutor.shutdownNow();
+            }
+
+            if ( out != null )
+            {
+                out.close();
+            }
+        }
+
+        // the files are only removed once the whole archive has been written
+        if ( delete )
+        {
+            for ( int i = 0; i < files.length; i++ )
+            {
+                deleteAll( files[i] );
+            }
+        }
+
+        return new TarGZipFile( dest );
+    }
+
+    private static void deleteAll( java.io.File file )
+    {
+        if ( file.isDirectory() )
+        {
+            java.io.File[] files = file.listFiles();
+            for ( int i = 0; i < files.length; i++ )
+            {
+                deleteAll( files[i] );
+            }
+        }
+
+        file.delete();
+    }
+
     public UncompressedFile moveTo( String dest ) throws IOException
     {
         return moveTo( new UncompressedFile( dest ) );
     }
 
+    /**
+     * Move this file to a new location. A rename is tried first, so moving within a filesystem
+     * is a single atomic operation however large the file is. If that is not possible the file
+     * is copied and then this file deleted.
+     *
+     * @param dest Where to move this file to
+     * @return The file at its new location
+     * @throws IOException If the file could not be renamed, copied or deleted
+     */
     public UncompressedFile moveTo( UncompressedFile dest ) throws IOException
     {
+        try
+        {
+            Files.move( toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            return new UncompressedFile( dest );
+        }
+        catch ( IOException e )
+        {
+            // most likely a different filesystem, fall back to copying
+        }
+
         UncompressedFile ret = copyTo( dest );
         this.delete();
         return ret;
@@ -352,6 +899,14 @@ public class UncompressedFile
         return copyTo( new UncompressedFile( dest ) );
     }
 
+    /**
+     * Copy this file, or directory, to a new location. The data is transferred by the operating
+     * system between the files where possible rather than being read into memory.
+     *
+     * @param dest Where to copy this file to
+     * @return The new copy
+     * @throws IOException If there is a problem reading this file or writing the copy
+     */
     public UncompressedFile copyTo( UncompressedFile dest ) throws IOException
     {
 
@@ -360,24 +915,34 @@ public class UncompressedFile
             return copyDirTo( dest );
         }
 
-        BufferedInputStream is = null;
+        FileChannel in = null;
         try
         {
-            is = new BufferedInputStream( new FileInputStream( this ) );
-
-            int count;
-            byte data[] = new byte[BUFFER];
+            in = new FileInputStream( this ).getChannel();
 
-            BufferedOutputStream out = null;
+            FileChannel out = null;
             try
             {
-                out = new BufferedOutputStream( new FileOutputStream( dest ), BUFFER );
-                while ( (count = is.read( data, 0, BUFFER )) != -1 )
+                out = new FileOutputStream( dest ).getChannel();
+
+                long size = in.size();
+                long position = 0;
+                while ( position < size )
                 {
-                    out.write( data, 0, count );
+                    long count = in.transferTo( position, size - position, out );
+                    if ( count <= 0 )
+                    {
+                        break;
+                    }
+                    position += count;
                 }
 
-                out.flush();
+                // pipes and files like those in /proc report a size that is wrong or 0, so read what is left
+                if ( position > 0 )
+                {
+                    in.position( position );
+                }
+                copyRemaining( in, out );
             }
             finally
             {
@@ -393,15 +958,37 @@ public class UncompressedFile
         }
         finally
         {
-            if ( is != null )
+            if ( in != null )
             {
-                is.close();
+                in.close();
             }
         }
 
         return new UncompressedFile( dest );
     }
 
+    private static void copyRemaining( FileChannel in, FileChannel out ) throws IOException
+    {
+        byte[] data = BufferPool.getDefault().borrow( CompressionOptions.DEFAULT_BUFFER_SIZE );
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( data );
+            while ( in.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                while ( buffer.hasRemaining() )
+                {
+                    out.write( buffer );
+                }
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            BufferPool.getDefault().release( data );
+        }
+    }
+
     public UncompressedFile copyDirTo( UncompressedFile dest ) throws IOException
     {
         dest.mkdir();
@@ -428,6 +1015,20 @@ public class UncompressedFile
         return new UncompressedFile( dest );
     }
 
+    /**
+     * Copy the contents of this directory using several threads. Subdirectories are walked and
+     * files copied concurrently, which helps most for trees of many small files.
+     *
+     * @param dest        The directory to copy into
+     * @param parallelism The maximum number of files to copy at once
+     * @return A summary of the files and bytes copied
+     * @throws IOException If there is a problem reading the directory or writing the copies
+     */
+    public CopySummary copyDirTo( UncompressedFile dest, int parallelism ) throws IOException
+    {
+        return new ParallelDirectoryCopy( parallelism ).copy( this, dest );
+    }
+
     private static String getParentPath( UncompressedFile file )
     {
         if ( file.getParentFile() != null )
@@ -437,4 +1038,51 @@ public class UncompressedFile
 
         return (new UncompressedFile( "" )).getAbsolutePath();
     }
+
+    /**
+     * Passes on half of what one stage of a tar.gz pipeline reports: the entries and bytes read by the tar
+     * writer, or the compressed bytes written by gzip.
+     */
+    private static class StageListener
+            implements CompressionListener
+    {
+        private final CompressionListener listener;
+
+        private final boolean entries;
+
+        StageListener( CompressionListener listener, boolean entries )
+        {
+            this.listener = listener;
+            this.entries = entries;
+        }
+
+        public void entryStarted( String name )
+        {
+            if ( entries )
+            {
+                listener.entryStarted( name );
+            }
+        }
+
+        public void bytesProcessed( long bytesIn, long bytesOut )
+        {
+            if ( entries )
+            {
+                listener.bytesProcessed( bytesIn, 0 );
+            }
+            else
+            {
+                listener.bytesProcessed( 0, bytesOut );
+            }
+        }
+
+        public void entryFinished( String name, long bytesIn, long bytesOut, long readNanos, long codecNanos,
+                                   long writeNanos )
+        {
+            if ( entries )
+            {
+                listener.entryFinished( name, bytesIn, bytesOut, readNanos, codecNanos, writeNanos );
+            }
+        }
+    }
 }
@@ -0,0 +1,659 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip writer. For entries that have already been compressed the CRC and sizes are
+ * known up front so they go straight into the local header. Entries deflated as they are
+ * written are followed by a data descriptor instead.
+ * <p>
+ * Sizes and offsets that do not fit their 32 bit fields go in ZIP64 extra fields, and an archive with
+ * too many entries or too large a central directory for the end record gets a ZIP64 one as well.
+ */
+class ZipArchiveWriter
+{
+    static final int LOCAL_HEADER = 0x04034b50;
+
+    static final int CENTRAL_HEADER = 0x02014b50;
+
+    static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+
+    static final int ZIP64_LOCATOR = 0x07064b50;
+
+    static final int ZIP64_EXTRA = 0x0001;
+
+    /**
+     * Written in place of a size or offset too large for its field, the value then being in a ZIP64 record
+     */
+    static final long ZIP64_MAGIC = 0xffffffffL;
+
+    /**
+     * Written in place of an entry count too large for its field
+     */
+    static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+    static final int UTF8_FLAG = 0x800;
+
+    static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final int VERSION = 20;
+
+    private static final int ZIP64_VERSION = 45;
+
+    private final OutputStream out;
+
+    private final CompressionOptions options;
+
+    private final List<CentralRecord> records = new ArrayList<CentralRecord>();
+
+    private long offset;
+
+    private final EntryTimer timer;
+
+    public ZipArchiveWriter( OutputStream out )
+    {
+        this( out, new CompressionOptions() );
+    }
+
+    /**
+     * @param out     Where to write the archive
+     * @param options The level, strategy, buffer size and store threshold to use for entries
+     *                that are compressed by this writer
+     */
+    public ZipArchiveWriter( OutputStream out, CompressionOptions options )
+    {
+        this( out, options, 0 );
+    }
+
+    /**
+     * Create a writer that adds to an existing archive. The entries already there are listed with
+     * addExistingEntry() so that finish() includes them in the new central directory.
+     *
+     * @param out     Where to write the new entries
+     * @param options The options for entries that are compressed by this writer
+     * @param offset  The position of out in the archive, usually where the old central directory started
+     */
+    public ZipArchiveWriter( OutputStream out, CompressionOptions options, long offset )
+    {
+        this.out = out;
+        this.options = options;
+        this.offset = offset;
+        this.timer = EntryTimer.create( options );
+    }
+
+    /**
+     * List an entry that is already in the archive before the position this writer started at.
+     */
+    public void addExistingEntry( ZipIndexEntry entry ) throws IOException
+    {
+        CentralRecord record = createRecord( entry.getName(), entry.getDosTime(), entry.getMethod(),
+                entry.getFlags() );
+        record.crc = entry.getCrc();
+        record.size = entry.getSize();
+        record.compressedSize = entry.getCompressedSize();
+        record.offset = entry.getLocalHeaderOffset();
+        records.add( record );
+    }
+
+    /**
+     * Copy an entry from another archive without inflating and deflating it again. A new local header
+     * is written, so the entry can be given a new modification time.
+     *
+     * @param entry  The entry to copy
+     * @param time   The modification time of the new entry
+     * @param source The archive the entry is in
+     * @throws IOException If there is a problem reading the entry or writing it
+     */
+    public void writeEntry( ZipIndexEntry entry, long time, FileChannel source ) throws IOException
+    {
+        CentralRecord record = createRecord( entry.getName(), toDosTime( time ), entry.getMethod(), UTF8_FLAG );
+        record.crc = entry.getCrc();
+        record.size = entry.getSize();
+        record.compressedSize = entry.getCompressedSize();
+
+        InputStream in = new ChannelRangeInputStream( source, ZipIndex.getDataOffset( source, entry ),
+                entry.getCompressedSize(), false );
+        writeLocalHeader( record );
+        if ( timer != null )
+        {
+            timer.start( entry.getName() );
+        }
+
+        byte[] data = BufferPool.getDefault().borrow( options.getBufferSize() );
+        try
+        {
+            if ( Streams.copy( in, out, data ) != record.compressedSize )
+            {
+                throw new ZipException( "Unexpected end of archive reading " + entry.getName() );
+            }
+        }
+        finally
+        {
+            BufferPool.getDefault().release( data );
+        }
+        finishCopy( record );
+
+        offset += record.compressedSize;
+        records.add( record );
+    }
+
+    /**
+     * Report an entry whose compressed data was copied as it was. The entry is counted as its uncompressed
+     * size in, so that the ratio is the same as if it had been deflated, and the copy as reading.
+     */
+    private void finishCopy( CentralRecord record )
+    {
+        if ( timer != null )
+        {
+            timer.read( record.size );
+            timer.wrote( record.compressedSize );
+            timer.finish();
+        }
+    }
+
+    public void writeEntry( PrecompressedEntry entry ) throws IOException
+    {
+        CentralRecord record = createRecord( entry.getName(), toDosTime( entry.getTime() ), entry.getMethod(),
+                UTF8_FLAG );
+        record.crc = entry.getCrc();
+        record.size = entry.getSize();
+        record.compressedSize = entry.getCompressedSize();
+
+        writeLocalHeader( record );
+        entry.writeDataTo( out );
+
+        offset += record.compressedSize;
+        records.add( record );
+    }
+
+    /**
+     * Add a file to the archive. Files smaller than the store threshold, or that will not compress
+     * if the options are adaptive, are stored. That means reading them twice as the CRC has to go in
+     * the header. Anything else is deflated, or copied from the compression cache if the options have one.
+     *
+     * @param name The name of the entry
+     * @param file The file to add
+     * @throws IOException If there is a problem reading the file or writing the entry.
+     *                     A FileNotFoundException is thrown before anything is written.
+     */
+    public void writeEntry( String name, java.io.File file ) throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            if ( StorePolicy.shouldStore( file, options ) )
+            {
+                CRC32 crc = new CRC32();
+                long size = checksum( in, crc );
+                in.close();
+
+                in = new FileInputStream( file );
+                writeStoredEntry( name, file.lastModified(), crc.getValue(), size, in );
+            }
+            else if ( options.getCache() != null )
+            {
+                writeCachedEntry( name, file, in );
+            }
+            else
+            {
+                writeDeflatedEntry( name, file.lastModified(), in, file.length(), null );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void writeCachedEntry( String name, java.io.File file, InputStream in ) throws IOException
+    {
+        CompressionCache cache = options.getCache();
+        CompressionCache.CachedData cached = cache.get( file, options );
+        if ( cached != null )
+        {
+            PrecompressedEntry entry = new PrecompressedEntry( name, file.lastModified() );
+            entry.setData( cached );
+            if ( timer != null )
+            {
+                timer.start( name );
+            }
+            try
+            {
+                writeEntry( entry );
+            }
+            finally
+            {
+                entry.dispose();
+            }
+            finishCopy( records.get( records.size() - 1 ) );
+            return;
+        }
+
+        writeDeflatedEntry( name, file.lastModified(), in, file.length(), file );
+    }
+
+    /**
+     * Copy the content of a stream into a new entry without compressing it.
+     *
+     * @param name The name of the entry
+     * @param time The modification time of the entry
+     * @param crc  The CRC32 of the content
+     * @param size The length of the content
+     * @param in   The content of the entry, which is read until exhausted but not closed
+     * @throws IOException If there is a problem reading the content, or it does not match the CRC and size
+     */
+    public void writeStoredEntry( String name, long time, long crc, long size, InputStream in ) throws IOException
+    {
+        CentralRecord record = createRecord( name, toDosTime( time ), ZipEntry.STORED, UTF8_FLAG );
+        record.crc = crc;
+        record.size = size;
+        record.compressedSize = size;
+        writeLocalHeader( record );
+        if ( timer != null )
+        {
+            timer.start( name );
+        }
+
+        byte[] data = BufferPool.getDefault().borrow( options.getBufferSize() );
+        try
+        {
+            CRC32 check = new CRC32();
+            long count = 0;
+            int read;
+            while ( count < size &&
+                    ( read = in.read( data, 0, (int) Math.min( data.length, size - count ) ) ) != -1 )
+            {
+                Streams.checkInterrupted();
+                if ( timer != null )
+                {
+                    timer.read( read );
+                }
+                check.update( data, 0, read );
+                out.write( data, 0, read );
+                if ( timer != null )
+                {
+                    timer.wrote( read );
+                }
+                count += read;
+            }
+
+            // the header has gone, so if the content changed underneath us the archive is broken
+            if ( count != size || check.getValue() != crc )
+            {
+                throw new ZipException( "Content of " + name + " changed while it was being stored" );
+            }
+        }
+        finally
+        {
+            BufferPool.getDefault().release( data );
+        }
+
+        if ( timer != null )
+        {
+            timer.finish();
+        }
+
+        offset += size;
+        records.add( record );
+    }
+
+    /**
+     * Deflate the content of a stream into a new entry. The CRC and sizes are written after the
+     * data in a data descriptor. The deflater and buffers are borrowed from the default pools.
+     * A file stream is memory mapped rather than read if the options ask for that.
+     *
+     * @param name The name of the entry
+     * @param time The modification time of the entry
+     * @param in   The content of the entry, which is read until exhausted but not closed
+     * @throws IOException If there is a problem reading the content or writing the entry
+     */
+    public void writeEntry( String name, long time, InputStream in ) throws IOException
+    {
+        writeDeflatedEntry( name, time, in, -1, null );
+    }
+
+    /**
+     * @param length The length of the content if it is known, or -1. If it is too large for the local header
+     *               the sizes are left for a ZIP64 data descriptor.
+     * @param source The file being read, to keep a copy of its deflated content in the compression cache,
+     *               or null if the entry is not to be cached
+     */
+    private void writeDeflatedEntry( String name, long time, InputStream in, long length, java.io.File source )
+            throws IOException
+    {
+        CentralRecord record = createRecord( name, toDosTime( time ), ZipEntry.DEFLATED,
+                UTF8_FLAG | DATA_DESCRIPTOR_FLAG );
+        record.zip64 = length >= ZIP64_MAGIC;
+        writeLocalHeader( record );
+
+        CountingOutputStream counter = new CountingOutputStream( out );
+        CompressionCache.Writer cache = null;
+        if ( source != null )
+        {
+            cache = options.getCache().put( source, options, counter );
+        }
+        Deflater deflater = DeflaterPool.getDefault().borrow( options.getLevel(), options.getStrategy(), true );
+        byte[] input = null;
+        byte[] output = BufferPool.getDefault().borrow( options.getBufferSize() );
+        if ( timer != null )
+        {
+            timer.start( name );
+        }
+        try
+        {
+            CRC32 crc = new CRC32();
+            OutputStream target = cache == null ? counter : cache;
+            if ( options.isMemoryMapped() && in instanceof FileInputStream )
+            {
+                record.size = Streams.deflate( ( (FileInputStream) in ).getChannel(), target, deflater, output, crc,
+                        timer );
+            }
+            else
+            {
+                input = BufferPool.getDefault().borrow( options.getBufferSize() );
+                record.size = Streams.deflate( in, target, deflater, input, output, crc, timer );
+            }
+            record.crc = crc.getValue();
+            record.compressedSize = counter.count;
+            if ( cache != null )
+            {
+                cache.commit( record.crc, record.size );
+                cache = null;
+            }
+        }
+        finally
+        {
+            if ( cache != null )
+            {
+                cache.abort();
+            }
+            DeflaterPool.getDefault().release( deflater );
+            BufferPool.getDefault().release( input );
+            BufferPool.getDefault().release( output );
+        }
+
+        // the sizes are eight bytes if the local header said they would be, or if they have to be
+        boolean zip64 = record.zip64 || record.compressedSize >= ZIP64_MAGIC || record.size >= ZIP64_MAGIC;
+        ByteBuffer descriptor = ByteBuffer.allocate( zip64 ? 24 : 16 ).order( ByteOrder.LITTLE_ENDIAN );
+        descriptor.putInt( DATA_DESCRIPTOR );
+        descriptor.putInt( (int) record.crc );
+        if ( zip64 )
+        {
+            descriptor.putLong( record.compressedSize );
+            descriptor.putLong( record.size );
+        }
+        else
+        {
+            descriptor.putInt( (int) record.compressedSize );
+            descriptor.putInt( (int) record.size );
+        }
+        out.write( descriptor.array() );
+        if ( timer != null )
+        {
+            timer.finish();
+        }
+
+        offset += record.compressedSize + descriptor.capacity();
+        records.add( record );
+    }
+
+    static long checksum( InputStream in, CRC32 crc ) throws IOException
+    {
+        byte[] data = BufferPool.getDefault().borrow( CompressionOptions.DEFAULT_BUFFER_SIZE );
+        try
+        {
+            long size = 0;
+            int count;
+            while ( ( count = in.read( data, 0, data.length ) ) != -1 )
+            {
+                crc.update( data, 0, count );
+                size += count;
+            }
+
+            return size;
+        }
+        finally
+        {
+            BufferPool.getDefault().release( data );
+        }
+    }
+
+    private CentralRecord createRecord( String name, long dosTime, int method, int flags )
+    {
+        CentralRecord record = new CentralRecord();
+        record.name = name.getBytes( UTF8 );
+        record.method = method;
+        record.flags = flags;
+        record.dosTime = dosTime;
+        record.offset = offset;
+        return record;
+    }
+
+    private void writeLocalHeader( CentralRecord record ) throws IOException
+    {
+        // with a data descriptor the CRC and sizes are left as zero here, and a ZIP64 extra field only
+        // says that the data descriptor will have eight byte sizes
+        record.zip64 |= record.compressedSize >= ZIP64_MAGIC || record.size >= ZIP64_MAGIC;
+        int extraLength = record.zip64 ? 20 : 0;
+        ByteBuffer header = ByteBuffer.allocate( 30 + record.name.length + extraLength )
+                .order( ByteOrder.LITTLE_ENDIAN );
+        header.putInt( LOCAL_HEADER );
+        header.putShort( (short) ( record.zip64 ? ZIP64_VERSION : VERSION ) );
+        header.putShort( (short) record.flags );
+        header.putShort( (short) record.method );
+        header.putInt( (int) record.dosTime );
+        header.putInt( (int) record.crc );
+        header.putInt( (int) ( record.zip64 ? ZIP64_MAGIC : record.compressedSize ) );
+        header.putInt( (int) ( record.zip64 ? ZIP64_MAGIC : record.size ) );
+        header.putShort( (short) record.name.length );
+        header.putShort( (short) extraLength );
+        header.put( record.name );
+        if ( record.zip64 )
+        {
+            header.putShort( (short) ZIP64_EXTRA );
+            header.putShort( (short) 16 );
+            header.putLong( record.size );
+            header.putLong( record.compressedSize );
+        }
+
+        out.write( header.array() );
+        offset += header.capacity();
+    }
+
+    /**
+     * Write the central directory, completing the archive. The underlying stream is not closed.
+     *
+     * @throws IOException If there is a problem writing the central directory
+     */
+    public void finish() throws IOException
+    {
+        long start = offset;
+        for ( CentralRecord record : records )
+        {
+            // only the values too large for their fields go in the ZIP64 extra field, in this order
+            int zip64Length = ( record.size >= ZIP64_MAGIC ? 8 : 0 ) +
+                    ( record.compressedSize >= ZIP64_MAGIC ? 8 : 0 ) + ( record.offset >= ZIP64_MAGIC ? 8 : 0 );
+            int extraLength = zip64Length > 0 ? 4 + zip64Length : 0;
+            int version = record.zip64 || zip64Length > 0 ? ZIP64_VERSION : VERSION;
+
+            ByteBuffer header = ByteBuffer.allocate( 46 + record.name.length + extraLength )
+                    .order( ByteOrder.LITTLE_ENDIAN );
+            header.putInt( CENTRAL_HEADER );
+            header.putShort( (short) version );
+            header.putShort( (short) version );
+            header.putShort( (short) record.flags );
+            header.putShort( (short) record.method );
+            header.putInt( (int) record.dosTime );
+            header.putInt( (int) record.crc );
+            header.putInt( (int) Math.min( record.compressedSize, ZIP64_MAGIC ) );
+            header.putInt( (int) Math.min( record.size, ZIP64_MAGIC ) );
+            header.putShort( (short) record.name.length );
+            header.putShort( (short) extraLength );
+            header.putShort( (short) 0 );
+            header.putShort( (short) 0 );
+            header.putShort( (short) 0 );
+            header.putInt( 0 );
+            header.putInt( (int) Math.min( record.offset, ZIP64_MAGIC ) );
+            header.put( record.name );
+            if ( zip64Length > 0 )
+            {
+                header.putShort( (short) ZIP64_EXTRA );
+                header.putShort( (short) zip64Length );
+                if ( record.size >= ZIP64_MAGIC )
+                {
+                    header.putLong( record.size );
+                }
+                if ( record.compressedSize >= ZIP64_MAGIC )
+                {
+                    header.putLong( record.compressedSize );
+                }
+                if ( record.offset >= ZIP64_MAGIC )
+                {
+                    header.putLong( record.offset );
+                }
+            }
+
+            out.write( header.array() );
+            offset += header.capacity();
+        }
+
+        long directorySize = offset - start;
+        if ( records.size() >= ZIP64_MAGIC_COUNT || directorySize >= ZIP64_MAGIC || start >= ZIP64_MAGIC )
+        {
+            // the ZIP64 end of central directory record, followed by the locator that points back to it
+            ByteBuffer zip64 = ByteBuffer.allocate( 76 ).order( ByteOrder.LITTLE_ENDIAN );
+            zip64.putInt( ZIP64_END_OF_CENTRAL_DIRECTORY );
+            zip64.putLong( 44 );
+            zip64.putShort( (short) ZIP64_VERSION );
+            zip64.putShort( (short) ZIP64_VERSION );
+            zip64.putInt( 0 );
+            zip64.putInt( 0 );
+            zip64.putLong( records.size() );
+            zip64.putLong( records.size() );
+            zip64.putLong( directorySize );
+            zip64.putLong( start );
+
+            zip64.putInt( ZIP64_LOCATOR );
+            zip64.putInt( 0 );
+            zip64.putLong( offset );
+            zip64.putInt( 1 );
+
+            out.write( zip64.array() );
+            offset += zip64.capacity();
+        }
+
+        ByteBuffer end = ByteBuffer.allocate( 22 ).order( ByteOrder.LITTLE_ENDIAN );
+        end.putInt( END_OF_CENTRAL_DIRECTORY );
+        end.putShort( (short) 0 );
+        end.putShort( (short) 0 );
+        end.putShort( (short) Math.min( records.size(), ZIP64_MAGIC_COUNT ) );
+        end.putShort( (short) Math.min( records.size(), ZIP64_MAGIC_COUNT ) );
+        end.putInt( (int) Math.min( directorySize, ZIP64_MAGIC ) );
+        end.putInt( (int) Math.min( start, ZIP64_MAGIC ) );
+        end.putShort( (short) 0 );
+
+        out.write( end.array() );
+        out.flush();
+    }
+
+    static long toDosTime( long time )
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis( time );
+
+        int year = calendar.get( Calendar.YEAR );
+        if ( year < 1980 )
+        {
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+
+        return (long) ( year - 1980 ) << 25 | ( calendar.get( Calendar.MONTH ) + 1 ) << 21 |
+                calendar.get( Calendar.DAY_OF_MONTH ) << 16 | calendar.get( Calendar.HOUR_OF_DAY ) << 11 |
+                calendar.get( Calendar.MINUTE ) << 5 | calendar.get( Calendar.SECOND ) >> 1;
+    }
+
+    static long fromDosTime( long dosTime )
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set( (int) ( ( dosTime >> 25 ) & 0x7f ) + 1980, (int) ( ( dosTime >> 21 ) & 0x0f ) - 1,
+                (int) ( ( dosTime >> 16 ) & 0x1f ), (int) ( ( dosTime >> 11 ) & 0x1f ),
+                (int) ( ( dosTime >> 5 ) & 0x3f ), (int) ( ( dosTime << 1 ) & 0x3e ) );
+
+        return calendar.getTimeInMillis();
+    }
+
+    private static class CentralRecord
+    {
+        byte[] name;
+        int method;
+        int flags;
+        long dosTime;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+        // the local header has a ZIP64 extra field
+        boolean zip64;
+    }
+
+    private static class CountingOutputStream
+            extends FilterOutputStream
+    {
+        long count;
+
+        CountingOutputStream( OutputStream out )
+        {
+            super( out );
+        }
+
+        public void write( int b ) throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        public void write( byte[] data, int off, int len ) throws IOException
+        {
+            out.write( data, off, len );
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses a stream into a zip archive containing a single entry.
+ */
+public class ZipCompressor
+        extends AbstractCompressor
+{
+    private final String entryName;
+
+    private final CompressionOptions options;
+
+    /**
+     * @param entryName The name to give the entry in the archive
+     */
+    public ZipCompressor( String entryName )
+    {
+        this( entryName, new CompressionOptions() );
+    }
+
+    /**
+     * @param entryName The name to give the entry in the archive
+     * @param options   The level, strategy and buffer size to compress with
+     */
+    public ZipCompressor( String entryName, CompressionOptions options )
+    {
+        this.entryName = entryName;
+        this.options = options;
+    }
+
+    public void compress( InputStream in, OutputStream out ) throws IOException
+    {
+        ZipArchiveWriter zout = new ZipArchiveWriter( out, options );
+        zout.writeEntry( entryName, System.currentTimeMillis(), in );
+        zout.finish();
+    }
+}
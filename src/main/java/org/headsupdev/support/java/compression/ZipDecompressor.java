@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads a zip archive from a stream. An archive can be expanded into a directory or a single
+ * entry can be decompressed to another stream.
+ */
+public class ZipDecompressor
+        extends AbstractDecompressor
+{
+    private final String entryName;
+
+    private final CompressionOptions options;
+
+    /**
+     * Create a decompressor that writes out the first file in the archive.
+     */
+    public ZipDecompressor()
+    {
+        this( null );
+    }
+
+    /**
+     * @param entryName The name of the entry to write out when decompressing to a stream
+     */
+    public ZipDecompressor( String entryName )
+    {
+        this( entryName, new CompressionOptions() );
+    }
+
+    /**
+     * @param entryName The name of the entry to write out when decompressing to a stream, or null for the first
+     * @param options   The buffer size to decompress with
+     */
+    public ZipDecompressor( String entryName, CompressionOptions options )
+    {
+        this.entryName = entryName;
+        this.options = options;
+    }
+
+    public void decompress( InputStream in, OutputStream out ) throws IOException
+    {
+        ZipInputStream zin = new ZipInputStream( Streams.nonClosing( in ) );
+        try
+        {
+            ZipEntry entry;
+            while ( (entry = zin.getNextEntry()) != null )
+            {
+                if ( !entry.isDirectory() && ( entryName == null || entryName.equals( entry.getName() ) ) )
+                {
+                    byte[] data = BufferPool.getDefault().borrow( options.getBufferSize() );
+                    try
+                    {
+                        Streams.copy( zin, out, data );
+                    }
+                    finally
+                    {
+                        BufferPool.getDefault().release( data );
+                    }
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            zin.close();
+        }
+
+        throw new FileNotFoundException( "No entry " + ( entryName == null ? "" : entryName + " " ) +
+                "found in zip stream" );
+    }
+
+    /**
+     * Expand every entry in the archive into the directory passed in.
+     *
+     * @param in   The zip archive
+     * @param dest The directory to expand into, which must exist
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public void expand( InputStream in, java.io.File dest ) throws IOException
+    {
+        byte data[] = BufferPool.getDefault().borrow( options.getBufferSize() );
+        ZipInputStream zin = new ZipInputStream( Streams.nonClosing( in ) );
+        try
+        {
+            ZipEntry entry;
+            while ( (entry = zin.getNextEntry()) != null )
+            {
+                UncompressedFile output = new UncompressedFile( dest, entry.getName() );
+
+                if ( entry.isDirectory() )
+                {
+                    output.mkdir();
+                }
+                else
+                {
+                    BufferedOutputStream out = null;
+                    try
+                    {
+                        out = new BufferedOutputStream(
+                                new FileOutputStream( output ), options.getBufferSize() );
+
+                        Streams.copy( zin, out, data );
+                    }
+                    finally
+                    {
+                        if ( out != null )
+                        {
+                            out.close();
+                        }
+                    }
+                }
+
+                zin.closeEntry();
+            }
+        }
+        finally
+        {
+            zin.close();
+            BufferPool.getDefault().release( data );
+        }
+    }
+}
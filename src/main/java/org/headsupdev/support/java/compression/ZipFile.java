@@ -17,14 +17,36 @@
 package org.headsupdev.support.java.compression;
 
 import java.io.*;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipEntry;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
 
 public class ZipFile
         extends UncompressedFile
 {
 
-    final int BUFFER = 2048;
+    private ZipIndex index;
+
+    private long indexedLength = -1;
+
+    private long indexedModified;
 
     public ZipFile( String name )
     {
@@ -48,73 +70,718 @@ public class ZipFile
 
     public UncompressedFile expand() throws IOException
     {
-        byte data[] = new byte[BUFFER];
-        String destFile = getAbsolutePath();
-        if ( destFile.endsWith( ".zip" ) )
+        return expand( new CompressionOptions() );
+    }
+
+    /**
+     * Expand this archive into a directory alongside it, named without the .zip extension.
+     * If the options ask for more than one thread the entries are extracted concurrently.
+     * Entries are inflated through direct buffers, or between memory mappings of the archive and
+     * the extracted files if the options ask for that.
+     *
+     * @param options The buffer size, parallelism, memory mapping and listener to expand with
+     * @return The directory the archive was expanded into
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public UncompressedFile expand( CompressionOptions options ) throws IOException
+    {
+        if ( options.getParallelism() > 1 )
         {
-            destFile = destFile.substring( 0, destFile.length() - 4 );
+            ExecutorService executor = Executors.newFixedThreadPool( options.getParallelism() );
+            try
+            {
+                return expand( executor, options );
+            }
+            finally
+            {
+                executor.shutdown();
+            }
         }
-        else
+
+        try
         {
-            destFile = destFile + "_contents";
+            // extract from the index on this thread so the entries share pooled inflaters and buffers
+            return expand( null, options );
+        }
+        catch ( IOException e )
+        {
+            throw new IOException( e.getMessage() );
         }
+    }
+
+    public CompletableFuture<UncompressedFile> expandAsync()
+    {
+        return expandAsync( new CompressionOptions() );
+    }
+
+    /**
+     * Expand this archive into a directory alongside it without blocking. It runs on the IO pool of the
+     * scheduler from the options, with the entries extracted on its CPU pool if they ask for more than
+     * one thread. If it is cancelled or fails the directory is removed, unless it was already there.
+     *
+     * @param options The buffer size, parallelism, memory mapping, listener and scheduler to expand with
+     * @return A future for the directory the archive was expanded into
+     */
+    public CompletableFuture<UncompressedFile> expandAsync( final CompressionOptions options )
+    {
+        final CompressionScheduler scheduler = options.getScheduler();
 
+        return scheduler.submit( new Callable<UncompressedFile>()
+        {
+            public UncompressedFile call() throws Exception
+            {
+                if ( options.getParallelism() > 1 )
+                {
+                    return expand( scheduler.getCpuExecutor(), options );
+                }
+
+                return expand( null, options );
+            }
+        }, false, new java.io.File( getExpandPath() ) );
+    }
+
+    /**
+     * Expand this archive using several threads. The directories are created first and then
+     * the entries are extracted concurrently, each reading its own part of the archive.
+     *
+     * @param threads The number of threads to extract with
+     * @return The directory the archive was expanded into
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public UncompressedFile expand( int threads ) throws IOException
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallelism( threads );
+        return expand( options );
+    }
+
+    /**
+     * Expand this archive on the executor passed in. The directories are created first and then
+     * the entries are extracted concurrently, each reading its own part of the archive.
+     *
+     * @param executor The executor to run the extraction on - it will not be shut down
+     * @return The directory the archive was expanded into
+     * @throws IOException If there is a problem reading the archive or writing the files
+     */
+    public UncompressedFile expand( Executor executor ) throws IOException
+    {
+        return expand( executor, new CompressionOptions() );
+    }
+
+    /**
+     * @param executor Where to extract the entries, or null to extract them in turn on this thread, stopping
+     *                 at the first that fails
+     */
+    private UncompressedFile expand( Executor executor, CompressionOptions options ) throws IOException
+    {
+        String destFile = getExpandPath();
         UncompressedFile ret = new UncompressedFile( destFile );
-        ZipInputStream zin = null;
+        ret.mkdir();
+
+        String root = ret.getCanonicalPath() + java.io.File.separator;
+        List<ZipIndexEntry> files = new ArrayList<ZipIndexEntry>();
+        List<UncompressedFile> outputs = new ArrayList<UncompressedFile>();
+        for ( ZipIndexEntry entry : getEntries() )
+        {
+            // where a name is in the archive twice only the copy that readers would use is written
+            if ( getEntry( entry.getName() ) != entry )
+            {
+                continue;
+            }
+
+            UncompressedFile output = getOutput( destFile, root, entry );
+            if ( entry.isDirectory() )
+            {
+                output.mkdirs();
+            }
+            else
+            {
+                output.getParentFile().mkdirs();
+                files.add( entry );
+                outputs.add( output );
+            }
+        }
+
+        FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+        List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>( files.size() );
         try
         {
-            ret.mkdir();
-            zin = new ZipInputStream( new FileInputStream( this ) );
+            for ( int i = 0; i < files.size(); i++ )
+            {
+                if ( executor == null )
+                {
+                    extractEntry( channel, files.get( i ), outputs.get( i ), options );
+                    continue;
+                }
+
+                FutureTask<Object> task = new FutureTask<Object>( new EntryExtractor( channel, files.get( i ),
+                        outputs.get( i ), options ) );
+                executor.execute( task );
+                tasks.add( task );
+            }
+
+            for ( FutureTask<Object> task : tasks )
+            {
+                task.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            throw new InterruptedIOException( e.getMessage() );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( e.getCause().getMessage() );
+        }
+        finally
+        {
+            // interrupting a worker would close the shared channel, so stop the ones not yet started and
+            // wait for the rest, leaving nothing writing to the directory once this returns
+            for ( FutureTask<Object> task : tasks )
+            {
+                task.cancel( false );
+            }
+            waitFor( tasks );
+            channel.close();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Work out where an entry is expanded to, refusing names that would put it outside of the directory.
+     *
+     * @param root The canonical path of the directory followed by a separator
+     */
+    private static UncompressedFile getOutput( String destFile, String root, ZipIndexEntry entry )
+            throws IOException
+    {
+        UncompressedFile output = new UncompressedFile( destFile, entry.getName() );
+        // with a separator added a directory entry for the root itself matches too
+        if ( !( output.getCanonicalPath() + java.io.File.separator ).startsWith( root ) )
+        {
+            throw new IOException( "Entry " + entry.getName() + " is outside of the destination directory" );
+        }
+
+        return output;
+    }
+
+    private static void waitFor( List<FutureTask<Object>> tasks )
+    {
+        for ( FutureTask<Object> task : tasks )
+        {
+            if ( task.isCancelled() )
+            {
+                continue;
+            }
 
-            ZipEntry entry;
-            while ( (entry = zin.getNextEntry()) != null )
+            try
+            {
+                task.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( ExecutionException e )
             {
-                UncompressedFile output = new UncompressedFile( destFile, entry.getName() );
+                // already reported, or one of the reasons we are giving up
+            }
+        }
+    }
 
-                if ( entry.isDirectory() )
+    /**
+     * List the entries in this archive. They are read from the central directory the first time
+     * this is called and the index is reused until the archive changes on disk.
+     *
+     * @return The entries in this archive, in the order of the central directory
+     * @throws IOException If the archive cannot be read or is not a valid zip file
+     */
+    public List<ZipIndexEntry> getEntries() throws IOException
+    {
+        return getIndex().getEntries();
+    }
+
+    /**
+     * @param name The name of the entry to look up
+     * @return The entry with the given name, or null if it is not in this archive
+     * @throws IOException If the archive cannot be read or is not a valid zip file
+     */
+    public ZipIndexEntry getEntry( String name ) throws IOException
+    {
+        return getIndex().getEntry( name );
+    }
+
+    /**
+     * Open a stream of the content of a single entry. Only the data for that entry is read,
+     * so this is quick no matter where the entry is in the archive. The caller must close the stream.
+     *
+     * @param name The name of the entry to read
+     * @return A stream of the uncompressed entry content
+     * @throws IOException If the entry does not exist or the archive cannot be read
+     */
+    public InputStream openEntry( String name ) throws IOException
+    {
+        return openEntry( name, CompressionOptions.DEFAULT_BUFFER_SIZE );
+    }
+
+    private InputStream openEntry( String name, int bufferSize ) throws IOException
+    {
+        ZipIndexEntry entry = getRequiredEntry( name );
+
+        FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+        try
+        {
+            return ZipIndex.openEntry( channel, entry, true, bufferSize );
+        }
+        catch ( IOException e )
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public UncompressedFile extractEntry( String name, String dest ) throws IOException
+    {
+        return extractEntry( name, new UncompressedFile( dest ) );
+    }
+
+    /**
+     * Extract a single entry from this archive without reading any of the other entries.
+     *
+     * @param name The name of the entry to extract
+     * @param dest The file (or directory, for a directory entry) to create
+     * @return The extracted file
+     * @throws IOException If the entry does not exist or there is a problem extracting it
+     */
+    public UncompressedFile extractEntry( String name, java.io.File dest ) throws IOException
+    {
+        return extractEntry( name, dest, new CompressionOptions() );
+    }
+
+    /**
+     * Extract a single entry from this archive without reading any of the other entries.
+     *
+     * @param name    The name of the entry to extract
+     * @param dest    The file (or directory, for a directory entry) to create
+     * @param options The buffer size, memory mapping and listener to extract with
+     * @return The extracted file
+     * @throws IOException If the entry does not exist or there is a problem extracting it
+     */
+    public UncompressedFile extractEntry( String name, java.io.File dest, CompressionOptions options )
+            throws IOException
+    {
+        ZipIndexEntry entry = getRequiredEntry( name );
+        if ( entry.isDirectory() )
+        {
+            dest.mkdirs();
+            return new UncompressedFile( dest );
+        }
+
+        FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+        try
+        {
+            extractEntry( channel, entry, dest, options );
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        return new UncompressedFile( dest );
+    }
+
+    private static void extractEntry( FileChannel channel, ZipIndexEntry entry, java.io.File dest,
+                                      CompressionOptions options ) throws IOException
+    {
+        long dataOffset = ZipIndex.getDataOffset( channel, entry );
+        EntryTimer timer = EntryTimer.create( options );
+        if ( timer != null )
+        {
+            timer.start( entry.getName() );
+        }
+        // mapping the output needs read access as well as write
+        FileChannel out = new RandomAccessFile( dest, "rw" ).getChannel();
+        try
+        {
+            out.truncate( 0 );
+            ChannelInflater.extractEntry( channel, dataOffset, entry, out, options.isMemoryMapped(),
+                    options.getBufferSize(), timer );
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( timer != null )
+        {
+            timer.finish();
+        }
+    }
+
+    public ZipFile update( UncompressedFile[] files ) throws IOException
+    {
+        return update( files, new CompressionOptions() );
+    }
+
+    /**
+     * Bring this archive up to date with the files given, naming the entries as zipCompress would.
+     * Files whose size and modification time (or, failing that, CRC) match their entry are not compressed
+     * again, new and changed files are, and entries for files that are not given are kept. If no entry has
+     * changed the new files are written in place of the old central directory, so only the new data is
+     * written. Otherwise the archive is written again beside this one, copying the compressed data of the
+     * unchanged entries as it is, and then replaces it.
+     *
+     * @param files   The files to add to or update in the archive
+     * @param options The level, strategy, buffer size and store threshold to compress new entries with
+     * @return This archive
+     * @throws IOException If there is a problem reading the files or the archive, or writing the archive
+     */
+    public ZipFile update( UncompressedFile[] files, CompressionOptions options ) throws IOException
+    {
+        Map<String, java.io.File> current = new LinkedHashMap<String, java.io.File>();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            collectFiles( files[i], "", current );
+        }
+
+        List<ZipIndexEntry> entries = Collections.emptyList();
+        boolean inPlace = false;
+        if ( exists() )
+        {
+            entries = getEntries();
+            inPlace = true;
+            for ( ZipIndexEntry entry : entries )
+            {
+                java.io.File file = current.get( entry.getName() );
+                if ( file != null && !entry.isDirectory() && !isUnchanged( entry, file ) )
                 {
-                    output.mkdir();
+                    inPlace = false;
+                    break;
                 }
-                else
+            }
+        }
+
+        if ( inPlace )
+        {
+            append( current, options );
+        }
+        else
+        {
+            rewrite( entries, current, options );
+        }
+
+        return this;
+    }
+
+    private void append( Map<String, java.io.File> current, CompressionOptions options ) throws IOException
+    {
+        ZipIndex existing = getIndex();
+        Map<String, java.io.File> added = new LinkedHashMap<String, java.io.File>();
+        for ( Map.Entry<String, java.io.File> file : current.entrySet() )
+        {
+            if ( existing.getEntry( file.getKey() ) == null )
+            {
+                added.put( file.getKey(), file.getValue() );
+            }
+        }
+        if ( added.isEmpty() )
+        {
+            return;
+        }
+
+        // the new entries go over the old central directory, so keep it to put back if any of them fail
+        byte[] tail = readTail( existing.getDirectoryOffset() );
+        boolean done = false;
+        FileChannel channel = new RandomAccessFile( this, "rw" ).getChannel();
+        try
+        {
+            channel.position( existing.getDirectoryOffset() );
+            OutputStream out = new BufferedOutputStream( Channels.newOutputStream( channel ), options.getBufferSize() );
+            ZipArchiveWriter zout = new ZipArchiveWriter( out, options, existing.getDirectoryOffset() );
+            for ( ZipIndexEntry entry : existing.getEntries() )
+            {
+                zout.addExistingEntry( entry );
+            }
+            for ( Map.Entry<String, java.io.File> file : added.entrySet() )
+            {
+                writeEntry( zout, file.getKey(), file.getValue() );
+            }
+            zout.finish();
+
+            channel.truncate( channel.position() );
+            done = true;
+        }
+        finally
+        {
+            channel.close();
+            if ( !done )
+            {
+                restoreTail( existing.getDirectoryOffset(), tail );
+            }
+        }
+    }
+
+    /**
+     * @return Everything from the offset to the end of the archive, being the central directory and end records
+     */
+    private byte[] readTail( long offset ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( this, "r" );
+        try
+        {
+            long length = file.length() - offset;
+            if ( length > Integer.MAX_VALUE )
+            {
+                throw new ZipException( "Central directory is too large to update" );
+            }
+
+            byte[] tail = new byte[(int) length];
+            file.seek( offset );
+            file.readFully( tail );
+            return tail;
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Put back the end of the archive as it was before an append, removing anything the append wrote.
+     * This uses a RandomAccessFile rather than a channel, so it works even if an interrupt stopped the append.
+     */
+    private void restoreTail( long offset, byte[] tail ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( this, "rw" );
+        try
+        {
+            file.seek( offset );
+            file.write( tail );
+            file.setLength( offset + tail.length );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private void rewrite( List<ZipIndexEntry> entries, Map<String, java.io.File> current, CompressionOptions options )
+            throws IOException
+    {
+        UncompressedFile temp = new UncompressedFile( getPath() + ".tmp" );
+        boolean done = false;
+        FileChannel source = entries.isEmpty() ? null : new RandomAccessFile( this, "r" ).getChannel();
+        try
+        {
+            OutputStream out = new BufferedOutputStream( new FileOutputStream( temp ), options.getBufferSize() );
+            try
+            {
+                ZipArchiveWriter zout = new ZipArchiveWriter( out, options );
+                Set<String> written = new HashSet<String>();
+                for ( ZipIndexEntry entry : entries )
                 {
-                    BufferedOutputStream out = null;
-                    try
+                    // where a name is in the archive twice only the copy that readers would use is kept
+                    if ( getEntry( entry.getName() ) != entry )
                     {
-                        out = new BufferedOutputStream(
-                                new FileOutputStream( output ), BUFFER );
-
-                        int count;
-                        while ( (count = zin.read( data, 0, BUFFER )) != -1 )
-                        {
-                            out.write( data, 0, count );
-                        }
+                        continue;
                     }
-                    finally
+
+                    java.io.File file = current.get( entry.getName() );
+                    if ( file == null || entry.isDirectory() )
+                    {
+                        zout.writeEntry( entry, entry.getTime(), source );
+                    }
+                    else if ( isUnchanged( entry, file ) || hasSameContent( entry, file ) )
+                    {
+                        zout.writeEntry( entry, file.lastModified(), source );
+                    }
+                    else
                     {
-                        if ( out != null )
-                        {
-                            out.close();
-                        }
+                        writeEntry( zout, entry.getName(), file );
                     }
+                    written.add( entry.getName() );
                 }
 
-                zin.closeEntry();
+                for ( Map.Entry<String, java.io.File> file : current.entrySet() )
+                {
+                    if ( !written.contains( file.getKey() ) )
+                    {
+                        writeEntry( zout, file.getKey(), file.getValue() );
+                    }
+                }
+                zout.finish();
+            }
+            finally
+            {
+                out.close();
             }
 
+            if ( source != null )
+            {
+                source.close();
+                source = null;
+            }
+            Files.move( temp.toPath(), toPath(), StandardCopyOption.REPLACE_EXISTING );
+            done = true;
         }
-        catch ( IOException e )
+        finally
         {
-            throw new IOException( e.getMessage() );
+            if ( source != null )
+            {
+                source.close();
+            }
+            if ( !done )
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    private static void collectFiles( java.io.File file, String prefix, Map<String, java.io.File> files )
+    {
+        if ( file.isDirectory() )
+        {
+            String thisDir = prefix + file.getName() + separatorChar;
+            files.put( thisDir, file );
+            java.io.File[] list = file.listFiles();
+            if ( list != null )
+            {
+                for ( int i = 0; i < list.length; i++ )
+                {
+                    collectFiles( list[i], thisDir, files );
+                }
+            }
+        }
+        else
+        {
+            files.put( prefix + file.getName(), file );
+        }
+    }
+
+    private static void writeEntry( ZipArchiveWriter zout, String name, java.io.File file ) throws IOException
+    {
+        if ( file.isDirectory() )
+        {
+            zout.writeEntry( new PrecompressedEntry( name, file.lastModified() ) );
+            return;
+        }
+
+        try
+        {
+            zout.writeEntry( name, file );
+        }
+        catch ( FileNotFoundException e )
+        {
+            if ( !e.getMessage().contains( "(Too many levels of symbolic links)" ) )
+            {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isUnchanged( ZipIndexEntry entry, java.io.File file )
+    {
+        return entry.getSize() == file.length() &&
+                entry.getDosTime() == ZipArchiveWriter.toDosTime( file.lastModified() );
+    }
+
+    private static boolean hasSameContent( ZipIndexEntry entry, java.io.File file ) throws IOException
+    {
+        if ( entry.getSize() != file.length() )
+        {
+            return false;
+        }
+
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            CRC32 crc = new CRC32();
+            ZipArchiveWriter.checksum( in, crc );
+            return crc.getValue() == entry.getCrc();
         }
         finally
         {
-            if ( zin != null )
+            in.close();
+        }
+    }
+
+    private String getExpandPath()
+    {
+        String destFile = getAbsolutePath();
+        if ( destFile.endsWith( ".zip" ) )
+        {
+            destFile = destFile.substring( 0, destFile.length() - 4 );
+        }
+        else
+        {
+            destFile = destFile + "_contents";
+        }
+
+        return destFile;
+    }
+
+    private ZipIndexEntry getRequiredEntry( String name ) throws IOException
+    {
+        ZipIndexEntry entry = getEntry( name );
+        if ( entry == null )
+        {
+            throw new FileNotFoundException( "No entry " + name + " in " + getPath() );
+        }
+
+        return entry;
+    }
+
+    synchronized ZipIndex getIndex() throws IOException
+    {
+        if ( index == null || indexedLength != length() || indexedModified != lastModified() )
+        {
+            FileChannel channel = new RandomAccessFile( this, "r" ).getChannel();
+            try
+            {
+                long length = channel.size();
+                long modified = lastModified();
+                index = ZipIndex.read( channel );
+
+                indexedLength = length;
+                indexedModified = modified;
+            }
+            finally
             {
-                zin.close();
+                channel.close();
             }
         }
 
-        return ret;
+        return index;
     }
 
+    private static class EntryExtractor
+            implements Callable<Object>
+    {
+        private final FileChannel channel;
+
+        private final ZipIndexEntry entry;
+
+        private final java.io.File output;
+
+        private final CompressionOptions options;
+
+        EntryExtractor( FileChannel channel, ZipIndexEntry entry, java.io.File output, CompressionOptions options )
+        {
+            this.channel = channel;
+            this.entry = entry;
+            this.output = output;
+            this.options = options;
+        }
+
+        public Object call() throws Exception
+        {
+            extractEntry( channel, entry, output, options );
+            return null;
+        }
+    }
 }
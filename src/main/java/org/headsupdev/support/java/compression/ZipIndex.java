@@ -0,0 +1,388 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * The entries of a zip archive as listed in its central directory, so that any entry can be
+ * read by seeking straight to its local header rather than scanning the archive. ZIP64 archives
+ * are read from the ZIP64 end of central directory record and extra fields where those are needed.
+ */
+class ZipIndex
+{
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    private final List<ZipIndexEntry> entries;
+
+    private final Map<String, ZipIndexEntry> entriesByName;
+
+    private final long directoryOffset;
+
+    private ZipIndex( List<ZipIndexEntry> entries, long directoryOffset )
+    {
+        this.entries = Collections.unmodifiableList( entries );
+        this.directoryOffset = directoryOffset;
+        this.entriesByName = new HashMap<String, ZipIndexEntry>();
+        for ( ZipIndexEntry entry : entries )
+        {
+            entriesByName.put( entry.getName(), entry );
+        }
+    }
+
+    public List<ZipIndexEntry> getEntries()
+    {
+        return entries;
+    }
+
+    public ZipIndexEntry getEntry( String name )
+    {
+        return entriesByName.get( name );
+    }
+
+    /**
+     * @return The position of the central directory, which is just after the data of the last entry
+     */
+    public long getDirectoryOffset()
+    {
+        return directoryOffset;
+    }
+
+    /**
+     * Read the central directory of the archive open on the channel passed in.
+     *
+     * @param channel The archive to index
+     * @return The index of all entries in the archive
+     * @throws IOException If the archive cannot be read or is not a valid zip file
+     */
+    public static ZipIndex read( FileChannel channel ) throws IOException
+    {
+        long size = channel.size();
+        int tailSize = (int) Math.min( size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE );
+        ByteBuffer tail = map( channel, size - tailSize, tailSize );
+
+        int end = -1;
+        for ( int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i-- )
+        {
+            if ( tail.getInt( i ) == ZipArchiveWriter.END_OF_CENTRAL_DIRECTORY &&
+                    i + END_OF_CENTRAL_DIRECTORY_SIZE + ( tail.getShort( i + 20 ) & 0xffff ) == tailSize )
+            {
+                end = i;
+                break;
+            }
+        }
+        if ( end == -1 )
+        {
+            throw new ZipException( "Could not find the end of the central directory" );
+        }
+
+        long entryCount = tail.getShort( end + 10 ) & 0xffff;
+        long directorySize = tail.getInt( end + 12 ) & 0xffffffffL;
+        long directoryOffset = tail.getInt( end + 16 ) & 0xffffffffL;
+        long directoryEnd = size - tailSize + end;
+        if ( entryCount == ZipArchiveWriter.ZIP64_MAGIC_COUNT || directorySize == ZipArchiveWriter.ZIP64_MAGIC ||
+                directoryOffset == ZipArchiveWriter.ZIP64_MAGIC )
+        {
+            // the real values are in the ZIP64 record that the locator just before the end points to, though
+            // without a locator these could be the real values
+            ByteBuffer locator = read( channel, directoryEnd - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE );
+            if ( locator != null && locator.getInt( 0 ) == ZipArchiveWriter.ZIP64_LOCATOR )
+            {
+                directoryEnd = locator.getLong( 8 );
+                ByteBuffer zip64 = read( channel, directoryEnd, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE );
+                if ( zip64 == null || zip64.getInt( 0 ) != ZipArchiveWriter.ZIP64_END_OF_CENTRAL_DIRECTORY )
+                {
+                    throw new ZipException( "Could not find the ZIP64 end of the central directory" );
+                }
+
+                entryCount = zip64.getLong( 32 );
+                directorySize = zip64.getLong( 40 );
+                directoryOffset = zip64.getLong( 48 );
+            }
+        }
+        if ( directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > directoryEnd )
+        {
+            throw new ZipException( "Invalid central directory location" );
+        }
+
+        ByteBuffer directory = map( channel, directoryOffset, directorySize );
+        // a damaged count should not allocate more than the directory could hold
+        List<ZipIndexEntry> entries = new ArrayList<ZipIndexEntry>( (int) Math.min( entryCount,
+                directorySize / 46 ) );
+        while ( directory.remaining() >= 46 )
+        {
+            int pos = directory.position();
+            if ( directory.getInt( pos ) != ZipArchiveWriter.CENTRAL_HEADER )
+            {
+                throw new ZipException( "Invalid central directory header at " + ( directoryOffset + pos ) );
+            }
+
+            int flags = directory.getShort( pos + 8 ) & 0xffff;
+            int method = directory.getShort( pos + 10 ) & 0xffff;
+            long dosTime = directory.getInt( pos + 12 ) & 0xffffffffL;
+            long crc = directory.getInt( pos + 16 ) & 0xffffffffL;
+            long compressedSize = directory.getInt( pos + 20 ) & 0xffffffffL;
+            long entrySize = directory.getInt( pos + 24 ) & 0xffffffffL;
+            int nameLength = directory.getShort( pos + 28 ) & 0xffff;
+            int extraLength = directory.getShort( pos + 30 ) & 0xffff;
+            int commentLength = directory.getShort( pos + 32 ) & 0xffff;
+            long offset = directory.getInt( pos + 42 ) & 0xffffffffL;
+
+            byte[] nameBytes = new byte[nameLength];
+            directory.position( pos + 46 );
+            directory.get( nameBytes );
+            String name = new String( nameBytes, ZipArchiveWriter.UTF8 );
+
+            if ( entrySize == ZipArchiveWriter.ZIP64_MAGIC || compressedSize == ZipArchiveWriter.ZIP64_MAGIC ||
+                    offset == ZipArchiveWriter.ZIP64_MAGIC )
+            {
+                // only the values too large for their fields are in the ZIP64 extra field, in this order
+                ByteBuffer zip64 = findExtra( directory, pos + 46 + nameLength, extraLength,
+                        ZipArchiveWriter.ZIP64_EXTRA );
+                int needed = ( entrySize == ZipArchiveWriter.ZIP64_MAGIC ? 8 : 0 ) +
+                        ( compressedSize == ZipArchiveWriter.ZIP64_MAGIC ? 8 : 0 ) +
+                        ( offset == ZipArchiveWriter.ZIP64_MAGIC ? 8 : 0 );
+                if ( zip64 == null || zip64.remaining() < needed )
+                {
+                    throw new ZipException( "Invalid ZIP64 extra field for entry " + name );
+                }
+
+                if ( entrySize == ZipArchiveWriter.ZIP64_MAGIC )
+                {
+                    entrySize = zip64.getLong();
+                }
+                if ( compressedSize == ZipArchiveWriter.ZIP64_MAGIC )
+                {
+                    compressedSize = zip64.getLong();
+                }
+                if ( offset == ZipArchiveWriter.ZIP64_MAGIC )
+                {
+                    offset = zip64.getLong();
+                }
+            }
+            directory.position( pos + 46 + nameLength + extraLength + commentLength );
+
+            entries.add( new ZipIndexEntry( name, method, flags, dosTime, crc, entrySize, compressedSize,
+                    offset ) );
+        }
+
+        return new ZipIndex( entries, directoryOffset );
+    }
+
+    /**
+     * Find where the data for an entry starts by reading its local header.
+     *
+     * @param channel The archive containing the entry
+     * @param entry   The entry to locate
+     * @return The position in the archive of the first byte of the entry data
+     * @throws IOException If the local header cannot be read or is invalid
+     */
+    public static long getDataOffset( FileChannel channel, ZipIndexEntry entry ) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate( 30 ).order( ByteOrder.LITTLE_ENDIAN );
+        long offset = entry.getLocalHeaderOffset();
+        while ( header.hasRemaining() )
+        {
+            if ( channel.read( header, offset + header.position() ) == -1 )
+            {
+                throw new ZipException( "Unexpected end of archive reading " + entry.getName() );
+            }
+        }
+
+        if ( header.getInt( 0 ) != ZipArchiveWriter.LOCAL_HEADER )
+        {
+            throw new ZipException( "Invalid local header for " + entry.getName() );
+        }
+
+        return offset + 30 + ( header.getShort( 26 ) & 0xffff ) + ( header.getShort( 28 ) & 0xffff );
+    }
+
+    /**
+     * Open a stream of the uncompressed content of an entry. The CRC is checked as the
+     * last of the data is read.
+     *
+     * @param channel      The archive containing the entry
+     * @param entry        The entry to read
+     * @param closeChannel True if the channel should be closed along with the stream
+     * @param bufferSize   The size of buffer to read compressed data with, borrowed from the default pool
+     * @return A stream of the entry content
+     * @throws IOException If the entry cannot be located or uses an unsupported compression method
+     */
+    public static InputStream openEntry( FileChannel channel, ZipIndexEntry entry, boolean closeChannel,
+                                         int bufferSize ) throws IOException
+    {
+        InputStream raw = new ChannelRangeInputStream( channel, getDataOffset( channel, entry ),
+                entry.getCompressedSize(), closeChannel );
+
+        if ( entry.getMethod() == ZipEntry.STORED )
+        {
+            return new EntryInputStream( raw, entry );
+        }
+        else if ( entry.getMethod() == ZipEntry.DEFLATED )
+        {
+            return new EntryInputStream( new PooledInflaterInputStream( raw, bufferSize ), entry );
+        }
+
+        raw.close();
+        throw new ZipException( "Unsupported compression method " + entry.getMethod() + " for " +
+                entry.getName() );
+    }
+
+    /**
+     * Find an extra field of a header.
+     *
+     * @return The data of the field, or null if the header has no such field
+     */
+    private static ByteBuffer findExtra( ByteBuffer header, int start, int length, int id )
+    {
+        int pos = start;
+        while ( pos + 4 <= start + length )
+        {
+            int fieldLength = header.getShort( pos + 2 ) & 0xffff;
+            if ( ( header.getShort( pos ) & 0xffff ) == id )
+            {
+                ByteBuffer field = header.duplicate();
+                field.limit( Math.min( pos + 4 + fieldLength, start + length ) );
+                field.position( pos + 4 );
+                return field.slice().order( ByteOrder.LITTLE_ENDIAN );
+            }
+            pos += 4 + fieldLength;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The bytes of the archive at the position, or null if they are not all within it
+     */
+    private static ByteBuffer read( FileChannel channel, long position, int size ) throws IOException
+    {
+        if ( position < 0 || position + size > channel.size() )
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, position + buffer.position() ) == -1 )
+            {
+                return null;
+            }
+        }
+
+        return buffer;
+    }
+
+    private static ByteBuffer map( FileChannel channel, long position, long size ) throws IOException
+    {
+        if ( size > Integer.MAX_VALUE )
+        {
+            throw new ZipException( "Central directory is too large to read" );
+        }
+
+        MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, position, size );
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        return buffer;
+    }
+
+    private static class EntryInputStream
+            extends FilterInputStream
+    {
+        private final ZipIndexEntry entry;
+
+        private final CRC32 crc = new CRC32();
+
+        private long count;
+
+        EntryInputStream( InputStream in, ZipIndexEntry entry )
+        {
+            super( in );
+            this.entry = entry;
+        }
+
+        public int read() throws IOException
+        {
+            byte[] data = new byte[1];
+            if ( read( data, 0, 1 ) == -1 )
+            {
+                return -1;
+            }
+
+            return data[0] & 0xff;
+        }
+
+        public int read( byte[] data, int off, int len ) throws IOException
+        {
+            int read = super.read( data, off, len );
+            if ( read == -1 )
+            {
+                if ( count != entry.getSize() || crc.getValue() != entry.getCrc() )
+                {
+                    throw new ZipException( "Invalid data for entry " + entry.getName() );
+                }
+                return -1;
+            }
+
+            crc.update( data, off, read );
+            count += read;
+            return read;
+        }
+
+        public long skip( long n ) throws IOException
+        {
+            byte[] data = new byte[(int) Math.min( n, 2048 )];
+            long skipped = 0;
+            while ( skipped < n )
+            {
+                int read = read( data, 0, (int) Math.min( data.length, n - skipped ) );
+                if ( read == -1 )
+                {
+                    break;
+                }
+                skipped += read;
+            }
+
+            return skipped;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+/**
+ * An entry from the central directory of a zip archive.
+ */
+public class ZipIndexEntry
+{
+    private final String name;
+
+    private final int method;
+
+    private final int flags;
+
+    private final long dosTime;
+
+    private final long crc;
+
+    private final long size;
+
+    private final long compressedSize;
+
+    private final long localHeaderOffset;
+
+    ZipIndexEntry( String name, int method, int flags, long dosTime, long crc, long size, long compressedSize,
+                   long localHeaderOffset )
+    {
+        this.name = name;
+        this.method = method;
+        this.flags = flags;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isDirectory()
+    {
+        return name.endsWith( "/" ) || name.endsWith( "\\" );
+    }
+
+    /**
+     * @return The compression method, either java.util.zip.ZipEntry.STORED or DEFLATED
+     */
+    public int getMethod()
+    {
+        return method;
+    }
+
+    public long getTime()
+    {
+        return ZipArchiveWriter.fromDosTime( dosTime );
+    }
+
+    public long getCrc()
+    {
+        return crc;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getCompressedSize()
+    {
+        return compressedSize;
+    }
+
+    int getFlags()
+    {
+        return flags;
+    }
+
+    long getDosTime()
+    {
+        return dosTime;
+    }
+
+    long getLocalHeaderOffset()
+    {
+        return localHeaderOffset;
+    }
+
+    public String toString()
+    {
+        return name;
+    }
+}
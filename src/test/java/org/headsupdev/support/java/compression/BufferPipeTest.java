@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * BufferPipe Tester.
+ */
+public class BufferPipeTest
+        extends TestCase
+{
+
+    public BufferPipeTest( String name )
+    {
+        super( name );
+    }
+
+    public void testTransfer()
+            throws Exception
+    {
+        final byte[] data = new byte[1000000];
+        new Random( 42 ).nextBytes( data );
+
+        final BufferPipe pipe = new BufferPipe( 4096, 2 );
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    OutputStream out = pipe.getOutputStream();
+                    int pos = 0;
+                    Random sizes = new Random( 1 );
+                    while ( pos < data.length )
+                    {
+                        int count = Math.min( sizes.nextInt( 10000 ), data.length - pos );
+                        out.write( data, pos, count );
+                        pos += count;
+                    }
+                    out.close();
+                }
+                catch ( IOException e )
+                {
+                    pipe.abort( e );
+                }
+            }
+        };
+        writer.start();
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Streams.copy( pipe.getInputStream(), received, new byte[3000] );
+        writer.join();
+
+        assertTrue( Arrays.equals( data, received.toByteArray() ) );
+    }
+
+    public void testWriterFailure()
+            throws Exception
+    {
+        BufferPipe pipe = new BufferPipe( 16, 2 );
+        pipe.getOutputStream().write( new byte[40] );
+        pipe.abort( new IOException( "disk gone" ) );
+
+        InputStream in = pipe.getInputStream();
+        try
+        {
+            Streams.copy( in, new ByteArrayOutputStream(), new byte[16] );
+            fail( "the writer failure should reach the reader" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage().contains( "disk gone" ) );
+        }
+    }
+
+    public void testReaderClosed()
+            throws Exception
+    {
+        BufferPipe pipe = new BufferPipe( 16, 1 );
+        OutputStream out = pipe.getOutputStream();
+        out.write( new byte[16] );
+        pipe.getInputStream().close();
+
+        // with the reader gone this would block forever if the writes were not discarded
+        out.write( new byte[1000] );
+        out.close();
+        assertEquals( -1, pipe.getInputStream().read() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BufferPipeTest.class );
+    }
+}
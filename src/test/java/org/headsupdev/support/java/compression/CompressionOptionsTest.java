@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.zip.Deflater;
+
+/**
+ * CompressionOptions Tester.
+ */
+public class CompressionOptionsTest
+        extends TestCase
+{
+
+    public CompressionOptionsTest( String name )
+    {
+        super( name );
+    }
+
+    public void testDefaults()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        assertEquals( Deflater.DEFAULT_COMPRESSION, options.getLevel() );
+        assertEquals( Deflater.DEFAULT_STRATEGY, options.getStrategy() );
+        assertEquals( 2048, options.getBufferSize() );
+        assertEquals( 1, options.getParallelism() );
+        assertEquals( 0, options.getStoreThreshold() );
+    }
+
+    public void testCopy()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setLevel( Deflater.BEST_SPEED );
+        options.setStrategy( Deflater.FILTERED );
+        options.setBufferSize( 65536 );
+        options.setParallelism( 4 );
+        options.setStoreThreshold( 512 );
+        options.setTarBlockSize( 65536 );
+
+        CompressionOptions copy = new CompressionOptions( options );
+        assertEquals( Deflater.BEST_SPEED, copy.getLevel() );
+        assertEquals( Deflater.FILTERED, copy.getStrategy() );
+        assertEquals( 65536, copy.getBufferSize() );
+        assertEquals( 4, copy.getParallelism() );
+        assertEquals( 512, copy.getStoreThreshold() );
+        assertEquals( 65536, copy.getTarBlockSize() );
+    }
+
+    public void testInvalid()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        try
+        {
+            options.setLevel( 10 );
+            fail( "Expected an invalid level to be rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            options.setBufferSize( 0 );
+            fail( "Expected an empty buffer to be rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            options.setParallelism( 0 );
+            fail( "Expected no threads to be rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            options.setTarBlockSize( 1000 );
+            fail( "Expected a tar block that is not whole records to be rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CompressionOptionsTest.class );
+    }
+}
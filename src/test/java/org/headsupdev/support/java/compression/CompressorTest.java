@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Compressor and Decompressor Tester.
+ */
+public class CompressorTest
+        extends TestCase
+{
+
+    private static final byte[] DATA = "This is some text - a test\n\nthanks\n".getBytes();
+
+    public CompressorTest( String name )
+    {
+        super( name );
+    }
+
+    public void testGZip()
+            throws Exception
+    {
+        assertRoundTrip( new GZipCompressor(), new GZipDecompressor() );
+    }
+
+    public void testZip()
+            throws Exception
+    {
+        assertRoundTrip( new ZipCompressor( "test.txt" ), new ZipDecompressor( "test.txt" ) );
+    }
+
+    public void testChannels()
+            throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new GZipCompressor().compress( Channels.newChannel( new ByteArrayInputStream( DATA ) ),
+                Channels.newChannel( compressed ) );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GZipDecompressor().decompress( Channels.newChannel( new ByteArrayInputStream(
+                compressed.toByteArray() ) ), Channels.newChannel( out ) );
+        assertTrue( Arrays.equals( DATA, out.toByteArray() ) );
+    }
+
+    public void testGZipMembers()
+            throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new GZipCompressor().compress( new ByteArrayInputStream( DATA ), compressed );
+        new GZipCompressor().compress( new ByteArrayInputStream( DATA ), compressed );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GZipDecompressor().decompress( new ByteArrayInputStream( compressed.toByteArray() ), out );
+        assertEquals( new String( DATA ) + new String( DATA ), out.toString() );
+    }
+
+    public void testGZipCorrupt()
+            throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new GZipCompressor().compress( new ByteArrayInputStream( DATA ), compressed );
+        byte[] data = compressed.toByteArray();
+        // break the CRC in the trailer
+        data[data.length - 8] ^= 0xff;
+
+        try
+        {
+            new GZipDecompressor().decompress( new ByteArrayInputStream( data ), new ByteArrayOutputStream() );
+            fail( "Expected the CRC check to fail" );
+        }
+        catch ( java.io.IOException e )
+        {
+            // expected
+        }
+    }
+
+    private static void assertRoundTrip( Compressor compressor, Decompressor decompressor )
+            throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressor.compress( new ByteArrayInputStream( DATA ), compressed );
+        assertTrue( compressed.size() > 0 );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decompressor.decompress( new ByteArrayInputStream( compressed.toByteArray() ), out );
+        assertTrue( Arrays.equals( DATA, out.toByteArray() ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CompressorTest.class );
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * GZipFile Tester.
+ */
+public class GZipFileTest
+        extends TestCase
+{
+
+    private UncompressedFile largeFile;
+
+    private GZipFile gzip;
+
+    public GZipFileTest( String name )
+    {
+        super( name );
+    }
+
+    public void setUp()
+            throws Exception
+    {
+        largeFile = UncompressedFileTest.writeLargeFile( "target/gziptest.txt" );
+    }
+
+    public void tearDown()
+            throws Exception
+    {
+        if ( gzip != null )
+        {
+            gzip.getIndexFile().delete();
+            gzip.delete();
+        }
+        largeFile.delete();
+    }
+
+    public void testOpenAt()
+            throws Exception
+    {
+        gzip = largeFile.gzipCompress( false );
+        assertEquals( largeFile.length(), gzip.getUncompressedSize() );
+
+        assertReadAt( 0, 100 );
+        assertReadAt( 1000000, 100 );
+        assertReadAt( 2500000, 5000 );
+        assertReadAt( largeFile.length() - 10, 10 );
+
+        InputStream in = gzip.openAt( largeFile.length() );
+        try
+        {
+            assertEquals( -1, in.read() );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public void testSmallSpan()
+            throws Exception
+    {
+        gzip = largeFile.gzipCompress( false );
+
+        FileChannel channel = new RandomAccessFile( gzip, "r" ).getChannel();
+        try
+        {
+            GZipIndex index = GZipIndex.build( channel, 16 * 1024 );
+            assertTrue( index.getAccessPointCount() > 10 );
+
+            // read to the end each time so that the final CRC is checked too
+            for ( long offset : new long[]{ 0, 20000, 1234567, largeFile.length() - 1 } )
+            {
+                InputStream in = index.openAt( channel, offset, false );
+                try
+                {
+                    assertSameData( offset, (int) ( largeFile.length() - offset ), in );
+                    assertEquals( -1, in.read() );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    public void testParallelMembers()
+            throws Exception
+    {
+        gzip = largeFile.gzipCompress( false, 4 );
+        assertEquals( largeFile.length(), gzip.getUncompressedSize() );
+
+        assertReadAt( 1500000, 100 );
+        assertReadAt( largeFile.length() - 100, 100 );
+    }
+
+    public void testStoredAndFixedBlocks()
+            throws Exception
+    {
+        // random data is written in stored blocks, and Huffman only coding usually in fixed ones
+        byte[] data = new byte[300000];
+        new Random( 42 ).nextBytes( data );
+        OutputStream out = new FileOutputStream( largeFile, true );
+        try
+        {
+            out.write( data );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        CompressionOptions options = new CompressionOptions();
+        options.setLevel( Deflater.NO_COMPRESSION );
+        gzip = largeFile.gzipCompress( false, options );
+        assertReadAt( largeFile.length() - 200000, 1000 );
+        gzip.delete();
+
+        options.setLevel( Deflater.DEFAULT_COMPRESSION );
+        options.setStrategy( Deflater.HUFFMAN_ONLY );
+        gzip = largeFile.gzipCompress( false, options );
+        assertReadAt( 2000000, 1000 );
+    }
+
+    public void testSavedIndex()
+            throws Exception
+    {
+        gzip = largeFile.gzipCompress( false );
+        UncompressedFile indexFile = gzip.saveIndex();
+        assertTrue( indexFile.exists() );
+
+        GZipIndex loaded = GZipIndex.load( indexFile, gzip.length(), gzip.lastModified() );
+        assertNotNull( loaded );
+        assertEquals( gzip.getIndex().getAccessPointCount(), loaded.getAccessPointCount() );
+        assertEquals( largeFile.length(), loaded.getUncompressedSize() );
+
+        // a saved index is for one version of the file only
+        assertNull( GZipIndex.load( indexFile, gzip.length() + 1, gzip.lastModified() ) );
+
+        gzip = new GZipFile( gzip.getPath() );
+        assertReadAt( 2200000, 100 );
+    }
+
+    public void testParallelExpandMembers()
+            throws Exception
+    {
+        // like gzip files concatenated with cat, each part its own member
+        byte[] data = readAll( largeFile );
+        gzip = new GZipFile( "target/gziptest.txt.gz" );
+        OutputStream out = new FileOutputStream( gzip );
+        try
+        {
+            GZipCompressor compressor = new GZipCompressor();
+            for ( int pos = 0; pos < data.length; pos += 500000 )
+            {
+                int length = Math.min( 500000, data.length - pos );
+                compressor.compress( new ByteArrayInputStream( data, pos, length ), out );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        assertParallelExpand();
+    }
+
+    public void testParallelExpandBgzf()
+            throws Exception
+    {
+        byte[] data = readAll( largeFile );
+        gzip = new GZipFile( "target/gziptest.txt.gz" );
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( gzip ) );
+        try
+        {
+            for ( int pos = 0; pos < data.length; pos += 65280 )
+            {
+                writeBgzfBlock( out, data, pos, Math.min( 65280, data.length - pos ) );
+            }
+            // the BGZF end of file marker
+            writeBgzfBlock( out, data, 0, 0 );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        assertParallelExpand();
+    }
+
+    public void testParallelExpandFalseHeader()
+            throws Exception
+    {
+        OutputStream out = new FileOutputStream( largeFile, true );
+        try
+        {
+            out.write( GZipFormat.HEADER );
+            out.write( new byte[100] );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        // with stored blocks that header is in the compressed data, so looks like the start of a member
+        byte[] data = readAll( largeFile );
+        CompressionOptions options = new CompressionOptions();
+        options.setLevel( Deflater.NO_COMPRESSION );
+        gzip = new GZipFile( "target/gziptest.txt.gz" );
+        out = new FileOutputStream( gzip );
+        try
+        {
+            GZipCompressor compressor = new GZipCompressor( options );
+            compressor.compress( new ByteArrayInputStream( data, 0, 1000000 ), out );
+            compressor.compress( new ByteArrayInputStream( data, 1000000, data.length - 1000000 ), out );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        assertParallelExpand();
+    }
+
+    public void testExpandMapped()
+            throws Exception
+    {
+        gzip = largeFile.gzipCompress( false );
+        CompressionOptions options = new CompressionOptions();
+        options.setMemoryMapped( true );
+        UncompressedFile expanded = gzip.expandTo( "target/gziptest.out", false, options );
+        try
+        {
+            UncompressedFileTest.assertSameContent( largeFile, expanded );
+        }
+        finally
+        {
+            expanded.delete();
+        }
+
+        // a damaged trailer is still noticed
+        RandomAccessFile file = new RandomAccessFile( gzip, "rw" );
+        try
+        {
+            file.seek( file.length() - 1 );
+            file.write( 0xff );
+        }
+        finally
+        {
+            file.close();
+        }
+        try
+        {
+            gzip.expandTo( "target/gziptest.out", false, options );
+            fail( "Expected a corrupt trailer to fail" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        finally
+        {
+            new java.io.File( "target/gziptest.out" ).delete();
+        }
+    }
+
+    public void testParallelExpandSingleMember()
+            throws Exception
+    {
+        // random data barely compresses, so the single member is larger than the expander will probe
+        byte[] data = new byte[(int) ParallelGZipExpander.PROBE_SIZE + 2 * 1024 * 1024];
+        new Random( 42 ).nextBytes( data );
+        gzip = new GZipFile( "target/gziptest.txt.gz" );
+        OutputStream out = new FileOutputStream( gzip );
+        try
+        {
+            new GZipCompressor().compress( new ByteArrayInputStream( data ), out );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        java.io.File dest = new java.io.File( "target/gziptest.out" );
+        CountingChannel channel = new CountingChannel( new RandomAccessFile( gzip, "r" ).getChannel() );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            assertFalse( new ParallelGZipExpander( executor, 64 * 1024 ).expand( channel, dest ) );
+            // the file was not read through looking for more members
+            assertTrue( channel.read < gzip.length() );
+            assertTrue( channel.read <= ParallelGZipExpander.PROBE_SIZE + 128 * 1024 );
+        }
+        finally
+        {
+            executor.shutdown();
+            channel.close();
+            dest.delete();
+        }
+    }
+
+    private void assertParallelExpand()
+            throws IOException
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallelism( 4 );
+        UncompressedFile expanded = gzip.expandTo( "target/gziptest.out", false, options );
+        try
+        {
+            UncompressedFileTest.assertSameContent( largeFile, expanded );
+        }
+        finally
+        {
+            expanded.delete();
+        }
+    }
+
+    private static void writeBgzfBlock( OutputStream out, byte[] data, int off, int len )
+            throws IOException
+    {
+        Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+        byte[] compressed = new byte[len + 1024];
+        int length;
+        try
+        {
+            deflater.setInput( data, off, len );
+            deflater.finish();
+            length = deflater.deflate( compressed );
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update( data, off, len );
+        int blockSize = 18 + length + 8 - 1;
+        out.write( new byte[]{ 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) blockSize, (byte) ( blockSize >> 8 ) } );
+        out.write( compressed, 0, length );
+        GZipFormat.writeTrailer( out, crc.getValue(), len );
+    }
+
+    private static byte[] readAll( java.io.File file )
+            throws IOException
+    {
+        byte[] ret = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try
+        {
+            in.readFully( ret );
+        }
+        finally
+        {
+            in.close();
+        }
+        return ret;
+    }
+
+    private void assertReadAt( long offset, int length )
+            throws IOException
+    {
+        InputStream in = gzip.openAt( offset );
+        try
+        {
+            assertSameData( offset, length, in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void assertSameData( long offset, int length, InputStream in )
+            throws IOException
+    {
+        byte[] expected = new byte[length];
+        RandomAccessFile file = new RandomAccessFile( largeFile, "r" );
+        try
+        {
+            file.seek( offset );
+            file.readFully( expected );
+        }
+        finally
+        {
+            file.close();
+        }
+
+        byte[] actual = new byte[length];
+        int read = 0;
+        while ( read < length )
+        {
+            int count = in.read( actual, read, length - read );
+            assertTrue( count > 0 );
+            read += count;
+        }
+        assertTrue( Arrays.equals( expected, actual ) );
+    }
+
+    /**
+     * A channel that counts the bytes read through it.
+     */
+    private static class CountingChannel
+            extends FileChannel
+    {
+        private final FileChannel channel;
+
+        long read;
+
+        CountingChannel( FileChannel channel )
+        {
+            this.channel = channel;
+        }
+
+        private int count( int count )
+        {
+            if ( count > 0 )
+            {
+                read += count;
+            }
+            return count;
+        }
+
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            return count( channel.read( dst ) );
+        }
+
+        public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+        {
+            long count = channel.read( dsts, offset, length );
+            read += Math.max( 0, count );
+            return count;
+        }
+
+        public int read( ByteBuffer dst, long position ) throws IOException
+        {
+            return count( channel.read( dst, position ) );
+        }
+
+        public int write( ByteBuffer src ) throws IOException
+        {
+            return channel.write( src );
+        }
+
+        public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+        {
+            return channel.write( srcs, offset, length );
+        }
+
+        public int write( ByteBuffer src, long position ) throws IOException
+        {
+            return channel.write( src, position );
+        }
+
+        public long position() throws IOException
+        {
+            return channel.position();
+        }
+
+        public FileChannel position( long newPosition ) throws IOException
+        {
+            channel.position( newPosition );
+            return this;
+        }
+
+        public long size() throws IOException
+        {
+            return channel.size();
+        }
+
+        public FileChannel truncate( long size ) throws IOException
+        {
+            channel.truncate( size );
+            return this;
+        }
+
+        public void force( boolean metaData ) throws IOException
+        {
+            channel.force( metaData );
+        }
+
+        public long transferTo( long position, long count, WritableByteChannel target ) throws IOException
+        {
+            return channel.transferTo( position, count, target );
+        }
+
+        public long transferFrom( ReadableByteChannel src, long position, long count ) throws IOException
+        {
+            return channel.transferFrom( src, position, count );
+        }
+
+        public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+        {
+            return channel.map( mode, position, size );
+        }
+
+        public FileLock lock( long position, long size, boolean shared ) throws IOException
+        {
+            return channel.lock( position, size, shared );
+        }
+
+        public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+        {
+            return channel.tryLock( position, size, shared );
+        }
+
+        protected void implCloseChannel() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( GZipFileTest.class );
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DeflaterPool, InflaterPool and BufferPool Tester.
+ */
+public class PoolTest
+        extends TestCase
+{
+
+    public PoolTest( String name )
+    {
+        super( name );
+    }
+
+    public void testDeflaterReuse()
+            throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool( 1 );
+        Deflater deflater = pool.borrow( Deflater.BEST_SPEED, true );
+        deflater.setInput( "some data".getBytes() );
+        deflater.finish();
+        deflater.deflate( new byte[64] );
+        pool.release( deflater );
+
+        Deflater reused = pool.borrow( Deflater.BEST_SPEED, true );
+        assertSame( deflater, reused );
+        assertEquals( 0, reused.getTotalIn() );
+        assertFalse( reused.finished() );
+
+        // different settings must not share an instance
+        assertNotSame( reused, pool.borrow( Deflater.BEST_COMPRESSION, true ) );
+        assertNotSame( reused, pool.borrow( Deflater.BEST_SPEED, false ) );
+    }
+
+    public void testDeflaterPoolLimit()
+            throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool( 1 );
+        Deflater first = pool.borrow( Deflater.DEFAULT_COMPRESSION, true );
+        Deflater second = pool.borrow( Deflater.DEFAULT_COMPRESSION, true );
+        pool.release( first );
+        pool.release( second );
+
+        assertSame( first, pool.borrow( Deflater.DEFAULT_COMPRESSION, true ) );
+        assertNotSame( second, pool.borrow( Deflater.DEFAULT_COMPRESSION, true ) );
+    }
+
+    public void testInflaterReuse()
+            throws Exception
+    {
+        InflaterPool pool = new InflaterPool( 1 );
+        Inflater inflater = pool.borrow( true );
+        pool.release( inflater );
+
+        assertSame( inflater, pool.borrow( true ) );
+        assertNotSame( inflater, pool.borrow( false ) );
+    }
+
+    public void testBufferReuse()
+            throws Exception
+    {
+        BufferPool pool = new BufferPool( 2 );
+        byte[] buffer = pool.borrow( 1024 );
+        assertEquals( 1024, buffer.length );
+        pool.release( buffer );
+
+        assertSame( buffer, pool.borrow( 1024 ) );
+        assertEquals( 2048, pool.borrow( 2048 ).length );
+
+        // only the size classes are kept, though any size can be borrowed
+        byte[] odd = pool.borrow( 1000 );
+        assertEquals( 1000, odd.length );
+        pool.release( odd );
+        assertNotSame( odd, pool.borrow( 1000 ) );
+
+        byte[] huge = pool.borrow( BufferPool.MAX_SIZE * 2 );
+        pool.release( huge );
+        assertNotSame( huge, pool.borrow( BufferPool.MAX_SIZE * 2 ) );
+    }
+
+    public void testDirectBufferReuse()
+            throws Exception
+    {
+        BufferPool pool = new BufferPool( 2 );
+        ByteBuffer buffer = pool.borrowDirect( 64 * 1024 );
+        assertTrue( buffer.isDirect() );
+        assertEquals( 64 * 1024, buffer.capacity() );
+        buffer.limit( 10 );
+        pool.releaseDirect( buffer );
+
+        ByteBuffer reused = pool.borrowDirect( 64 * 1024 );
+        assertSame( buffer, reused );
+        assertEquals( reused.capacity(), reused.remaining() );
+
+        // heap buffers are not kept with the direct ones
+        ByteBuffer heap = ByteBuffer.allocate( 64 * 1024 );
+        pool.releaseDirect( heap );
+        assertNotSame( heap, pool.borrowDirect( 64 * 1024 ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PoolTest.class );
+    }
+}
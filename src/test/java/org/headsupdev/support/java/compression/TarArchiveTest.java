@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * TarArchiveWriter and TarArchiveReader Tester.
+ */
+public class TarArchiveTest
+        extends TestCase
+{
+
+    public TarArchiveTest( String name )
+    {
+        super( name );
+    }
+
+    public void testLongName()
+            throws Exception
+    {
+        StringBuilder name = new StringBuilder();
+        for ( int i = 0; i < 30; i++ )
+        {
+            name.append( "directory" ).append( i ).append( '/' );
+        }
+        name.append( "file.txt" );
+        byte[] content = "some content".getBytes();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TarArchiveWriter writer = new TarArchiveWriter( out );
+        writer.writeEntry( name.toString(), 1000000000000L, content.length, new ByteArrayInputStream( content ) );
+        writer.writeEntry( "short.txt", 0, content.length, new ByteArrayInputStream( content ) );
+        writer.close();
+        assertEquals( 0, out.size() % CompressionOptions.DEFAULT_TAR_BLOCK_SIZE );
+
+        TarArchiveReader reader = new TarArchiveReader( new ByteArrayInputStream( out.toByteArray() ) );
+        TarEntry entry = reader.getNextEntry();
+        assertEquals( name.toString(), entry.getName() );
+        assertEquals( content.length, entry.getSize() );
+        assertEquals( 1000000000000L, entry.getTime() );
+        assertTrue( entry.isFile() );
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        Streams.copy( reader, read, new byte[16] );
+        assertEquals( "some content", read.toString() );
+
+        assertEquals( "short.txt", reader.getNextEntry().getName() );
+        assertNull( reader.getNextEntry() );
+    }
+
+    public void testTransfer()
+            throws Exception
+    {
+        UncompressedFile large = UncompressedFileTest.writeLargeFile( "target/tar-large.txt" );
+        UncompressedFile small = new UncompressedFile( "target/tar-small.txt" );
+        large.copyTo( small );
+        new FileOutputStream( small, true ).getChannel().truncate( 1000 ).close();
+
+        // a file channel moves the large body with transferTo, leaving the archive unaligned until finished
+        UncompressedFile archive = new UncompressedFile( "target/transfer.tar" );
+        TarArchiveWriter writer = new TarArchiveWriter( new FileOutputStream( archive ).getChannel(),
+                new CompressionOptions() );
+        writer.writeEntry( "small.txt", small );
+        writer.writeEntry( "large.txt", large );
+        writer.writeEntry( "again.txt", small );
+        writer.close();
+        assertEquals( 0, archive.length() % CompressionOptions.DEFAULT_TAR_BLOCK_SIZE );
+
+        FileInputStream in = new FileInputStream( archive );
+        TarArchiveReader reader = new TarArchiveReader( in.getChannel(), new CompressionOptions() );
+        try
+        {
+            assertEquals( "small.txt", reader.getNextEntry().getName() );
+            TarEntry entry = reader.getNextEntry();
+            assertEquals( "large.txt", entry.getName() );
+            assertEquals( large.length(), entry.getSize() );
+
+            // skipped by seeking past the content
+            entry = reader.getNextEntry();
+            assertEquals( "again.txt", entry.getName() );
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            Streams.copy( reader, read, new byte[256] );
+            assertEquals( 1000, read.size() );
+            assertNull( reader.getNextEntry() );
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        UncompressedFile expanded = new TarFile( archive ).expand();
+        UncompressedFileTest.assertSameContent( large, new UncompressedFile( expanded, "large.txt" ) );
+        UncompressedFileTest.assertSameContent( small, new UncompressedFile( expanded, "again.txt" ) );
+
+        new UncompressedFile( expanded, "small.txt" ).delete();
+        new UncompressedFile( expanded, "large.txt" ).delete();
+        new UncompressedFile( expanded, "again.txt" ).delete();
+        expanded.delete();
+        archive.delete();
+        small.delete();
+        large.delete();
+    }
+
+    public void testWrongSize()
+            throws Exception
+    {
+        TarArchiveWriter writer = new TarArchiveWriter( new ByteArrayOutputStream() );
+        try
+        {
+            writer.writeEntry( "short.txt", 0, 100, new ByteArrayInputStream( new byte[10] ) );
+            fail( "a short stream should be rejected" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    public void testLargeNumbers()
+            throws Exception
+    {
+        byte[] header = new byte[TarFormat.RECORD_SIZE];
+        TarFormat.writeNumber( header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, TarFormat.MAX_OCTAL_SIZE );
+        assertEquals( '7', header[TarFormat.SIZE_OFFSET] );
+        assertEquals( TarFormat.MAX_OCTAL_SIZE,
+                TarFormat.readNumber( header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH ) );
+
+        long large = 10L * 1024 * 1024 * 1024;
+        TarFormat.writeNumber( header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH, large );
+        assertEquals( (byte) 0x80, header[TarFormat.SIZE_OFFSET] );
+        assertEquals( large, TarFormat.readNumber( header, TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH ) );
+
+        // the length of a pax record includes its own digits, which can push it up a digit
+        assertEquals( 99, TarFormat.paxRecord( "path", pad( 90 ) ).length );
+        assertEquals( 101, TarFormat.paxRecord( "path", pad( 91 ) ).length );
+    }
+
+    public void testOutsideDestination()
+            throws Exception
+    {
+        byte[] content = "escaped".getBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TarArchiveWriter writer = new TarArchiveWriter( out );
+        writer.writeEntry( "../escaped.txt", 0, content.length, new ByteArrayInputStream( content ) );
+        writer.close();
+
+        UncompressedFile dest = new UncompressedFile( "target/tar-outside" );
+        dest.mkdirs();
+        try
+        {
+            new TarDecompressor().expand( new ByteArrayInputStream( out.toByteArray() ), dest );
+            fail( "an entry outside the destination should be refused" );
+        }
+        catch ( IOException e )
+        {
+            assertFalse( new UncompressedFile( "target/escaped.txt" ).exists() );
+        }
+        finally
+        {
+            dest.delete();
+        }
+    }
+
+    private static String pad( int length )
+    {
+        StringBuilder ret = new StringBuilder();
+        for ( int i = 0; i < length; i++ )
+        {
+            ret.append( 'x' );
+        }
+
+        return ret.toString();
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TarArchiveTest.class );
+    }
+}
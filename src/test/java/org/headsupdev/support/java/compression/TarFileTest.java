@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.List;
+
+/**
+ * TarFile Tester.
+ */
+public class TarFileTest
+        extends TestCase
+{
+
+    private UncompressedFile testDir;
+
+    private UncompressedFile largeFile;
+
+    private TarFile tar;
+
+    public TarFileTest( String name )
+    {
+        super( name );
+    }
+
+    public void setUp()
+            throws Exception
+    {
+        testDir = new UncompressedFile( "target/tartest" );
+        new UncompressedFile( testDir, "sub" ).mkdirs();
+
+        Writer out = new FileWriter( new UncompressedFile( testDir, "test.txt" ) );
+        out.write( "This is some text - a test\n\nthanks\n" );
+        out.close();
+        largeFile = UncompressedFileTest.writeLargeFile( "target/tartest/sub/large.txt" );
+
+        tar = testDir.tarCompress();
+    }
+
+    public void tearDown()
+            throws Exception
+    {
+        tar.getIndexFile().delete();
+        tar.delete();
+        new UncompressedFile( testDir, "test.txt" ).delete();
+        largeFile.delete();
+        new UncompressedFile( testDir, "sub" ).delete();
+        testDir.delete();
+    }
+
+    public void testEntries()
+            throws Exception
+    {
+        List<TarEntry> entries = tar.getEntries();
+        assertEquals( 4, entries.size() );
+
+        TarEntry entry = tar.getEntry( "tartest/sub/large.txt" );
+        assertNotNull( entry );
+        assertEquals( largeFile.length(), entry.getSize() );
+        assertTrue( entry.isFile() );
+
+        assertTrue( tar.getEntry( "tartest/sub/" ).isDirectory() );
+        assertNull( tar.getEntry( "tartest/missing.txt" ) );
+    }
+
+    public void testOpenEntry()
+            throws Exception
+    {
+        byte[] expected = new byte[100];
+        RandomAccessFile file = new RandomAccessFile( largeFile, "r" );
+        try
+        {
+            file.seek( 1000000 );
+            file.readFully( expected );
+        }
+        finally
+        {
+            file.close();
+        }
+
+        SeekableByteChannel channel = tar.openEntry( "tartest/sub/large.txt" );
+        try
+        {
+            assertEquals( largeFile.length(), channel.size() );
+
+            ByteBuffer read = ByteBuffer.allocate( 100 );
+            channel.position( 1000000 );
+            while ( read.hasRemaining() )
+            {
+                channel.read( read );
+            }
+            assertTrue( java.util.Arrays.equals( expected, read.array() ) );
+
+            // reads stop at the end of the entry, not the end of the archive
+            channel.position( largeFile.length() - 10 );
+            assertEquals( 10, channel.read( ByteBuffer.allocate( 100 ) ) );
+            assertEquals( -1, channel.read( ByteBuffer.allocate( 100 ) ) );
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        try
+        {
+            tar.openEntry( "tartest/sub/" );
+            fail( "a directory has no content to open" );
+        }
+        catch ( FileNotFoundException e )
+        {
+            // expected
+        }
+    }
+
+    public void testExtractEntry()
+            throws Exception
+    {
+        UncompressedFile out = tar.extractEntry( "tartest/sub/large.txt", "target/tar-large.out" );
+        UncompressedFileTest.assertSameContent( largeFile, out );
+        out.delete();
+
+        try
+        {
+            tar.extractEntry( "tartest/missing.txt", "target/missing.out" );
+            fail( "a missing entry should not be extracted" );
+        }
+        catch ( FileNotFoundException e )
+        {
+            // expected
+        }
+    }
+
+    public void testSavedIndex()
+            throws Exception
+    {
+        UncompressedFile indexFile = tar.saveIndex();
+        assertTrue( indexFile.exists() );
+
+        TarIndex loaded = TarIndex.load( indexFile, tar.length(), tar.lastModified() );
+        assertNotNull( loaded );
+        assertEquals( 4, loaded.getEntries().size() );
+        TarEntry entry = loaded.getEntry( "tartest/sub/large.txt" );
+        assertEquals( tar.getEntry( "tartest/sub/large.txt" ).getDataOffset(), entry.getDataOffset() );
+
+        // a saved index is for one version of the archive only
+        assertNull( TarIndex.load( indexFile, tar.length() + 512, tar.lastModified() ) );
+
+        TarFile reopened = new TarFile( tar.getPath() );
+        UncompressedFile out = reopened.extractEntry( "tartest/test.txt", "target/tar-test.out" );
+        assertEquals( 35, out.length() );
+        out.delete();
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TarFileTest.class );
+    }
+}
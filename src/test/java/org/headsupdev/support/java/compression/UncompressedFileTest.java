@@ -20,9 +20,17 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.framework.TestCase;
 
-import java.io.Writer;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * UncompressedFile Tester.
@@ -63,6 +71,71 @@ public class UncompressedFileTest
         copy.delete();
     }
 
+    public void testCopyLarge()
+            throws IOException
+    {
+        UncompressedFile large = writeLargeFile( "target/testlarge.txt" );
+        UncompressedFile copy = large.copyTo( "target/testlargecopy.txt" );
+        assertSameContent( large, copy );
+
+        copy.delete();
+        large.delete();
+    }
+
+    public void testCopyUnknownSize()
+            throws IOException
+    {
+        // files under /proc report a length of 0 but still have content
+        UncompressedFile proc = new UncompressedFile( "/proc/version" );
+        if ( !proc.exists() )
+        {
+            return;
+        }
+
+        UncompressedFile copy = proc.copyTo( "target/testproccopy.txt" );
+        assertEquals( 0, proc.length() );
+        assertTrue( copy.length() > 0 );
+
+        copy.delete();
+    }
+
+    public void testParallelCopyDir()
+            throws IOException
+    {
+        UncompressedFile dir = new UncompressedFile( "target/testcopydir" );
+        new UncompressedFile( dir, "sub" ).mkdirs();
+        testFile.copyTo( new UncompressedFile( dir, "test.txt" ) );
+        testFile.copyTo( new UncompressedFile( dir, "sub/test.txt" ) );
+
+        UncompressedFile dest = new UncompressedFile( "target/testcopydir2" );
+        CopySummary summary = dir.copyDirTo( dest, 4 );
+        assertEquals( 2, summary.getFiles() );
+        assertEquals( 2, summary.getDirectories() );
+        assertEquals( testFile.length() * 2, summary.getBytes() );
+        assertEquals( testFile.length(), new UncompressedFile( dest, "sub/test.txt" ).length() );
+
+        UncompressedFile[] dirs = new UncompressedFile[]{ dir, dest };
+        for ( int i = 0; i < dirs.length; i++ )
+        {
+            new UncompressedFile( dirs[i], "sub/test.txt" ).delete();
+            new UncompressedFile( dirs[i], "sub" ).delete();
+            new UncompressedFile( dirs[i], "test.txt" ).delete();
+            dirs[i].delete();
+        }
+    }
+
+    public void testMove()
+            throws IOException
+    {
+        UncompressedFile copy = testFile.copyTo( "target/testcopy.txt" );
+        UncompressedFile moved = copy.moveTo( "target/testmoved.txt" );
+        assertFalse( copy.exists() );
+        assertTrue( moved.exists() );
+        assertEquals( moved.length(), testFile.length() );
+
+        moved.delete();
+    }
+
     public void testZip()
             throws Exception
     {
@@ -83,6 +156,52 @@ public class UncompressedFileTest
         zip.delete();
     }
 
+    public void testParallelZip()
+            throws Exception
+    {
+        UncompressedFile dir = new UncompressedFile( "target/testtree" );
+        new UncompressedFile( dir, "sub" ).mkdirs();
+        testFile.copyTo( new UncompressedFile( dir, "test.txt" ) );
+        UncompressedFile large = writeLargeFile( "target/testtree/sub/large.txt" );
+
+        ZipFile zip = dir.zipCompress( false, 4 );
+        assertTrue( zip.exists() );
+
+        java.util.zip.ZipFile check = new java.util.zip.ZipFile( zip );
+        try
+        {
+            assertEquals( 4, check.size() );
+            java.util.zip.ZipEntry entry = check.getEntry( "testtree/sub/large.txt" );
+            assertNotNull( entry );
+            assertEquals( large.length(), entry.getSize() );
+
+            UncompressedFile expanded = new UncompressedFile( "target/testlarge.out" );
+            OutputStream out = new FileOutputStream( expanded );
+            InputStream in = check.getInputStream( entry );
+            byte[] data = new byte[2048];
+            int count;
+            while ( ( count = in.read( data ) ) != -1 )
+            {
+                out.write( data, 0, count );
+            }
+            in.close();
+            out.close();
+
+            assertSameContent( large, expanded );
+            expanded.delete();
+        }
+        finally
+        {
+            check.close();
+        }
+
+        zip.delete();
+        large.delete();
+        new UncompressedFile( dir, "test.txt" ).delete();
+        new UncompressedFile( dir, "sub" ).delete();
+        dir.delete();
+    }
+
     public void testTar()
             throws Exception
     {
@@ -103,6 +222,43 @@ public class UncompressedFileTest
         tar.delete();
     }
 
+    public void testTarGZip()
+            throws Exception
+    {
+        UncompressedFile dir = new UncompressedFile( "target/tgz" );
+        dir.mkdirs();
+        UncompressedFile large = writeLargeFile( "target/tgz/large.txt" );
+        testFile.copyTo( new UncompressedFile( dir, "small.txt" ) );
+
+        CompressionOptions parallel = new CompressionOptions();
+        parallel.setParallelism( 2 );
+        CompressionOptions[] options = new CompressionOptions[]{ new CompressionOptions(), parallel };
+        for ( int i = 0; i < options.length; i++ )
+        {
+            TarGZipFile tgz = dir.tarGzipCompress( false, options[i] );
+            assertTrue( tgz.exists() );
+            assertTrue( tgz.length() < large.length() );
+
+            UncompressedFile out = new UncompressedFile( "target/tgz-out" );
+            assertTrue( tgz.renameTo( new UncompressedFile( "target/tgz-out.tar.gz" ) ) );
+            tgz = new TarGZipFile( "target/tgz-out.tar.gz" );
+            assertEquals( out.getAbsoluteFile(), tgz.expand( options[i] ).getAbsoluteFile() );
+            assertSameContent( large, new UncompressedFile( out, "tgz/large.txt" ) );
+            assertSameContent( testFile, new UncompressedFile( out, "tgz/small.txt" ) );
+
+            tgz.delete();
+            new UncompressedFile( out, "tgz/large.txt" ).delete();
+            new UncompressedFile( out, "tgz/small.txt" ).delete();
+            new UncompressedFile( out, "tgz" ).delete();
+            out.delete();
+        }
+
+        TarGZipFile tgz = UncompressedFile.tarGzipCompress( new UncompressedFile[]{ dir }, true );
+        assertEquals( "data.tar.gz", tgz.getName() );
+        assertFalse( dir.exists() );
+        tgz.delete();
+    }
+
     public void testGZip()
             throws Exception
     {
@@ -113,6 +269,389 @@ public class UncompressedFileTest
         gzip.delete();
     }
 
+    public void testParallelGZip()
+            throws Exception
+    {
+        UncompressedFile large = writeLargeFile( "target/testlarge.txt" );
+
+        GZipFile gzip = large.gzipCompress( false, 4 );
+        assertTrue( gzip.exists() );
+        assertTrue( gzip.length() < large.length() );
+
+        UncompressedFile expanded = gzip.expandTo( "target/testlarge.out" );
+        assertSameContent( large, expanded );
+
+        expanded.delete();
+        gzip.delete();
+
+        // the executor overload takes the same options as the others
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            CompressionOptions options = new CompressionOptions();
+            options.setParallelism( 2 );
+            gzip = large.gzipCompress( false, executor, options );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        expanded = gzip.expandTo( "target/testlarge.out" );
+        assertSameContent( large, expanded );
+
+        expanded.delete();
+        gzip.delete();
+        large.delete();
+    }
+
+    public void testStatistics()
+            throws Exception
+    {
+        UncompressedFile dir = new UncompressedFile( "target/stats" );
+        dir.mkdirs();
+        UncompressedFile large = writeLargeFile( "target/stats/large.txt" );
+        testFile.copyTo( new UncompressedFile( dir, "small.txt" ) );
+        long total = large.length() + testFile.length();
+
+        CompressionStatistics stats = new CompressionStatistics();
+        CompressionOptions options = new CompressionOptions();
+        options.setListener( stats );
+        CompressionOptions parallel = new CompressionOptions( options );
+        parallel.setParallelism( 4 );
+        try
+        {
+            for ( CompressionOptions zipOptions : new CompressionOptions[]{ options, parallel } )
+            {
+                ZipFile zip = dir.zipCompress( false, zipOptions );
+                assertStatistics( stats, 2, total, -1 );
+                assertTrue( stats.getBytesOut() < zip.length() );
+                assertTrue( stats.getRatio() < 0.5 );
+                stats.reset();
+
+                assertTrue( zip.renameTo( new UncompressedFile( "target/stats-out.zip" ) ) );
+                zip = new ZipFile( "target/stats-out.zip" );
+                deleteTree( zip.expand( zipOptions ) );
+                assertStatistics( stats, 2, -1, total );
+                zip.delete();
+                stats.reset();
+            }
+
+            TarFile tar = dir.tarCompress( false, options );
+            assertStatistics( stats, 2, total, total );
+            stats.reset();
+            assertTrue( tar.renameTo( new UncompressedFile( "target/stats-out.tar" ) ) );
+            tar = new TarFile( "target/stats-out.tar" );
+            deleteTree( tar.expand( options ) );
+            assertStatistics( stats, 2, total, total );
+            tar.delete();
+            stats.reset();
+
+            // tar reports the entries, gzip the compressed size
+            TarGZipFile tgz = dir.tarGzipCompress( false, parallel );
+            assertStatistics( stats, 2, total, -1 );
+            assertTrue( stats.getBytesOut() < tgz.length() );
+            tgz.delete();
+            stats.reset();
+
+            for ( CompressionOptions gzipOptions : new CompressionOptions[]{ options, parallel } )
+            {
+                GZipFile gzip = large.gzipCompress( false, gzipOptions );
+                assertStatistics( stats, 1, large.length(), -1 );
+                assertTrue( stats.getBytesOut() < gzip.length() );
+                stats.reset();
+
+                deleteTree( gzip.expandTo( "target/stats.out", false, gzipOptions ) );
+                assertStatistics( stats, 1, gzip.length(), large.length() );
+                gzip.delete();
+                stats.reset();
+            }
+        }
+        finally
+        {
+            deleteTree( dir );
+        }
+    }
+
+    public void testAsync()
+            throws Exception
+    {
+        UncompressedFile dir = new UncompressedFile( "target/async" );
+        dir.mkdirs();
+        UncompressedFile large = writeLargeFile( "target/async/large.txt" );
+        CompressionScheduler scheduler = new CompressionScheduler( 2, 2 );
+        CompressionOptions options = new CompressionOptions();
+        options.setScheduler( scheduler );
+        options.setParallelism( 2 );
+        try
+        {
+            GZipFile gzip = large.gzipCompressAsync( false, options ).get();
+            UncompressedFile expanded = gzip.expandToAsync( "target/async.out", true, options ).get();
+            assertFalse( gzip.exists() );
+            assertSameContent( large, expanded );
+            expanded.delete();
+
+            ZipFile zip = dir.zipCompressAsync( false, options ).get();
+            assertTrue( zip.renameTo( new UncompressedFile( "target/async-zip.zip" ) ) );
+            zip = new ZipFile( "target/async-zip.zip" );
+            UncompressedFile out = zip.expandAsync( options ).get();
+            assertSameContent( large, new UncompressedFile( out, "async/large.txt" ) );
+            deleteTree( out );
+            zip.delete();
+
+            TarFile tar = dir.tarCompressAsync( true, options ).get();
+            assertFalse( dir.exists() );
+            out = tar.expandAsync( options ).get();
+            assertTrue( new UncompressedFile( out, "async/large.txt" ).exists() );
+            deleteTree( out );
+            tar.delete();
+        }
+        finally
+        {
+            scheduler.shutdown();
+            deleteTree( dir );
+        }
+    }
+
+    public void testAsyncCancel()
+            throws Exception
+    {
+        UncompressedFile large = writeLargeFile( "target/cancel.txt" );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        CompressionScheduler scheduler = new CompressionScheduler( 1, 1 );
+        CompressionOptions options = new CompressionOptions();
+        options.setScheduler( scheduler );
+        options.setBufferSize( 8192 );
+        options.setListener( new CompressionStatistics()
+        {
+            public void bytesProcessed( long bytesIn, long bytesOut )
+            {
+                // hold the compression part way through until it is cancelled
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        try
+        {
+            CompletableFuture<GZipFile> future = large.gzipCompressAsync( false, options );
+            assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+            UncompressedFile partial = new UncompressedFile( "target/cancel.txt.gz" );
+            assertTrue( partial.exists() );
+
+            assertTrue( future.cancel( true ) );
+            assertTrue( future.isCancelled() );
+            for ( int i = 0; i < 100 && partial.exists(); i++ )
+            {
+                Thread.sleep( 100 );
+            }
+            assertFalse( partial.exists() );
+            assertTrue( large.exists() );
+
+            // the pool thread is left ready for the next operation
+            release.countDown();
+            GZipFile gzip = large.gzipCompressAsync( false, options ).get( 10, TimeUnit.SECONDS );
+            assertTrue( gzip.length() > 0 );
+            gzip.delete();
+        }
+        finally
+        {
+            release.countDown();
+            scheduler.shutdown();
+            large.delete();
+        }
+    }
+
+    public void testBatch()
+            throws Exception
+    {
+        UncompressedFile dir = new UncompressedFile( "target/batch" );
+        dir.mkdirs();
+        List<java.io.File> files = new ArrayList<java.io.File>();
+        for ( int i = 1; i <= 5; i++ )
+        {
+            UncompressedFile file = new UncompressedFile( dir, "file" + i + ".txt" );
+            Writer out = new BufferedWriter( new FileWriter( file ) );
+            for ( int line = 0; line < i * 1000; line++ )
+            {
+                out.write( "Line " + line + " of file " + i + "\n" );
+            }
+            out.close();
+            files.add( file );
+        }
+        java.io.File missing = new java.io.File( dir, "missing.txt" );
+        files.add( 2, missing );
+
+        // one file at a time, so the order they finish in is the order they were started
+        final List<Long> sizes = Collections.synchronizedList( new ArrayList<Long>() );
+        CompressionScheduler scheduler = new CompressionScheduler( 2, 2 );
+        CompressionOptions options = new CompressionOptions();
+        options.setScheduler( scheduler );
+        options.setMaxOpenFiles( 2 );
+        options.setListener( new CompressionStatistics()
+        {
+            public void entryFinished( String name, long bytesIn, long bytesOut, long readNanos, long codecNanos,
+                                       long writeNanos )
+            {
+                sizes.add( bytesIn );
+            }
+        } );
+        try
+        {
+            BatchSummary<GZipFile> compressed = UncompressedFile.gzipCompressAll( files, false, options );
+            assertFalse( compressed.isSuccessful() );
+            assertEquals( 5, compressed.getResults().size() );
+            assertEquals( 1, compressed.getFailures().size() );
+            assertTrue( compressed.getFailures().containsKey( missing ) );
+            assertFalse( new java.io.File( dir, "missing.txt.gz" ).exists() );
+            assertEquals( files.get( 0 ), compressed.getResults().keySet().iterator().next() );
+            assertEquals( 5, sizes.size() );
+            for ( int i = 1; i < sizes.size(); i++ )
+            {
+                assertTrue( sizes.get( i - 1 ) >= sizes.get( i ) );
+            }
+
+            List<java.io.File> gzips = new ArrayList<java.io.File>();
+            for ( java.io.File file : files )
+            {
+                if ( file != missing )
+                {
+                    assertTrue( file.renameTo( new java.io.File( file.getPath() + ".orig" ) ) );
+                    gzips.add( compressed.getResults().get( file ) );
+                }
+            }
+
+            options.setMaxOpenFiles( CompressionOptions.DEFAULT_MAX_OPEN_FILES );
+            BatchSummary<UncompressedFile> expanded = GZipFile.expandAll( gzips, true, options );
+            assertTrue( expanded.isSuccessful() );
+            for ( java.io.File file : files )
+            {
+                if ( file != missing )
+                {
+                    assertSameContent( new java.io.File( file.getPath() + ".orig" ), file );
+                    assertFalse( new java.io.File( file.getPath() + ".gz" ).exists() );
+                }
+            }
+        }
+        finally
+        {
+            scheduler.shutdown();
+            deleteTree( dir );
+        }
+    }
+
+    private static void assertStatistics( CompressionStatistics stats, long entries, long bytesIn, long bytesOut )
+    {
+        assertEquals( entries, stats.getEntries() );
+        assertEquals( 0, stats.getEntriesInProgress() );
+        if ( bytesIn >= 0 )
+        {
+            assertEquals( bytesIn, stats.getBytesIn() );
+        }
+        else
+        {
+            assertTrue( stats.getBytesIn() > 0 );
+        }
+        if ( bytesOut >= 0 )
+        {
+            assertEquals( bytesOut, stats.getBytesOut() );
+        }
+        else
+        {
+            assertTrue( stats.getBytesOut() > 0 );
+        }
+    }
+
+    private static void deleteTree( java.io.File file )
+    {
+        java.io.File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( java.io.File child : children )
+            {
+                deleteTree( child );
+            }
+        }
+        file.delete();
+    }
+
+    public void testGZipOptions()
+            throws Exception
+    {
+        UncompressedFile large = writeLargeFile( "target/testlarge.txt" );
+
+        CompressionOptions options = new CompressionOptions();
+        options.setLevel( java.util.zip.Deflater.BEST_SPEED );
+        options.setBufferSize( 64 * 1024 );
+        GZipFile fast = large.gzipCompress( false, options );
+        long fastLength = fast.length();
+        UncompressedFile expanded = fast.expandTo( "target/testlarge.out", false, options );
+        assertSameContent( large, expanded );
+        expanded.delete();
+
+        options.setLevel( java.util.zip.Deflater.BEST_COMPRESSION );
+        options.setParallelism( 2 );
+        GZipFile small = large.gzipCompress( false, options );
+        assertTrue( small.length() < fastLength );
+        expanded = small.expandTo( "target/testlarge.out", false, options );
+        assertSameContent( large, expanded );
+
+        expanded.delete();
+        small.delete();
+        large.delete();
+    }
+
+    public void testMemoryMapped()
+            throws Exception
+    {
+        UncompressedFile large = writeLargeFile( "target/testlarge.txt" );
+
+        CompressionOptions options = new CompressionOptions();
+        options.setMemoryMapped( true );
+        GZipFile mapped = large.gzipCompress( false, options );
+        UncompressedFile expanded = mapped.expandTo( "target/testlarge.out" );
+        assertSameContent( large, expanded );
+        expanded.delete();
+        UncompressedFile mappedFile = new UncompressedFile( "target/testlarge.map.gz" );
+        assertTrue( mapped.renameTo( mappedFile ) );
+
+        // deflate is not affected by how the input arrives, so small windows make the same stream
+        UncompressedFile windowedFile = new UncompressedFile( "target/testlarge.win.gz" );
+        OutputStream windowed = new BufferedOutputStream( new FileOutputStream( windowedFile ) );
+        java.util.zip.Deflater deflater = new java.util.zip.Deflater( java.util.zip.Deflater.DEFAULT_COMPRESSION,
+                true );
+        RandomAccessFile in = new RandomAccessFile( large, "r" );
+        try
+        {
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            windowed.write( GZipFormat.HEADER );
+            long length = Streams.deflate( in.getChannel(), windowed, deflater, new byte[2048], crc, 100000,
+                    null );
+            GZipFormat.writeTrailer( windowed, crc.getValue(), length );
+            assertEquals( large.length(), length );
+        }
+        finally
+        {
+            in.close();
+            windowed.close();
+            deflater.end();
+        }
+        GZipFile streamed = large.gzipCompress( false );
+        assertSameContent( streamed, mappedFile );
+        assertSameContent( streamed, windowedFile );
+
+        windowedFile.delete();
+        mappedFile.delete();
+        streamed.delete();
+        large.delete();
+    }
+
     public void testRecursiveSimlink()
             throws Exception
     {
@@ -124,6 +663,56 @@ public class UncompressedFileTest
         zippedFile.delete();
     }
 
+    static UncompressedFile writeLargeFile( String name )
+            throws IOException
+    {
+        UncompressedFile file = new UncompressedFile( name );
+        Random random = new Random( 42 );
+        Writer out = new BufferedWriter( new FileWriter( file ) );
+        try
+        {
+            for ( int i = 0; i < 100000; i++ )
+            {
+                out.write( "Line " + i + " of some text - " + random.nextInt( 1000 ) + "\n" );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return file;
+    }
+
+    static void assertSameContent( java.io.File expected, java.io.File actual )
+            throws IOException
+    {
+        assertEquals( expected.length(), actual.length() );
+
+        InputStream in1 = new BufferedInputStream( new FileInputStream( expected ) );
+        InputStream in2 = new BufferedInputStream( new FileInputStream( actual ) );
+        try
+        {
+            byte[] data1 = new byte[2048];
+            byte[] data2 = new byte[2048];
+            int count;
+            while ( ( count = in1.read( data1 ) ) != -1 )
+            {
+                int read = 0;
+                while ( read < count )
+                {
+                    read += in2.read( data2, read, count - read );
+                }
+                assertTrue( Arrays.equals( data1, data2 ) );
+            }
+        }
+        finally
+        {
+            in1.close();
+            in2.close();
+        }
+    }
+
     public static Test suite()
     {
         return new TestSuite( UncompressedFileTest.class );
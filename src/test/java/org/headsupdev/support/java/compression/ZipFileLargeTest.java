@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+
+/**
+ * ZipFile Tester for ZIP64 archives larger than 4GB. These write over 4GB to target and take a while, so
+ * they only run when asked for with -Dzip64.large=true.
+ */
+public class ZipFileLargeTest
+        extends TestCase
+{
+    public ZipFileLargeTest( String name )
+    {
+        super( name );
+    }
+
+    public void testZip64Large()
+            throws Exception
+    {
+        // the input is sparse, but without compression the archive really is larger than 4GB
+        UncompressedFile dir = new UncompressedFile( "target/ziptest64" );
+        dir.mkdirs();
+        UncompressedFile huge = new UncompressedFile( dir, "huge.bin" );
+        RandomAccessFile file = new RandomAccessFile( huge, "rw" );
+        try
+        {
+            file.setLength( 0x100000000L + 1024 );
+            file.seek( file.length() - 4 );
+            file.write( new byte[]{ 1, 2, 3, 4 } );
+        }
+        finally
+        {
+            file.close();
+        }
+
+        CompressionOptions options = new CompressionOptions();
+        options.setLevel( java.util.zip.Deflater.NO_COMPRESSION );
+        ZipFile large = null;
+        UncompressedFile added = new UncompressedFile( dir, "new.txt" );
+        try
+        {
+            large = dir.zipCompress( false, options );
+            ZipIndexEntry entry = large.getEntry( "ziptest64/huge.bin" );
+            assertEquals( huge.length(), entry.getSize() );
+            assertTrue( entry.getCompressedSize() > 0xffffffffL );
+
+            // appending puts the new entry and the central directory past 4GB
+            Writer writer = new FileWriter( added );
+            writer.write( "A new file\n" );
+            writer.close();
+            large.update( new UncompressedFile[]{ dir }, options );
+            assertTrue( large.getEntry( "ziptest64/new.txt" ).getLocalHeaderOffset() > 0xffffffffL );
+            UncompressedFile extracted = large.extractEntry( "ziptest64/new.txt", "target/ziptest64-new.out" );
+            UncompressedFileTest.assertSameContent( added, extracted );
+            extracted.delete();
+
+            // reading to the end checks the size and the CRC, which covers the bytes written at the end
+            InputStream in = large.openEntry( "ziptest64/huge.bin" );
+            byte[] data = new byte[64 * 1024];
+            long count = 0;
+            try
+            {
+                int read;
+                while ( ( read = in.read( data ) ) != -1 )
+                {
+                    count += read;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            assertEquals( huge.length(), count );
+
+            java.util.zip.ZipFile other = new java.util.zip.ZipFile( large );
+            try
+            {
+                assertEquals( 3, other.size() );
+                assertEquals( huge.length(), other.getEntry( "ziptest64/huge.bin" ).getSize() );
+                assertEquals( 11, other.getEntry( "ziptest64/new.txt" ).getSize() );
+            }
+            finally
+            {
+                other.close();
+            }
+        }
+        finally
+        {
+            if ( large != null )
+            {
+                large.delete();
+            }
+            added.delete();
+            huge.delete();
+            dir.delete();
+        }
+    }
+
+    public static Test suite()
+    {
+        if ( !Boolean.getBoolean( "zip64.large" ) )
+        {
+            return new TestSuite();
+        }
+
+        return new TestSuite( ZipFileLargeTest.class );
+    }
+}
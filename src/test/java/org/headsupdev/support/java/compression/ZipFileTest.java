@@ -0,0 +1,675 @@
+/*
+ * Copyright 2012 Heads Up Development Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.headsupdev.support.java.compression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.List;
+
+/**
+ * ZipFile Tester.
+ */
+public class ZipFileTest
+        extends TestCase
+{
+
+    private UncompressedFile testDir;
+
+    private UncompressedFile largeFile;
+
+    private ZipFile zip;
+
+    public ZipFileTest( String name )
+    {
+        super( name );
+    }
+
+    public void setUp()
+            throws Exception
+    {
+        testDir = new UncompressedFile( "target/ziptest" );
+        new UncompressedFile( testDir, "sub" ).mkdirs();
+
+        Writer out = new FileWriter( new UncompressedFile( testDir, "test.txt" ) );
+        out.write( "This is some text - a test\n\nthanks\n" );
+        out.close();
+        largeFile = UncompressedFileTest.writeLargeFile( "target/ziptest/sub/large.txt" );
+
+        zip = testDir.zipCompress();
+    }
+
+    public void tearDown()
+            throws Exception
+    {
+        zip.delete();
+        new UncompressedFile( testDir, "test.txt" ).delete();
+        largeFile.delete();
+        new UncompressedFile( testDir, "sub" ).delete();
+        testDir.delete();
+    }
+
+    public void testEntries()
+            throws Exception
+    {
+        List<ZipIndexEntry> entries = zip.getEntries();
+        assertEquals( 4, entries.size() );
+
+        ZipIndexEntry entry = zip.getEntry( "ziptest/sub/large.txt" );
+        assertNotNull( entry );
+        assertEquals( largeFile.length(), entry.getSize() );
+        assertTrue( entry.getCompressedSize() < entry.getSize() );
+        assertFalse( entry.isDirectory() );
+
+        assertTrue( zip.getEntry( "ziptest/sub/" ).isDirectory() );
+        assertNull( zip.getEntry( "missing" ) );
+    }
+
+    public void testExtractEntry()
+            throws Exception
+    {
+        UncompressedFile extracted = zip.extractEntry( "ziptest/sub/large.txt", "target/ziptest-large.out" );
+        UncompressedFileTest.assertSameContent( largeFile, extracted );
+        extracted.delete();
+
+        InputStream in = zip.openEntry( "ziptest/test.txt" );
+        BufferedReader reader = new BufferedReader( new InputStreamReader( in ) );
+        assertEquals( "This is some text - a test", reader.readLine() );
+        reader.close();
+    }
+
+    public void testParallelExpand()
+            throws Exception
+    {
+        UncompressedFile expanded = zip.expand( 3 );
+        UncompressedFile nested = new UncompressedFile( expanded, "ziptest" );
+        assertTrue( new UncompressedFile( nested, "sub" ).isDirectory() );
+
+        UncompressedFile large = new UncompressedFile( nested, "sub/large.txt" );
+        UncompressedFileTest.assertSameContent( largeFile, large );
+        UncompressedFile test = new UncompressedFile( nested, "test.txt" );
+        assertEquals( 35, test.length() );
+
+        large.delete();
+        test.delete();
+        new UncompressedFile( nested, "sub" ).delete();
+        nested.delete();
+    }
+
+    public void testStoreThreshold()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setStoreThreshold( 1024 );
+        options.setLevel( java.util.zip.Deflater.BEST_SPEED );
+        options.setBufferSize( 64 * 1024 );
+
+        for ( int parallelism = 1; parallelism <= 2; parallelism++ )
+        {
+            options.setParallelism( parallelism );
+            ZipFile stored = testDir.zipCompress( false, options );
+
+            assertEquals( java.util.zip.ZipEntry.STORED, stored.getEntry( "ziptest/test.txt" ).getMethod() );
+            assertEquals( 35, stored.getEntry( "ziptest/test.txt" ).getCompressedSize() );
+            assertEquals( java.util.zip.ZipEntry.DEFLATED, stored.getEntry( "ziptest/sub/large.txt" ).getMethod() );
+
+            UncompressedFile extracted = stored.extractEntry( "ziptest/test.txt",
+                    new UncompressedFile( "target/ziptest-small.out" ), options );
+            UncompressedFileTest.assertSameContent( new UncompressedFile( testDir, "test.txt" ), extracted );
+            extracted.delete();
+        }
+    }
+
+    public void testAdaptive()
+            throws Exception
+    {
+        // compressible text with an incompressible extension, and random data with a text one
+        UncompressedFile photo = largeFile.copyTo( new UncompressedFile( testDir, "photo.JPG" ) );
+        UncompressedFile random = new UncompressedFile( testDir, "random.txt" );
+        byte[] data = new byte[100 * 1024];
+        new java.util.Random( 42 ).nextBytes( data );
+        OutputStream out = new FileOutputStream( random );
+        out.write( data );
+        out.close();
+
+        CompressionOptions options = new CompressionOptions();
+        options.setAdaptive( true );
+        try
+        {
+            for ( int parallelism = 1; parallelism <= 2; parallelism++ )
+            {
+                options.setParallelism( parallelism );
+                ZipFile adaptive = testDir.zipCompress( false, options );
+
+                assertEquals( java.util.zip.ZipEntry.STORED, adaptive.getEntry( "ziptest/photo.JPG" ).getMethod() );
+                assertEquals( java.util.zip.ZipEntry.STORED, adaptive.getEntry( "ziptest/random.txt" ).getMethod() );
+                assertEquals( data.length, adaptive.getEntry( "ziptest/random.txt" ).getCompressedSize() );
+                assertEquals( java.util.zip.ZipEntry.DEFLATED,
+                        adaptive.getEntry( "ziptest/sub/large.txt" ).getMethod() );
+
+                UncompressedFile extracted = adaptive.extractEntry( "ziptest/random.txt", "target/ziptest-random.out" );
+                UncompressedFileTest.assertSameContent( random, extracted );
+                extracted.delete();
+            }
+        }
+        finally
+        {
+            photo.delete();
+            random.delete();
+        }
+    }
+
+    public void testExpandOptions()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setBufferSize( 64 * 1024 );
+        options.setParallelism( 2 );
+
+        UncompressedFile expanded = zip.expand( options );
+        UncompressedFile nested = new UncompressedFile( expanded, "ziptest" );
+        UncompressedFile large = new UncompressedFile( nested, "sub/large.txt" );
+        UncompressedFileTest.assertSameContent( largeFile, large );
+
+        large.delete();
+        new UncompressedFile( nested, "test.txt" ).delete();
+        new UncompressedFile( nested, "sub" ).delete();
+        nested.delete();
+    }
+
+    public void testExpandMapped()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setMemoryMapped( true );
+        options.setStoreThreshold( 1024 );
+        zip.delete();
+        zip = testDir.zipCompress( false, options );
+
+        for ( int parallelism = 1; parallelism <= 2; parallelism++ )
+        {
+            options.setParallelism( parallelism );
+            UncompressedFile expanded = zip.expand( options );
+            UncompressedFile nested = new UncompressedFile( expanded, "ziptest" );
+            UncompressedFile large = new UncompressedFile( nested, "sub/large.txt" );
+            UncompressedFileTest.assertSameContent( largeFile, large );
+            UncompressedFile test = new UncompressedFile( nested, "test.txt" );
+            UncompressedFileTest.assertSameContent( new UncompressedFile( testDir, "test.txt" ), test );
+
+            large.delete();
+            test.delete();
+            new UncompressedFile( nested, "sub" ).delete();
+            nested.delete();
+        }
+
+        // extracting over a larger file must leave only the entry content
+        UncompressedFile extracted = new UncompressedFile( "target/ziptest-mapped.out" );
+        largeFile.copyTo( extracted );
+        zip.extractEntry( "ziptest/test.txt", extracted, options );
+        assertEquals( 35, extracted.length() );
+        extracted.delete();
+    }
+
+    public void testMissingEntry()
+            throws Exception
+    {
+        try
+        {
+            zip.openEntry( "missing" );
+            fail( "Expected a missing entry to fail" );
+        }
+        catch ( FileNotFoundException e )
+        {
+            // expected
+        }
+    }
+
+    public void testUpdateAppend()
+            throws Exception
+    {
+        long largeOffset = zip.getEntry( "ziptest/sub/large.txt" ).getLocalHeaderOffset();
+        UncompressedFile added = new UncompressedFile( testDir, "new.txt" );
+        Writer out = new FileWriter( added );
+        out.write( "A new file\n" );
+        out.close();
+
+        try
+        {
+            zip.update( new UncompressedFile[]{ testDir } );
+
+            assertEquals( 5, zip.getEntries().size() );
+            // nothing changed, so the existing entries were left where they were
+            assertEquals( largeOffset, zip.getEntry( "ziptest/sub/large.txt" ).getLocalHeaderOffset() );
+            assertUpdated( "ziptest/new.txt", added );
+            assertUpdated( "ziptest/sub/large.txt", largeFile );
+        }
+        finally
+        {
+            added.delete();
+        }
+    }
+
+    public void testUpdateFailed()
+            throws Exception
+    {
+        // the first new file is written over the old central directory before the second one fails
+        UncompressedFile added = new UncompressedFile( "target/ziptest-added.txt" );
+        java.nio.file.Files.copy( largeFile.toPath(), added.toPath() );
+        UncompressedFile dangling = new UncompressedFile( "target/ziptest-dangling.txt" );
+        java.nio.file.Files.createSymbolicLink( dangling.toPath(), new java.io.File( "missing" ).toPath() );
+        long length = zip.length();
+
+        try
+        {
+            zip.update( new UncompressedFile[]{ testDir, added, dangling } );
+            fail( "Expected a missing file to fail" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        finally
+        {
+            added.delete();
+            dangling.delete();
+        }
+
+        assertEquals( length, zip.length() );
+        assertEquals( 4, zip.getEntries().size() );
+        assertNull( zip.getEntry( "ziptest-added.txt" ) );
+        assertUpdated( "ziptest/sub/large.txt", largeFile );
+    }
+
+    public void testUpdateChanged()
+            throws Exception
+    {
+        long largeSize = zip.getEntry( "ziptest/sub/large.txt" ).getCompressedSize();
+        UncompressedFile text = new UncompressedFile( testDir, "test.txt" );
+        Writer out = new FileWriter( text );
+        out.write( "Some different text\n" );
+        out.close();
+        text.setLastModified( text.lastModified() + 10000 );
+        // touched but not changed, so it is copied as it was
+        largeFile.setLastModified( largeFile.lastModified() + 10000 );
+
+        zip.update( new UncompressedFile[]{ testDir } );
+
+        assertEquals( 4, zip.getEntries().size() );
+        assertEquals( largeSize, zip.getEntry( "ziptest/sub/large.txt" ).getCompressedSize() );
+        assertEquals( ZipArchiveWriter.toDosTime( largeFile.lastModified() ),
+                zip.getEntry( "ziptest/sub/large.txt" ).getDosTime() );
+        assertUpdated( "ziptest/test.txt", text );
+        assertUpdated( "ziptest/sub/large.txt", largeFile );
+        assertFalse( new UncompressedFile( zip.getPath() + ".tmp" ).exists() );
+    }
+
+    public void testMemoryMapped()
+            throws Exception
+    {
+        CompressionOptions options = new CompressionOptions();
+        options.setMemoryMapped( true );
+        for ( int parallelism = 1; parallelism <= 2; parallelism++ )
+        {
+            options.setParallelism( parallelism );
+            zip.delete();
+            zip = testDir.zipCompress( false, options );
+
+            assertUpdated( "ziptest/sub/large.txt", largeFile );
+            assertUpdated( "ziptest/test.txt", new UncompressedFile( testDir, "test.txt" ) );
+        }
+    }
+
+    public void testCache()
+            throws Exception
+    {
+        UncompressedFile cacheDir = new UncompressedFile( "target/zipcache" );
+        CompressionOptions options = new CompressionOptions();
+        options.setCache( new CompressionCache( cacheDir, 100 * 1024 * 1024 ) );
+        try
+        {
+            for ( int parallelism = 1; parallelism <= 2; parallelism++ )
+            {
+                options.setParallelism( parallelism );
+                zip.delete();
+                zip = testDir.zipCompress( false, options );
+                java.io.File[] cached = cacheDir.listFiles();
+                assertEquals( 2, cached.length );
+                for ( java.io.File file : cached )
+                {
+                    file.setLastModified( 0 );
+                }
+
+                // the second time round the entries come from the cache, which marks them as used
+                ZipIndexEntry expected = zip.getEntry( "ziptest/sub/large.txt" );
+                zip.delete();
+                zip = testDir.zipCompress( false, options );
+                ZipIndexEntry actual = zip.getEntry( "ziptest/sub/large.txt" );
+                assertEquals( expected.getCompressedSize(), actual.getCompressedSize() );
+                assertEquals( expected.getCrc(), actual.getCrc() );
+                assertEquals( 2, cacheDir.listFiles().length );
+                for ( java.io.File file : cacheDir.listFiles() )
+                {
+                    assertTrue( file.lastModified() > 0 );
+                }
+                assertUpdated( "ziptest/sub/large.txt", largeFile );
+
+                // a file that has been touched is deflated again
+                largeFile.setLastModified( largeFile.lastModified() + 10000 );
+                zip.delete();
+                zip = testDir.zipCompress( false, options );
+                assertEquals( 3, cacheDir.listFiles().length );
+                assertUpdated( "ziptest/sub/large.txt", largeFile );
+
+                deleteAll( cacheDir );
+            }
+        }
+        finally
+        {
+            deleteAll( cacheDir );
+        }
+    }
+
+    public void testCacheEviction()
+            throws Exception
+    {
+        UncompressedFile cacheDir = new UncompressedFile( "target/zipcache" );
+        CompressionOptions options = new CompressionOptions();
+        options.setCache( new CompressionCache( cacheDir, 1024 ) );
+        try
+        {
+            zip.delete();
+            zip = testDir.zipCompress( false, options );
+
+            // the large entry does not fit, so at most the small one is kept
+            java.io.File[] cached = cacheDir.listFiles();
+            assertTrue( cached.length <= 1 );
+            for ( java.io.File file : cached )
+            {
+                assertTrue( file.length() < 1024 );
+            }
+            assertUpdated( "ziptest/sub/large.txt", largeFile );
+        }
+        finally
+        {
+            deleteAll( cacheDir );
+        }
+    }
+
+    public void testExpandOutside()
+            throws Exception
+    {
+        ZipFile slip = new ZipFile( "target/ziptest-slip.zip" );
+        OutputStream out = new FileOutputStream( slip );
+        try
+        {
+            ZipArchiveWriter zout = new ZipArchiveWriter( out );
+            zout.writeEntry( "../ziptest-escaped.txt", System.currentTimeMillis(),
+                    new ByteArrayInputStream( "escaped".getBytes() ) );
+            zout.finish();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        java.io.File escaped = new java.io.File( "target/ziptest-escaped.txt" );
+        try
+        {
+            slip.expand( 2 );
+            fail( "Expected an entry outside of the directory to fail" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        finally
+        {
+            slip.delete();
+            new java.io.File( "target/ziptest-slip" ).delete();
+        }
+        assertFalse( escaped.exists() );
+        escaped.delete();
+    }
+
+    public void testExpandDuplicates()
+            throws Exception
+    {
+        ZipFile duplicates = new ZipFile( "target/ziptest-dup.zip" );
+        OutputStream out = new FileOutputStream( duplicates );
+        try
+        {
+            ZipArchiveWriter zout = new ZipArchiveWriter( out );
+            zout.writeEntry( "dup.txt", System.currentTimeMillis(), new ByteArrayInputStream( "first".getBytes() ) );
+            zout.writeEntry( "dup.txt", System.currentTimeMillis(), new ByteArrayInputStream( "second".getBytes() ) );
+            zout.finish();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        UncompressedFile expanded = null;
+        try
+        {
+            // only the copy that readers would use is written
+            expanded = duplicates.expand( 2 );
+            BufferedReader reader = new BufferedReader( new FileReader( new java.io.File( expanded, "dup.txt" ) ) );
+            try
+            {
+                assertEquals( "second", reader.readLine() );
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            duplicates.delete();
+            if ( expanded != null )
+            {
+                deleteAll( expanded );
+            }
+        }
+    }
+
+    public void testExpandStopsAtFailure()
+            throws Exception
+    {
+        ZipFile corrupt = new ZipFile( "target/ziptest-corrupt.zip" );
+        OutputStream out = new FileOutputStream( corrupt );
+        try
+        {
+            ZipArchiveWriter zout = new ZipArchiveWriter( out );
+            zout.writeEntry( "bad.txt", System.currentTimeMillis(),
+                    new ByteArrayInputStream( "some text that will not check out".getBytes() ) );
+            zout.writeEntry( "good.txt", System.currentTimeMillis(), new ByteArrayInputStream( "good".getBytes() ) );
+            zout.finish();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        // damage the data of the first entry, just after its local header
+        RandomAccessFile raf = new RandomAccessFile( corrupt, "rw" );
+        try
+        {
+            raf.seek( 30 + "bad.txt".length() + 2 );
+            int value = raf.read();
+            raf.seek( raf.getFilePointer() - 1 );
+            raf.write( value ^ 0xff );
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        java.io.File expanded = new java.io.File( "target/ziptest-corrupt" );
+        try
+        {
+            corrupt.expand( new CompressionOptions() );
+            fail( "Expected a damaged entry to fail" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        finally
+        {
+            corrupt.delete();
+        }
+
+        // on one thread nothing after the failed entry is written
+        assertFalse( new java.io.File( expanded, "good.txt" ).exists() );
+        deleteAll( expanded );
+    }
+
+    public void testZip64Entries()
+            throws Exception
+    {
+        // more entries than the end of central directory record can count
+        ZipFile many = new ZipFile( "target/ziptest-many.zip" );
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( many ) );
+        try
+        {
+            ZipArchiveWriter zout = new ZipArchiveWriter( out );
+            for ( int i = 0; i < 70000; i++ )
+            {
+                zout.writeEntry( new PrecompressedEntry( "dir" + i + "/", 0 ) );
+            }
+            zout.finish();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        try
+        {
+            assertEquals( 70000, many.getEntries().size() );
+            assertTrue( many.getEntry( "dir69999/" ).isDirectory() );
+
+            java.util.zip.ZipFile other = new java.util.zip.ZipFile( many );
+            try
+            {
+                assertEquals( 70000, other.size() );
+            }
+            finally
+            {
+                other.close();
+            }
+        }
+        finally
+        {
+            many.delete();
+        }
+    }
+
+    public void testZip64Offsets()
+            throws Exception
+    {
+        // entries written after a 4GB hole have ZIP64 offsets, and so does the central directory
+        ZipFile sparse = new ZipFile( "target/ziptest-sparse.zip" );
+        RandomAccessFile file = new RandomAccessFile( sparse, "rw" );
+        try
+        {
+            file.seek( 0x100000000L );
+            OutputStream out = new BufferedOutputStream( Channels.newOutputStream( file.getChannel() ) );
+            ZipArchiveWriter zout = new ZipArchiveWriter( out, new CompressionOptions(), 0x100000000L );
+            zout.writeEntry( new PrecompressedEntry( "dir/", 0 ) );
+            zout.writeEntry( "dir/test.txt", System.currentTimeMillis(),
+                    new ByteArrayInputStream( "past 4GB".getBytes() ) );
+            zout.finish();
+        }
+        finally
+        {
+            file.close();
+        }
+
+        try
+        {
+            ZipIndexEntry entry = sparse.getEntry( "dir/test.txt" );
+            assertTrue( entry.getLocalHeaderOffset() > 0xffffffffL );
+            BufferedReader reader = new BufferedReader( new InputStreamReader( sparse.openEntry( "dir/test.txt" ) ) );
+            try
+            {
+                assertEquals( "past 4GB", reader.readLine() );
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            java.util.zip.ZipFile other = new java.util.zip.ZipFile( sparse );
+            try
+            {
+                assertEquals( 2, other.size() );
+                assertEquals( 8, other.getEntry( "dir/test.txt" ).getSize() );
+            }
+            finally
+            {
+                other.close();
+            }
+        }
+        finally
+        {
+            sparse.delete();
+        }
+    }
+
+    private static void deleteAll( java.io.File dir )
+    {
+        java.io.File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( java.io.File file : files )
+            {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void assertUpdated( String name, java.io.File expected )
+            throws IOException
+    {
+        UncompressedFile extracted = zip.extractEntry( name, "target/ziptest-update.out" );
+        UncompressedFileTest.assertSameContent( expected, extracted );
+        extracted.delete();
+
+        // and check the archive with another reader
+        java.util.zip.ZipFile other = new java.util.zip.ZipFile( zip );
+        try
+        {
+            assertEquals( zip.getEntries().size(), other.size() );
+            assertEquals( expected.length(), other.getEntry( name ).getSize() );
+        }
+        finally
+        {
+            other.close();
+        }
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ZipFileTest.class );
+    }
+}